@@ -0,0 +1,300 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A table of commits and their parents, so history can be walked without
+ * reading and decompressing every commit object.
+ *
+ * File layout (git/commit-graph):
+ *   "CGPH" <version int> <commit count int>
+ *   one fixed-width row per commit, sorted by commit id:
+ *     commit id (20 bytes), root tree id (20 bytes),
+ *     first parent position (int), second parent position (int),
+ *     generation (int), commit time in seconds (long)
+ *   <extra edge count int> then that many ints
+ * A parent position is the row of the parent, or NO_PARENT. A commit with
+ * more than two parents stores EXTRA_EDGES | i as its second parent: its
+ * other parents are extra edge i onwards, and the last one has LAST_EDGE set.
+ *
+ * The generation of a commit with no parents is 1, and every other commit's
+ * is one more than the largest of its parents'. An ancestor always has a
+ * lower generation than its descendants, so walks can stop at commits whose
+ * generation is too low to lead anywhere useful.
+ *
+ * The file is memory mapped when opened. Every commit in it has all of its
+ * ancestors in it too.
+ */
+public class CommitGraph {
+
+    public static final int NO_PARENT = -1;
+    private static final int EXTRA_EDGES = 0x40000000;
+    private static final int LAST_EDGE = 0x80000000;
+
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ID_SIZE = 20;
+    private static final int ROW_SIZE = ID_SIZE * 2 + 4 * 3 + 8;
+
+    private MappedByteBuffer graph;
+    private int count;
+    private int edgesStart;
+
+    /**
+     * One commit to write into a graph
+     */
+    public static class Row {
+        public final ObjectId id;
+        public final ObjectId tree;
+        public final List<ObjectId> parents;
+        public final long time;
+
+        public Row(ObjectId id, ObjectId tree, List<ObjectId> parents, long time) {
+            this.id = id;
+            this.tree = tree;
+            this.parents = parents;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Opens and maps an existing commit-graph file
+     *
+     * @param file The commit-graph file
+     * @throws IOException if the file is missing or not a commit graph
+     */
+    public CommitGraph(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            graph = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (graph.capacity() < HEADER_SIZE + 4 || graph.getInt(0) != magic("CGPH")) {
+            throw new IOException("Not a commit graph: " + file.getPath());
+        }
+        if (graph.getInt(4) != VERSION) {
+            throw new IOException("Unsupported commit graph version: " + file.getPath());
+        }
+        count = graph.getInt(8);
+        edgesStart = HEADER_SIZE + count * ROW_SIZE + 4;
+    }
+
+    /**
+     * @return The number of commits in the graph
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Finds a commit
+     *
+     * @param id The commit id
+     * @return The commit's row, or -1 if it is not in the graph
+     */
+    public int find(ObjectId id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = idAt(mid).compareTo(id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param position A row from 0 to size() - 1
+     * @return The commit id in that row
+     */
+    public ObjectId idAt(int position) {
+        return ObjectId.fromBuffer(graph, rowStart(position));
+    }
+
+    /**
+     * @param position A row from 0 to size() - 1
+     * @return The root tree id of the commit in that row
+     */
+    public ObjectId treeAt(int position) {
+        return ObjectId.fromBuffer(graph, rowStart(position) + ID_SIZE);
+    }
+
+    /**
+     * @param position A row from 0 to size() - 1
+     * @return The generation of the commit in that row
+     */
+    public int generationAt(int position) {
+        return graph.getInt(rowStart(position) + ID_SIZE * 2 + 8);
+    }
+
+    /**
+     * @param position A row from 0 to size() - 1
+     * @return The commit time in seconds of the commit in that row
+     */
+    public long timeAt(int position) {
+        return graph.getLong(rowStart(position) + ID_SIZE * 2 + 12);
+    }
+
+    /**
+     * @param position A row from 0 to size() - 1
+     * @return The rows of the commit's parents, first parent first
+     */
+    public int[] parentsAt(int position) {
+        int start = rowStart(position) + ID_SIZE * 2;
+        int first = graph.getInt(start);
+        int second = graph.getInt(start + 4);
+        if (first == NO_PARENT) {
+            return new int[0];
+        }
+        if (second == NO_PARENT) {
+            return new int[] { first };
+        }
+        if ((second & EXTRA_EDGES) == 0) {
+            return new int[] { first, second };
+        }
+        ArrayList<Integer> parents = new ArrayList<>();
+        parents.add(first);
+        int edge = second & ~EXTRA_EDGES;
+        while (true) {
+            int value = graph.getInt(edgesStart + edge * 4);
+            parents.add(value & ~LAST_EDGE);
+            if ((value & LAST_EDGE) != 0) {
+                break;
+            }
+            edge++;
+        }
+        int[] result = new int[parents.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = parents.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Writes a commit graph, replacing any file already there. Every parent
+     * of every row must be a row too.
+     *
+     * @param file The commit-graph file
+     * @param rows The commits, in any order
+     * @return The new graph, already opened
+     * @throws IOException if the file cannot be written
+     */
+    public static CommitGraph write(File file, List<Row> rows) throws IOException {
+        ArrayList<Row> sorted = new ArrayList<>(rows);
+        sorted.sort((a, b) -> a.id.compareTo(b.id));
+        HashMap<ObjectId, Integer> positions = new HashMap<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            positions.put(sorted.get(i).id, i);
+        }
+        int[][] parents = new int[sorted.size()][];
+        for (int i = 0; i < sorted.size(); i++) {
+            List<ObjectId> parentIds = sorted.get(i).parents;
+            parents[i] = new int[parentIds.size()];
+            for (int j = 0; j < parentIds.size(); j++) {
+                Integer position = positions.get(parentIds.get(j));
+                if (position == null) {
+                    throw new IllegalArgumentException("Parent " + parentIds.get(j) + " of commit "
+                            + sorted.get(i).id + " is not in the graph");
+                }
+                parents[i][j] = position;
+            }
+        }
+        int[] generations = generations(parents);
+
+        File tempFile = File.createTempFile("commit-graph", ".tmp", file.getParentFile());
+        try {
+            ArrayList<Integer> extraEdges = new ArrayList<>();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile), 65536))) {
+                out.writeInt(magic("CGPH"));
+                out.writeInt(VERSION);
+                out.writeInt(sorted.size());
+                byte[] id = new byte[ID_SIZE];
+                for (int i = 0; i < sorted.size(); i++) {
+                    sorted.get(i).id.copyRawTo(id, 0);
+                    out.write(id);
+                    sorted.get(i).tree.copyRawTo(id, 0);
+                    out.write(id);
+                    int[] p = parents[i];
+                    out.writeInt(p.length > 0 ? p[0] : NO_PARENT);
+                    if (p.length <= 2) {
+                        out.writeInt(p.length > 1 ? p[1] : NO_PARENT);
+                    } else {
+                        out.writeInt(EXTRA_EDGES | extraEdges.size());
+                        for (int j = 1; j < p.length; j++) {
+                            extraEdges.add(j == p.length - 1 ? p[j] | LAST_EDGE : p[j]);
+                        }
+                    }
+                    out.writeInt(generations[i]);
+                    out.writeLong(sorted.get(i).time);
+                }
+                out.writeInt(extraEdges.size());
+                for (int i = 0; i < extraEdges.size(); i++) {
+                    out.writeInt(extraEdges.get(i));
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return new CommitGraph(file);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    // Works out every row's generation, parents before children, without
+    // recursion so long histories cannot overflow the stack
+    private static int[] generations(int[][] parents) {
+        int[] generations = new int[parents.length];
+        int[] stack = new int[parents.length];
+        for (int start = 0; start < parents.length; start++) {
+            if (generations[start] != 0) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = start;
+            while (top > 0) {
+                int row = stack[top - 1];
+                int generation = 1;
+                boolean ready = true;
+                for (int j = 0; j < parents[row].length; j++) {
+                    int parent = parents[row][j];
+                    if (generations[parent] == 0) {
+                        ready = false;
+                        stack[top++] = parent;
+                        break;
+                    }
+                    generation = Math.max(generation, generations[parent] + 1);
+                }
+                if (ready) {
+                    generations[row] = generation;
+                    top--;
+                }
+            }
+        }
+        return generations;
+    }
+
+    // Where a row starts in the file
+    private static int rowStart(int position) {
+        return HEADER_SIZE + position * ROW_SIZE;
+    }
+
+    // Four ASCII characters packed into an int
+    private static int magic(String tag) {
+        byte[] b = tag.getBytes(StandardCharsets.US_ASCII);
+        return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+    }
+}
@@ -1,18 +1,60 @@
-
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.InputStreamReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 //https://stackoverflow.com/questions/16351668/compression-and-decompression-of-string-data-in-java
 
+/**
+ * Encodes object contents for storage and decodes them again.
+ *
+ * Stored objects start with one header byte:
+ *   STORED   (0) the rest is the content, unchanged
+ *   DEFLATED (1) the rest is a zlib stream of the content
+ * with the CHUNK_LIST bit (2) set on either one when the content is a
+ * chunked blob's manifest (see MyRepo.setChunkThreshold). Marking manifests
+ * in the header rather than in their text means no file content, whatever
+ * its bytes, is ever mistaken for one.
+ * Content that is tiny, already compressed (zip, gzip, jpeg, png, ...) or
+ * looks random is stored raw, since deflating it only costs CPU.
+ *
+ * Objects written before this format are Base64 text of a GZIP stream. Their
+ * first byte is always a Base64 character, never 0 to 3, so decode() and
+ * decodingStream() recognise and read them too. compress() and decompress()
+ * still produce and read that old text form.
+ */
 public class Compression {
+
+    public static final byte STORED = 0;
+    public static final byte DEFLATED = 1;
+    public static final byte CHUNK_LIST = 2;
+    public static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    // Content smaller than this is always stored raw
+    public static final int MIN_COMPRESS_SIZE = 64;
+    // Bits of entropy per byte above which a sample is treated as incompressible
+    private static final double MAX_COMPRESSIBLE_ENTROPY = 7.8;
+    // Deflater output for ChannelEncoder, one direct buffer per thread
+    private static final ThreadLocal<ByteBuffer> OUTPUT_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(65536));
+
     /**
      * Compresses a string using GZIP compression
-     * 
+     *
      * @param str The string to compress
      * @return The compressed string, or the original string if null/empty
      * @throws Exception if compression fails
@@ -30,7 +72,7 @@ public class Compression {
 
     /**
      * Decompresses a GZIP compressed string back to original text
-     * 
+     *
      * @param str The compressed string to decompress
      * @return The original decompressed string, or the original string if
      *         null/empty
@@ -42,13 +84,354 @@ public class Compression {
             return str;
         }
         byte[] byteArray = Base64.getDecoder().decode(str);
-        GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(byteArray));
-        BufferedReader bf = new BufferedReader(new InputStreamReader(gis, "UTF-8"));
-        String outStr = "";
-        String line;
-        while ((line = bf.readLine()) != null) {
-            outStr += line;
-        }
-        return outStr;
+        try (GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(byteArray))) {
+            return new String(gis.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Encodes content for storage at the default level
+     *
+     * @param data The content
+     * @return The stored form, starting with a header byte
+     */
+    public static byte[] encode(byte[] data) {
+        return encode(ByteBuffer.wrap(data), DEFAULT_LEVEL);
+    }
+
+    /**
+     * Encodes content for storage. The content is deflated unless it is small
+     * or looks incompressible, and is stored raw if deflating does not make it
+     * smaller.
+     *
+     * @param data  The content, from its position to its limit; the position
+     *              is not changed
+     * @param level The deflate level, 0-9 or DEFAULT_LEVEL
+     * @return The stored form, starting with a header byte
+     */
+    public static byte[] encode(ByteBuffer data, int level) {
+        ByteBuffer input = data.slice();
+        int length = input.remaining();
+        if (level == 0 || !shouldCompress(input)) {
+            return stored(input);
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 16);
+            out.write(DEFLATED);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+                if (out.size() > length) {
+                    return stored(data.slice());
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decodes a stored object back to its content. Reads both the current
+     * format and old Base64 GZIP objects.
+     *
+     * @param stored The stored bytes
+     * @return The original content
+     * @throws IOException if the data is corrupt
+     */
+    public static byte[] decode(byte[] stored) throws IOException {
+        return decode(ByteBuffer.wrap(stored));
+    }
+
+    /**
+     * Decodes a stored object held in a buffer (for example a slice of a
+     * mapped pack file) without copying it first
+     *
+     * @param stored The stored bytes, from position to limit
+     * @return The original content
+     * @throws IOException if the data is corrupt
+     */
+    public static byte[] decode(ByteBuffer stored) throws IOException {
+        ByteBuffer input = stored.slice();
+        if (!input.hasRemaining()) {
+            return new byte[0];
+        }
+        int header = input.get(0) & ~CHUNK_LIST;
+        if (header == STORED) {
+            byte[] content = new byte[input.remaining() - 1];
+            input.get(1, content);
+            return content;
+        }
+        if (header != DEFLATED) {
+            byte[] legacy = new byte[input.remaining()];
+            input.get(0, legacy);
+            try (InputStream in = decodingStream(new ByteArrayInputStream(legacy))) {
+                return in.readAllBytes();
+            }
+        }
+        input.position(1);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.remaining() * 3);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated object data");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt object data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Wraps an output stream so content written to it is stored in the current
+     * format. Callers decide up front whether to deflate, usually by passing
+     * the first block of content to shouldCompress().
+     *
+     * @param out      The stream that receives the stored form
+     * @param level    The deflate level, 0-9 or DEFAULT_LEVEL
+     * @param compress Whether to deflate or store raw
+     * @return A stream to write content to; closing it closes out
+     * @throws IOException if the header byte cannot be written
+     */
+    public static OutputStream encodingStream(OutputStream out, int level, boolean compress) throws IOException {
+        if (!compress || level == 0) {
+            out.write(STORED);
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+            };
+        }
+        out.write(DEFLATED);
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes the stored form of content to a channel, taking the content from
+     * buffers. Direct and mapped buffers go to the deflater as they are, so
+     * no content is copied onto the Java heap.
+     *
+     * Usage:
+     *   ChannelEncoder encoder = new ChannelEncoder(channel, level, compress);
+     *   encoder.write(buffer);   // as many times as needed
+     *   encoder.finish();
+     */
+    public static class ChannelEncoder {
+        private WritableByteChannel out;
+        private Deflater deflater;
+        private ByteBuffer output;
+
+        /**
+         * Writes the header byte
+         *
+         * @param out      The channel that receives the stored form
+         * @param level    The deflate level, 0-9 or DEFAULT_LEVEL
+         * @param compress Whether to deflate or store raw
+         * @throws IOException if the header byte cannot be written
+         */
+        public ChannelEncoder(WritableByteChannel out, int level, boolean compress) throws IOException {
+            this.out = out;
+            output = OUTPUT_BUFFER.get();
+            output.clear();
+            if (compress && level != 0) {
+                deflater = new Deflater(level);
+                output.put(DEFLATED);
+            } else {
+                output.put(STORED);
+            }
+        }
+
+        /**
+         * Encodes content and writes it out
+         *
+         * @param content The content, from position to limit; the position
+         *                ends at the limit
+         * @throws IOException if the channel cannot be written
+         */
+        public void write(ByteBuffer content) throws IOException {
+            if (deflater == null) {
+                drain();
+                while (content.hasRemaining()) {
+                    out.write(content);
+                }
+                return;
+            }
+            deflater.setInput(content);
+            while (!deflater.needsInput()) {
+                deflater.deflate(output);
+                if (!output.hasRemaining()) {
+                    drain();
+                }
+            }
+        }
+
+        /**
+         * Writes the end of the stored form and releases the deflater. The
+         * channel stays open.
+         *
+         * @throws IOException if the channel cannot be written
+         */
+        public void finish() throws IOException {
+            if (deflater != null) {
+                try {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        deflater.deflate(output);
+                        if (!output.hasRemaining()) {
+                            drain();
+                        }
+                    }
+                } finally {
+                    deflater.end();
+                    deflater = null;
+                }
+            }
+            drain();
+        }
+
+        // Writes out whatever is in the output buffer
+        private void drain() throws IOException {
+            output.flip();
+            while (output.hasRemaining()) {
+                out.write(output);
+            }
+            output.clear();
+        }
+    }
+
+    /**
+     * Wraps a stream of stored bytes so reading it gives the original content,
+     * for both the current format and old Base64 GZIP objects
+     *
+     * @param stored The stored form
+     * @return A stream of the content; closing it closes stored
+     * @throws IOException if the stream cannot be read
+     */
+    public static InputStream decodingStream(InputStream stored) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(stored, 1);
+        int header = in.read();
+        if (header == -1 || (header & ~CHUNK_LIST) == STORED) {
+            return in;
+        }
+        if ((header & ~CHUNK_LIST) == DEFLATED) {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+        in.unread(header);
+        return new GZIPInputStream(Base64.getDecoder().wrap(in), 8192);
+    }
+
+    /**
+     * Tells whether a stored object's header byte marks a chunk list
+     *
+     * @param header The first stored byte, or -1 for an empty object
+     * @return true if the content is a chunked blob's manifest, otherwise false
+     */
+    public static boolean isChunkList(int header) {
+        return header == (STORED | CHUNK_LIST) || header == (DEFLATED | CHUNK_LIST);
+    }
+
+    /**
+     * Guesses whether content is worth deflating from a sample of it, usually
+     * the first block. Small samples, known compressed file formats and
+     * near-random bytes all say no.
+     *
+     * @param sample The start of the content
+     * @param off    Where the sample starts in the array
+     * @param len    The sample length
+     * @return true if the content should be deflated, otherwise false
+     */
+    public static boolean shouldCompress(byte[] sample, int off, int len) {
+        return shouldCompress(ByteBuffer.wrap(sample, off, len));
+    }
+
+    /**
+     * Same as shouldCompress(sample, off, len), for content in a buffer such
+     * as a mapped file
+     *
+     * @param sample The start of the content, from position to limit; the
+     *               position is not changed
+     * @return true if the content should be deflated, otherwise false
+     */
+    public static boolean shouldCompress(ByteBuffer sample) {
+        int len = sample.remaining();
+        if (len < MIN_COMPRESS_SIZE) {
+            return false;
+        }
+        int start = sample.position();
+        if (isCompressedFormat(sample, start)) {
+            return false;
+        }
+        int sampleLength = Math.min(len, 65536);
+        int[] counts = new int[256];
+        for (int i = 0; i < sampleLength; i++) {
+            counts[sample.get(start + i) & 0xff]++;
+        }
+        double entropy = 0;
+        for (int i = 0; i < 256; i++) {
+            if (counts[i] > 0) {
+                double p = (double) counts[i] / sampleLength;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2) < MAX_COMPRESSIBLE_ENTROPY;
+    }
+
+    // Checks the leading magic bytes of common compressed formats
+    private static boolean isCompressedFormat(ByteBuffer b, int s) {
+        int b0 = b.get(s) & 0xff;
+        int b1 = b.get(s + 1) & 0xff;
+        int b2 = b.get(s + 2) & 0xff;
+        int b3 = b.get(s + 3) & 0xff;
+        return (b0 == 0x1f && b1 == 0x8b) // gzip
+                || (b0 == 'P' && b1 == 'K' && b2 == 3 && b3 == 4) // zip, jar, docx
+                || (b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G') // png
+                || (b0 == 0xff && b1 == 0xd8 && b2 == 0xff) // jpeg
+                || (b0 == 'G' && b1 == 'I' && b2 == 'F') // gif
+                || (b0 == 'B' && b1 == 'Z' && b2 == 'h') // bzip2
+                || (b0 == 0xfd && b1 == '7' && b2 == 'z' && b3 == 'X') // xz
+                || (b0 == '7' && b1 == 'z' && b2 == 0xbc && b3 == 0xaf) // 7z
+                || (b0 == 0x28 && b1 == 0xb5 && b2 == 0x2f && b3 == 0xfd) // zstd
+                || (b.get(s + 4) == 'f' && b.get(s + 5) == 't' && b.get(s + 6) == 'y' && b.get(s + 7) == 'p'); // mp4, mov
+    }
+
+    // Content stored raw behind the STORED header
+    private static byte[] stored(ByteBuffer input) {
+        byte[] result = new byte[input.remaining() + 1];
+        result[0] = STORED;
+        input.get(input.position(), result, 1, input.remaining());
+        return result;
     }
 }
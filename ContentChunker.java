@@ -0,0 +1,111 @@
+import java.io.InputStream;
+
+/**
+ * Splits a stream into variable-size chunks at content-defined boundaries
+ * (FastCDC). A boundary is placed where a rolling "gear" hash of the last
+ * bytes has enough zero bits, so inserting or deleting bytes only moves the
+ * boundaries next to the edit and every other chunk keeps the same content.
+ *
+ * Chunks are between MIN_SIZE and MAX_SIZE bytes and average about
+ * AVERAGE_SIZE. A stricter mask is used before the average size and a looser
+ * one after it, which keeps chunk sizes close to the average. Only one
+ * MAX_SIZE buffer is held in memory however long the stream is.
+ */
+public class ContentChunker {
+
+    public static final int MIN_SIZE = 16 * 1024;
+    public static final int AVERAGE_SIZE = 64 * 1024;
+    public static final int MAX_SIZE = 256 * 1024;
+
+    // 18 and 14 one bits, taken from the top of the hash so each bit depends
+    // on many earlier bytes (averages 2^16 = AVERAGE_SIZE)
+    private static final long MASK_SMALL = 0xFFFFC00000000000L;
+    private static final long MASK_LARGE = 0xFFFC000000000000L;
+
+    private static final long[] GEAR = makeGearTable();
+
+    /**
+     * Receives each chunk as it is cut
+     */
+    public interface ChunkHandler {
+        void chunk(byte[] buffer, int length) throws Exception;
+    }
+
+    /**
+     * Reads a stream to the end and hands each chunk to the handler in order.
+     * The buffer passed to the handler is reused for the next chunk.
+     *
+     * @param in      The stream to split
+     * @param handler Called once per chunk
+     * @throws Exception if reading fails or the handler throws
+     */
+    public static void split(InputStream in, ChunkHandler handler) throws Exception {
+        byte[] buffer = new byte[MAX_SIZE];
+        byte[] chunk = new byte[MAX_SIZE];
+        int filled = 0;
+        boolean ended = false;
+        while (true) {
+            while (!ended && filled < MAX_SIZE) {
+                int read = in.read(buffer, filled, MAX_SIZE - filled);
+                if (read == -1) {
+                    ended = true;
+                } else {
+                    filled += read;
+                }
+            }
+            if (filled == 0) {
+                return;
+            }
+            int cut = findCut(buffer, filled);
+            System.arraycopy(buffer, 0, chunk, 0, cut);
+            System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+            filled -= cut;
+            handler.chunk(chunk, cut);
+        }
+    }
+
+    /**
+     * Finds where the first chunk in a buffer ends
+     *
+     * @param buffer The data, starting at a chunk boundary
+     * @param length How many bytes of the buffer are valid
+     * @return The length of the first chunk
+     */
+    public static int findCut(byte[] buffer, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int end = Math.min(length, MAX_SIZE);
+        int normal = Math.min(end, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    // Random 64-bit values for each byte, from a fixed seed (SplitMix64) so
+    // chunk boundaries are the same on every run and every machine
+    private static long[] makeGearTable() {
+        long[] table = new long[256];
+        long state = 0x676974206f757421L;
+        for (int i = 0; i < 256; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            table[i] = z ^ (z >>> 31);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+
+/**
+ * Lists and walks folders with java.nio, reading each entry's attributes
+ * with one call instead of separate isFile()/isDirectory() checks.
+ *
+ * Every walk treats special cases the same way:
+ *   - A symbolic link to a file is listed as that file, with the target's
+ *     attributes. A link to a folder is never followed (it could loop back
+ *     up the tree), and a broken link is left out.
+ *   - A folder that cannot be read, or that disappears while it is being
+ *     walked, counts as empty.
+ *   - Anything that is neither a file nor a folder (sockets, devices) is
+ *     left out.
+ *
+ * Usage:
+ *   ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(dir);
+ *   DirectoryWalker.Entry one = DirectoryWalker.read(file);
+ *   DirectoryWalker.walkFiles(root, skipFolder, file -> { ...; return true; });
+ */
+public class DirectoryWalker {
+
+    /**
+     * One file or folder and its attributes
+     */
+    public static class Entry {
+        public final Path path;
+        public final String name;
+        public final BasicFileAttributes attrs;
+
+        public Entry(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.name = path.getFileName().toString();
+            this.attrs = attrs;
+        }
+
+        public boolean isDirectory() {
+            return attrs.isDirectory();
+        }
+
+        public boolean isFile() {
+            return attrs.isRegularFile();
+        }
+
+        public File toFile() {
+            return path.toFile();
+        }
+    }
+
+    /**
+     * Receives the files found by walkFiles
+     */
+    public interface FileVisitor {
+        /**
+         * @param file A file
+         * @return true to keep walking, false to stop
+         */
+        boolean visit(Entry file);
+    }
+
+    /**
+     * Lists the files and folders directly inside a folder, sorted by name
+     *
+     * @param dir The folder
+     * @return The entries in name order; empty if the folder cannot be read
+     */
+    public static ArrayList<Entry> list(File dir) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path child : stream) {
+                Entry entry = entry(child);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        } catch (AccessDeniedException | NoSuchFileException e) {
+            return new ArrayList<>();
+        } catch (IOException e) {
+            throw new RuntimeException("Error listing directory " + dir.getPath(), e);
+        }
+        entries.sort((a, b) -> a.name.compareTo(b.name));
+        return entries;
+    }
+
+    /**
+     * Reads one file or folder the way list() would have listed it
+     *
+     * @param file The file or folder
+     * @return Its entry, or null if list() would leave it out (missing,
+     *         unreadable, a link to a folder, a broken link or a special file)
+     */
+    public static Entry read(File file) {
+        try {
+            return entry(file.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading attributes of " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Visits every file under a folder, in no particular order
+     *
+     * @param root    The folder to walk
+     * @param skip    A folder under root that is not walked, or null
+     * @param visitor Receives each file and can stop the walk
+     * @return true if the walk finished, false if the visitor stopped it
+     */
+    public static boolean walkFiles(File root, File skip, FileVisitor visitor) {
+        Path skipPath = skip == null ? null : skip.toPath();
+        boolean[] stopped = new boolean[1];
+        try {
+            Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return dir.equals(skipPath) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Entry entry = attrs.isSymbolicLink() ? entry(file) : new Entry(file, attrs);
+                    if (entry == null || !entry.isFile() || visitor.visit(entry)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    stopped[0] = true;
+                    return FileVisitResult.TERMINATE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // unreadable or already gone
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Error walking directory " + root.getPath(), e);
+        }
+        return !stopped[0];
+    }
+
+    /**
+     * Deletes a folder and everything in it. Symbolic links are deleted
+     * themselves; what they point to is left alone.
+     *
+     * @param dir The folder to delete
+     * @return true if the folder is gone, otherwise false
+     */
+    public static boolean delete(File dir) {
+        try {
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    Files.deleteIfExists(file); // an unreadable folder can still be deleted if empty
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            return false;
+        }
+        return !dir.exists();
+    }
+
+    // Reads one entry's attributes without following links, then follows a
+    // link only if it leads to a file. Null for anything to leave out.
+    private static Entry entry(Path path) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isSymbolicLink()) {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) {
+                    return null;
+                }
+            }
+        } catch (NoSuchFileException | AccessDeniedException e) {
+            return null; // deleted since the listing, a broken link, or unreadable
+        }
+        if (!attrs.isDirectory() && !attrs.isRegularFile()) {
+            return null;
+        }
+        return new Entry(path, attrs);
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Maps file names to the paths of every file with that name under a folder,
+ * so a repository can find a file by name without walking the whole tree.
+ *
+ * The index is filled by one walk, which also records the modification time
+ * of every folder it lists. It is kept up to date with add() and remove() as
+ * the repository creates and deletes files, and refresh() picks up changes
+ * made by anyone else: a folder's modification time changes whenever a file
+ * or folder directly inside it is created, deleted or renamed, so refresh()
+ * lists again only the folders whose time moved, and costs one stat per
+ * folder when nothing changed. A folder modified shortly before it was
+ * listed is listed again on every refresh() until its time is old enough
+ * that a later change is sure to move it.
+ *
+ * Paths for a name are kept sorted, so a name that matches several files
+ * always gives the same first path, and paths(name).size() > 1 shows the name
+ * is ambiguous.
+ *
+ * Usage:
+ *   FileNameIndex names = new FileNameIndex(repoFolder, skipFolder);
+ *   ArrayList<String> paths = names.paths("a.txt");
+ *   if (paths.isEmpty() && names.refresh()) { paths = names.paths("a.txt"); }
+ */
+public class FileNameIndex {
+
+    // Coarsest folder timestamp resolution we allow for (FAT uses 2 seconds)
+    private static final long RACY_WINDOW_MILLIS = 2000;
+
+    // What the last listing of one folder found
+    private static class Folder {
+        // Modification time when listed, or -1 to list it again next time
+        long mtime;
+        HashSet<String> files = new HashSet<>();
+        HashSet<String> folders = new HashSet<>();
+    }
+
+    private File root;
+    private File skip;
+    private HashMap<String, ArrayList<String>> paths = new HashMap<>();
+    private HashMap<String, Folder> folders = new HashMap<>();
+
+    /**
+     * Builds the index with one walk of a folder
+     *
+     * @param root The folder to index
+     * @param skip A folder under root that is not indexed (such as the object
+     *             store), or null to index everything
+     */
+    public FileNameIndex(File root, File skip) {
+        this.root = root;
+        this.skip = skip;
+        rebuild();
+    }
+
+    /**
+     * Throws away the index and walks the folder again
+     */
+    public synchronized void rebuild() {
+        paths.clear();
+        folders.clear();
+        walk(root);
+    }
+
+    /**
+     * Lists again every folder whose modification time changed since it was
+     * last listed, and walks any new folders found
+     *
+     * @return true if any folder was listed again, otherwise false
+     */
+    public synchronized boolean refresh() {
+        boolean changed = false;
+        ArrayList<String> known = new ArrayList<>(folders.keySet());
+        for (int i = 0; i < known.size(); i++) {
+            Folder folder = folders.get(known.get(i));
+            if (folder == null) {
+                continue; // was under a folder that went away
+            }
+            File dir = new File(known.get(i));
+            if (folder.mtime != -1 && dir.lastModified() == folder.mtime) {
+                continue;
+            }
+            relist(dir, folder);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the path of every indexed file with a name
+     *
+     * @param fileName The file name to look up
+     * @return The paths in sorted order; empty if no file has the name
+     */
+    public synchronized ArrayList<String> paths(String fileName) {
+        ArrayList<String> found = paths.get(fileName);
+        return found == null ? new ArrayList<>() : new ArrayList<>(found);
+    }
+
+    /**
+     * Records a file that was created
+     *
+     * @param file The new file
+     */
+    public synchronized void add(File file) {
+        addPath(file);
+        Folder parent = folders.get(file.getParent());
+        if (parent != null) {
+            parent.files.add(file.getName());
+        }
+    }
+
+    /**
+     * Forgets a file that was deleted
+     *
+     * @param file The deleted file
+     */
+    public synchronized void remove(File file) {
+        removePath(file);
+        Folder parent = folders.get(file.getParent());
+        if (parent != null) {
+            parent.files.remove(file.getName());
+        }
+    }
+
+    /**
+     * Forgets every file inside a folder that was deleted
+     *
+     * @param dir The deleted folder
+     */
+    public synchronized void removeUnder(File dir) {
+        forget(dir);
+        Folder parent = folders.get(dir.getParent());
+        if (parent != null) {
+            parent.folders.remove(dir.getName());
+        }
+    }
+
+    // Lists a folder not yet in the index, and everything under it
+    private void walk(File dir) {
+        Folder folder = new Folder();
+        folder.mtime = stamp(dir);
+        folders.put(dir.getPath(), folder);
+        ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(dir);
+        for (int i = 0; i < children.size(); i++) {
+            DirectoryWalker.Entry child = children.get(i);
+            if (child.isFile()) {
+                folder.files.add(child.name);
+                addPath(child.toFile());
+            } else if (child.isDirectory() && !child.toFile().equals(skip)) {
+                folder.folders.add(child.name);
+                walk(child.toFile());
+            }
+        }
+    }
+
+    // Brings one folder's files and subfolders up to date; a folder that is
+    // gone lists as empty
+    private void relist(File dir, Folder folder) {
+        folder.mtime = stamp(dir);
+        HashSet<String> files = new HashSet<>();
+        HashSet<String> subfolders = new HashSet<>();
+        ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(dir);
+        for (int i = 0; i < children.size(); i++) {
+            DirectoryWalker.Entry child = children.get(i);
+            if (child.isFile()) {
+                files.add(child.name);
+                if (!folder.files.contains(child.name)) {
+                    addPath(child.toFile());
+                }
+            } else if (child.isDirectory() && !child.toFile().equals(skip)) {
+                subfolders.add(child.name);
+                if (!folder.folders.contains(child.name)) {
+                    walk(child.toFile());
+                }
+            }
+        }
+        for (String name : folder.files) {
+            if (!files.contains(name)) {
+                removePath(new File(dir, name));
+            }
+        }
+        for (String name : folder.folders) {
+            if (!subfolders.contains(name)) {
+                forget(new File(dir, name));
+            }
+        }
+        folder.files = files;
+        folder.folders = subfolders;
+    }
+
+    // Forgets a folder and everything that was under it
+    private void forget(File dir) {
+        Folder folder = folders.remove(dir.getPath());
+        if (folder == null) {
+            return;
+        }
+        for (String name : folder.files) {
+            removePath(new File(dir, name));
+        }
+        for (String name : folder.folders) {
+            forget(new File(dir, name));
+        }
+    }
+
+    // A folder's modification time, or -1 if it changed too recently for a
+    // further change in the same timestamp tick to be noticed
+    private static long stamp(File dir) {
+        long mtime = dir.lastModified();
+        return mtime >= System.currentTimeMillis() - RACY_WINDOW_MILLIS ? -1 : mtime;
+    }
+
+    // Adds a path to its name's sorted list
+    private void addPath(File file) {
+        ArrayList<String> list = paths.computeIfAbsent(file.getName(), name -> new ArrayList<>());
+        String path = file.getPath();
+        int position = 0;
+        while (position < list.size() && list.get(position).compareTo(path) < 0) {
+            position++;
+        }
+        if (position == list.size() || !list.get(position).equals(path)) {
+            list.add(position, path);
+        }
+    }
+
+    // Removes a path from its name's list
+    private void removePath(File file) {
+        ArrayList<String> list = paths.get(file.getName());
+        if (list != null) {
+            list.remove(file.getPath());
+            if (list.isEmpty()) {
+                paths.remove(file.getName());
+            }
+        }
+    }
+}
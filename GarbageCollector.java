@@ -0,0 +1,343 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Deletes objects in git/objects that nothing refers to any more, such as
+ * the trees and blobs a rebuild has replaced. Run it with MyRepo.gc().
+ *
+ * Mark: every stored id, loose and packed, is sorted into one array, and a
+ * bitset with one bit per position records what is reachable from the
+ * roots:
+ *   - HEAD, and every file under git/refs holding a commit id, with all of
+ *     their history (each commit's tree and parents)
+ *   - every blob in git/index
+ *   - every tree in git/treecache, since the tree builders reuse those ids
+ * Trees are walked in parallel on a ForkJoinPool, one task per tree. Every
+ * reachable blob whose header carries the Compression.CHUNK_LIST bit has
+ * its manifest read, so the chunks of a chunked blob are kept with it.
+ *
+ * Sweep: an unreachable object is only deleted once it is older than the
+ * grace period, because a tree build running alongside may have just
+ * written it and not yet written the tree that refers to it. A build that
+ * finds an object already stored and reuses it sets the object's
+ * modification time (or its pack's) to now, so a reused object counts as
+ * just written too. The time is checked again right before each delete.
+ * Loose objects are deleted in batches on the same pool. A pack holding
+ * unreachable objects is rewritten with only the reachable ones (packs
+ * younger than the grace period are left alone).
+ */
+public class GarbageCollector {
+
+    public static final long DEFAULT_GRACE_MILLIS = TimeUnit.DAYS.toMillis(14);
+
+    // Loose objects deleted by one task
+    private static final int SWEEP_BATCH = 256;
+
+    /**
+     * What one run of gc() did
+     */
+    public static class Result {
+        public final int reachable;
+        public final int removed;
+        public final long bytesReclaimed;
+        public final long millis;
+
+        public Result(int reachable, int removed, long bytesReclaimed, long millis) {
+            this.reachable = reachable;
+            this.removed = removed;
+            this.bytesReclaimed = bytesReclaimed;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return reachable + " reachable, " + removed + " removed, " + bytesReclaimed + " bytes reclaimed in "
+                    + millis + " ms";
+        }
+    }
+
+    private MyRepo repository;
+    private long graceMillis;
+    private ObjectReader reader;
+    // Every stored id in ascending order, and which of them are reachable
+    private ObjectId[] ids;
+    private AtomicLongArray marked;
+
+    /**
+     * @param repository  The repository to clean up
+     * @param graceMillis How old an unreachable object must be to be deleted
+     */
+    public GarbageCollector(MyRepo repository, long graceMillis) {
+        this.repository = repository;
+        this.graceMillis = graceMillis;
+        // Each tree is read once, so caching them would only evict the
+        // repository's own cache
+        this.reader = new ObjectReader(repository, 0);
+    }
+
+    /**
+     * Marks and sweeps. The caller makes sure no other gc, repack or
+     * migration runs at the same time (MyRepo.gc is synchronized).
+     *
+     * @return What was removed and how long it took
+     */
+    public Result run() {
+        long start = System.nanoTime();
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        HashMap<ObjectId, File> looseFiles = repository.listLooseObjects();
+        ArrayList<PackFile> packs = repository.getPacks();
+        HashSet<ObjectId> stored = new HashSet<>(looseFiles.keySet());
+        for (int i = 0; i < packs.size(); i++) {
+            for (int j = 0; j < packs.get(i).size(); j++) {
+                stored.add(packs.get(i).idAt(j));
+            }
+        }
+        ids = stored.toArray(new ObjectId[0]);
+        Arrays.sort(ids);
+        marked = new AtomicLongArray((ids.length + 63) / 64);
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            ArrayList<MarkTask> roots = new ArrayList<>();
+            ArrayList<ObjectId> commitTrees = markCommits();
+            for (int i = 0; i < commitTrees.size(); i++) {
+                roots.add(new MarkTask(commitTrees.get(i), true));
+            }
+            ArrayList<GitIndex.Entry> entries = repository.getIndex().entries();
+            for (int i = 0; i < entries.size(); i++) {
+                roots.add(new MarkTask(entries.get(i).id, false));
+            }
+            List<ObjectId> cachedTrees = repository.getTreeCache().treeIds();
+            for (int i = 0; i < cachedTrees.size(); i++) {
+                roots.add(new MarkTask(cachedTrees.get(i), true));
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(roots);
+                }
+            });
+
+            AtomicLong removed = new AtomicLong();
+            AtomicLong bytes = new AtomicLong();
+            sweepLoose(pool, looseFiles, cutoff, removed, bytes);
+            sweepPacks(packs, cutoff, removed, bytes);
+            repository.removeEmptyObjectDirs(new File(repository.gitFolder, "objects"));
+            int reachable = 0;
+            for (int i = 0; i < marked.length(); i++) {
+                reachable += Long.bitCount(marked.get(i));
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            return new Result(reachable, (int) removed.get(), bytes.get(), millis);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Marks every commit reachable from HEAD and git/refs and returns their
+    // trees. Done on one thread, since each commit leads to the next.
+    private ArrayList<ObjectId> markCommits() {
+        GitCommit commits = new GitCommit(repository);
+        ArrayDeque<ObjectId> todo = new ArrayDeque<>();
+        ObjectId head = commits.head();
+        if (head != null) {
+            todo.push(head);
+        }
+        readRefs(new File(repository.gitFolder, "refs"), todo);
+        ArrayList<ObjectId> trees = new ArrayList<>();
+        while (!todo.isEmpty()) {
+            ObjectId id = todo.pop();
+            if (!mark(id)) {
+                continue;
+            }
+            GitCommit.Commit commit = commits.readCommit(id);
+            trees.add(commit.tree);
+            for (int i = 0; i < commit.parents.size(); i++) {
+                todo.push(commit.parents.get(i));
+            }
+        }
+        return trees;
+    }
+
+    // Adds the commit id held by each file under git/refs
+    private static void readRefs(File dir, ArrayDeque<ObjectId> todo) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory()) {
+                readRefs(files[i], todo);
+                continue;
+            }
+            try {
+                String text = new String(Files.readAllBytes(files[i].toPath()), StandardCharsets.UTF_8).trim();
+                if (ObjectId.isHex(text)) {
+                    todo.push(ObjectId.fromHex(text));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading ref " + files[i].getPath(), e);
+            }
+        }
+    }
+
+    // Marks an object, returning true if it was not marked before. Objects
+    // that are not stored (yet) have no bit and are never marked.
+    private boolean mark(ObjectId id) {
+        int position = Arrays.binarySearch(ids, id);
+        if (position < 0) {
+            return false;
+        }
+        int word = position >>> 6;
+        long mask = 1L << (position & 63);
+        long old = marked.get(word);
+        while ((old & mask) == 0) {
+            if (marked.compareAndSet(word, old, old | mask)) {
+                return true;
+            }
+            old = marked.get(word);
+        }
+        return false;
+    }
+
+    private boolean isMarked(ObjectId id) {
+        int position = Arrays.binarySearch(ids, id);
+        return position >= 0 && (marked.get(position >>> 6) & (1L << (position & 63))) != 0;
+    }
+
+    // Marks a tree and everything under it, or a blob and its chunks
+    private class MarkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private ObjectId id;
+        private boolean isTree;
+
+        MarkTask(ObjectId id, boolean isTree) {
+            this.id = id;
+            this.isTree = isTree;
+        }
+
+        @Override
+        protected void compute() {
+            if (!mark(id)) {
+                return;
+            }
+            if (!isTree) {
+                List<ObjectId> chunks = reader.chunkIds(id);
+                for (int i = 0; i < chunks.size(); i++) {
+                    mark(chunks.get(i));
+                }
+                return;
+            }
+            List<ObjectReader.TreeEntry> entries = reader.readTree(id);
+            ArrayList<MarkTask> children = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                children.add(new MarkTask(entries.get(i).id, entries.get(i).isTree));
+            }
+            invokeAll(children);
+        }
+    }
+
+    // Deletes unreachable loose objects older than the cutoff, a batch per task
+    private void sweepLoose(ForkJoinPool pool, HashMap<ObjectId, File> looseFiles, long cutoff,
+            AtomicLong removed, AtomicLong bytes) {
+        ArrayList<Map.Entry<ObjectId, File>> garbage = new ArrayList<>();
+        for (Map.Entry<ObjectId, File> loose : looseFiles.entrySet()) {
+            if (!isMarked(loose.getKey()) && loose.getValue().lastModified() < cutoff) {
+                garbage.add(loose);
+            }
+        }
+        ArrayList<RecursiveAction> batches = new ArrayList<>();
+        for (int start = 0; start < garbage.size(); start += SWEEP_BATCH) {
+            List<Map.Entry<ObjectId, File>> batch = garbage.subList(start,
+                    Math.min(start + SWEEP_BATCH, garbage.size()));
+            batches.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    for (int i = 0; i < batch.size(); i++) {
+                        File file = batch.get(i).getValue();
+                        long length = file.length();
+                        // Reused since the list was made
+                        if (file.lastModified() >= cutoff) {
+                            continue;
+                        }
+                        if (file.delete()) {
+                            removed.incrementAndGet();
+                            bytes.addAndGet(length);
+                            repository.forgetObject(batch.get(i).getKey());
+                        }
+                    }
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(batches);
+            }
+        });
+    }
+
+    // Rewrites each pack older than the cutoff that holds unreachable objects
+    private void sweepPacks(ArrayList<PackFile> packs, long cutoff, AtomicLong removed, AtomicLong bytes) {
+        File packDir = new File(repository.gitFolder, "objects/pack");
+        for (int i = 0; i < packs.size(); i++) {
+            PackFile pack = packs.get(i);
+            File packFile = pack.getFile();
+            if (packFile.lastModified() >= cutoff) {
+                continue;
+            }
+            ArrayList<ObjectId> keep = new ArrayList<>();
+            ArrayList<ObjectId> dropped = new ArrayList<>();
+            for (int j = 0; j < pack.size(); j++) {
+                ObjectId id = pack.idAt(j);
+                if (isMarked(id)) {
+                    keep.add(id);
+                } else {
+                    dropped.add(id);
+                }
+            }
+            if (dropped.isEmpty()) {
+                continue;
+            }
+            long oldSize = packFile.length() + PackFile.indexFileFor(packFile).length();
+            ArrayList<PackFile> rewritten = new ArrayList<>();
+            try {
+                int next = 0;
+                while (next < keep.size()) {
+                    PackFile newPack = PackFile.write(packDir, keep, next, pack::read);
+                    rewritten.add(newPack);
+                    next += newPack.size();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error rewriting pack " + packFile.getPath(), e);
+            }
+            long newSize = 0;
+            for (int j = 0; j < rewritten.size(); j++) {
+                newSize += rewritten.get(j).getFile().length()
+                        + PackFile.indexFileFor(rewritten.get(j).getFile()).length();
+            }
+            // PackFile.write synced the new packs, so the old one can go
+            repository.replacePack(pack, rewritten);
+            removed.addAndGet(dropped.size());
+            bytes.addAndGet(oldSize - newSize);
+            for (int j = 0; j < dropped.size(); j++) {
+                repository.forgetObject(dropped.get(j));
+            }
+        }
+    }
+}
@@ -0,0 +1,469 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Records snapshots as commit objects and answers history questions about
+ * them.
+ *
+ * A commit object is stored like any other object, as text:
+ *   tree <root tree id>
+ *   parent <parent commit id>      (one line per parent, none for the first)
+ *   author <name> <time in seconds>
+ *   <blank line>
+ *   <message>
+ *
+ * git/HEAD holds the id of the newest commit, or nothing before the first
+ * one. It is only ever replaced by renaming git/HEAD.lock over it, and the
+ * lock is taken with createNewFile, so two updates cannot interleave and a
+ * crash leaves either the old HEAD or the new one.
+ *
+ * log, isAncestor and mergeBase read parents, generation numbers and times
+ * from git/commit-graph (see CommitGraph) instead of decompressing commit
+ * objects. Commits made since writeCommitGraph last ran are not in the graph;
+ * they are read from their objects, once per GitCommit.
+ *
+ * Usage:
+ *   GitCommit commits = new GitCommit(repository);
+ *   ObjectId tree = new GitTreeBuilder(repository).addDirectoryId("myProgram");
+ *   commits.commit(tree, "Ryan", "First version");
+ *   commits.writeCommitGraph();
+ *   List<ObjectId> history = commits.log(commits.head(), 10);
+ */
+public class GitCommit {
+
+    /**
+     * A commit object, read back
+     */
+    public static class Commit {
+        public final ObjectId id;
+        public final ObjectId tree;
+        public final List<ObjectId> parents;
+        public final String author;
+        public final long time;
+        public final String message;
+
+        public Commit(ObjectId id, ObjectId tree, List<ObjectId> parents, String author, long time,
+                String message) {
+            this.id = id;
+            this.tree = tree;
+            this.parents = parents;
+            this.author = author;
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    // What the history queries need to know about a commit
+    private static class Node {
+        final ObjectId id;
+        final ObjectId[] parents;
+        final int generation;
+        final long time;
+
+        Node(ObjectId id, ObjectId[] parents, int generation, long time) {
+            this.id = id;
+            this.parents = parents;
+            this.generation = generation;
+            this.time = time;
+        }
+    }
+
+    private static final int FROM_FIRST = 1;
+    private static final int FROM_SECOND = 2;
+
+    private MyRepo repository;
+    private File headFile;
+    private File lockFile;
+    private File graphFile;
+    private CommitGraph graph;
+    // Commits that are not in the graph, read from their objects
+    private HashMap<ObjectId, Node> readNodes = new HashMap<>();
+    private long commitsRead;
+
+    public GitCommit(MyRepo repository) {
+        this.repository = repository;
+        headFile = new File(repository.gitFolder, "HEAD");
+        lockFile = new File(repository.gitFolder, "HEAD.lock");
+        graphFile = new File(repository.gitFolder, "commit-graph");
+        if (graphFile.isFile()) {
+            try {
+                graph = new CommitGraph(graphFile);
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading " + graphFile.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Commits a tree on top of HEAD and moves HEAD to the new commit
+     *
+     * @param tree    The root tree of the snapshot
+     * @param author  Who made the commit
+     * @param message What changed
+     * @return The new commit's id
+     * @throws IllegalStateException if HEAD is moved by someone else meanwhile
+     */
+    public synchronized ObjectId commit(ObjectId tree, String author, String message) {
+        ObjectId parent = head();
+        List<ObjectId> parents = parent == null ? Collections.emptyList() : Collections.singletonList(parent);
+        ObjectId id = writeCommit(tree, parents, author, System.currentTimeMillis() / 1000, message);
+        updateHead(parent, id);
+        return id;
+    }
+
+    /**
+     * Writes a commit object without touching HEAD, e.g. for a merge
+     *
+     * @param tree    The root tree of the snapshot
+     * @param parents The parent commits, first parent first (empty for a root)
+     * @param author  Who made the commit
+     * @param time    The commit time in seconds since the epoch
+     * @param message What changed
+     * @return The commit's id
+     */
+    public ObjectId writeCommit(ObjectId tree, List<ObjectId> parents, String author, long time,
+            String message) {
+        if (!repository.hasObject(tree)) {
+            throw new IllegalArgumentException("Tree not found: " + tree);
+        }
+        if (author.isEmpty() || author.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Author must be one non-empty line");
+        }
+        StringBuilder text = new StringBuilder();
+        text.append("tree ").append(tree.toHex()).append('\n');
+        for (int i = 0; i < parents.size(); i++) {
+            if (!repository.hasObject(parents.get(i))) {
+                throw new IllegalArgumentException("Parent not found: " + parents.get(i));
+            }
+            text.append("parent ").append(parents.get(i).toHex()).append('\n');
+        }
+        text.append("author ").append(author).append(' ').append(time).append("\n\n");
+        text.append(message);
+        return repository.writeObjectId(text.toString());
+    }
+
+    /**
+     * @return The commit HEAD points to, or null before the first commit
+     */
+    public ObjectId head() {
+        try {
+            String text = new String(Files.readAllBytes(headFile.toPath()), StandardCharsets.UTF_8).trim();
+            return text.isEmpty() ? null : ObjectId.fromHex(text);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading HEAD", e);
+        }
+    }
+
+    /**
+     * Moves HEAD from one commit to another, only if it still points where
+     * the caller expects. The new commit (and everything it needs) is flushed
+     * to disk first, so HEAD never points at an object that is not there.
+     *
+     * @param expected The commit HEAD should point to now, or null if there
+     *                 should be none
+     * @param newHead  The commit HEAD should point to afterwards
+     * @throws IllegalStateException if HEAD is locked or does not match
+     *                               expected
+     */
+    public synchronized void updateHead(ObjectId expected, ObjectId newHead) {
+        repository.flush();
+        if (!repository.hasObject(newHead)) {
+            throw new IllegalArgumentException("Commit not found: " + newHead);
+        }
+        try {
+            if (!lockFile.createNewFile()) {
+                throw new IllegalStateException("HEAD is being updated elsewhere: " + lockFile.getPath());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error locking HEAD", e);
+        }
+        try {
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer text = ByteBuffer.wrap((newHead.toHex() + "\n").getBytes(StandardCharsets.UTF_8));
+                while (text.hasRemaining()) {
+                    channel.write(text);
+                }
+                channel.force(true);
+            }
+            ObjectId current = head();
+            if (!Objects.equals(current, expected)) {
+                throw new IllegalStateException("HEAD moved from " + expected + " to " + current);
+            }
+            Files.move(lockFile.toPath(), headFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Error updating HEAD", e);
+        } finally {
+            lockFile.delete();
+        }
+    }
+
+    /**
+     * Reads and parses a commit object
+     *
+     * @param id The commit id
+     * @return The commit
+     */
+    public Commit readCommit(ObjectId id) {
+        byte[] stored = repository.readStoredObject(id);
+        if (stored == null) {
+            throw new IllegalArgumentException("Commit not found: " + id);
+        }
+        commitsRead++;
+        String text;
+        try {
+            text = new String(Compression.decode(stored), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading commit " + id, e);
+        }
+        int split = text.indexOf("\n\n");
+        if (!text.startsWith("tree ") || split < 0) {
+            throw new IllegalArgumentException("Not a commit object: " + id);
+        }
+        String[] lines = text.substring(0, split).split("\n");
+        ObjectId tree = ObjectId.fromHex(lines[0].substring(5));
+        ArrayList<ObjectId> parents = new ArrayList<>();
+        int i = 1;
+        while (i < lines.length && lines[i].startsWith("parent ")) {
+            parents.add(ObjectId.fromHex(lines[i].substring(7)));
+            i++;
+        }
+        if (i != lines.length - 1 || !lines[i].startsWith("author ")) {
+            throw new IllegalArgumentException("Not a commit object: " + id);
+        }
+        String author = lines[i].substring(7);
+        int space = author.lastIndexOf(' ');
+        long time = Long.parseLong(author.substring(space + 1));
+        return new Commit(id, tree, parents, author.substring(0, space), time, text.substring(split + 2));
+    }
+
+    /**
+     * @param id A commit id in hex
+     * @return The commit
+     */
+    public Commit readCommit(String id) {
+        return readCommit(ObjectId.fromHex(id));
+    }
+
+    /**
+     * Rewrites git/commit-graph to hold every commit reachable from HEAD.
+     * Commits already in the old graph are copied from it rather than read.
+     *
+     * @return The number of commits in the new graph
+     */
+    public synchronized int writeCommitGraph() {
+        ArrayList<CommitGraph.Row> rows = new ArrayList<>();
+        ObjectId start = head();
+        HashSet<ObjectId> seen = new HashSet<>();
+        ArrayDeque<ObjectId> todo = new ArrayDeque<>();
+        if (start != null) {
+            todo.push(start);
+            seen.add(start);
+        }
+        while (!todo.isEmpty()) {
+            ObjectId id = todo.pop();
+            CommitGraph.Row row;
+            int position = graph == null ? -1 : graph.find(id);
+            if (position >= 0) {
+                int[] parentRows = graph.parentsAt(position);
+                ArrayList<ObjectId> parents = new ArrayList<>();
+                for (int i = 0; i < parentRows.length; i++) {
+                    parents.add(graph.idAt(parentRows[i]));
+                }
+                row = new CommitGraph.Row(id, graph.treeAt(position), parents, graph.timeAt(position));
+            } else {
+                Commit commit = readCommit(id);
+                row = new CommitGraph.Row(id, commit.tree, commit.parents, commit.time);
+            }
+            rows.add(row);
+            for (int i = 0; i < row.parents.size(); i++) {
+                if (seen.add(row.parents.get(i))) {
+                    todo.push(row.parents.get(i));
+                }
+            }
+        }
+        try {
+            graph = CommitGraph.write(graphFile, rows);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing " + graphFile.getPath(), e);
+        }
+        readNodes.clear();
+        return rows.size();
+    }
+
+    /**
+     * Lists a commit and its ancestors, newest first
+     *
+     * @param start The commit to start from, e.g. head()
+     * @param max   The most commits to return
+     * @return The commit ids, by commit time, newest first
+     */
+    public synchronized List<ObjectId> log(ObjectId start, int max) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        if (start == null) {
+            return result;
+        }
+        PriorityQueue<Node> queue = new PriorityQueue<>((a, b) -> a.time != b.time
+                ? Long.compare(b.time, a.time)
+                : Integer.compare(b.generation, a.generation));
+        HashSet<ObjectId> seen = new HashSet<>();
+        queue.add(node(start));
+        seen.add(start);
+        while (!queue.isEmpty() && result.size() < max) {
+            Node node = queue.poll();
+            result.add(node.id);
+            for (int i = 0; i < node.parents.length; i++) {
+                if (seen.add(node.parents[i])) {
+                    queue.add(node(node.parents[i]));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether one commit is in the history of another. Commits with a
+     * lower generation than the ancestor cannot lead to it, so the walk
+     * stops at them.
+     *
+     * @param ancestor   The possible ancestor
+     * @param descendant The commit whose history is searched
+     * @return true if ancestor is descendant or one of its ancestors
+     */
+    public synchronized boolean isAncestor(ObjectId ancestor, ObjectId descendant) {
+        int floor = node(ancestor).generation;
+        HashSet<ObjectId> seen = new HashSet<>();
+        ArrayDeque<ObjectId> todo = new ArrayDeque<>();
+        todo.push(descendant);
+        seen.add(descendant);
+        while (!todo.isEmpty()) {
+            ObjectId id = todo.pop();
+            if (id.equals(ancestor)) {
+                return true;
+            }
+            Node node = node(id);
+            if (node.generation <= floor) {
+                continue;
+            }
+            for (int i = 0; i < node.parents.length; i++) {
+                if (seen.add(node.parents[i])) {
+                    todo.push(node.parents[i]);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds a best common ancestor of two commits: one that is not an
+     * ancestor of any other common ancestor. Both histories are walked
+     * together, highest generation first, so every commit is reached from all
+     * of its children before it is looked at, and the first commit reached
+     * from both sides is the answer.
+     *
+     * @param first  One commit
+     * @param second The other commit
+     * @return The merge base, or null if the commits share no history
+     */
+    public synchronized ObjectId mergeBase(ObjectId first, ObjectId second) {
+        if (first.equals(second)) {
+            return first;
+        }
+        PriorityQueue<Node> queue = new PriorityQueue<>((a, b) -> a.generation != b.generation
+                ? Integer.compare(b.generation, a.generation)
+                : Long.compare(b.time, a.time));
+        HashMap<ObjectId, Integer> reachedFrom = new HashMap<>();
+        queue.add(node(first));
+        reachedFrom.put(first, FROM_FIRST);
+        queue.add(node(second));
+        reachedFrom.put(second, FROM_SECOND);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            int flags = reachedFrom.get(node.id);
+            if (flags == (FROM_FIRST | FROM_SECOND)) {
+                return node.id;
+            }
+            for (int i = 0; i < node.parents.length; i++) {
+                Integer old = reachedFrom.get(node.parents[i]);
+                if (old == null) {
+                    reachedFrom.put(node.parents[i], flags);
+                    queue.add(node(node.parents[i]));
+                } else {
+                    reachedFrom.put(node.parents[i], old | flags);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of commit objects read and decompressed so far
+     */
+    public long commitsRead() {
+        return commitsRead;
+    }
+
+    // Looks a commit up in the graph, or reads it and any of its ancestors
+    // that are not in the graph either, parents first so each generation can
+    // be worked out. No recursion, so long unindexed histories are fine.
+    private Node node(ObjectId id) {
+        Node node = knownNode(id);
+        if (node != null) {
+            return node;
+        }
+        HashMap<ObjectId, Commit> read = new HashMap<>();
+        ArrayDeque<ObjectId> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            ObjectId top = stack.peek();
+            Commit commit = read.get(top);
+            if (commit == null) {
+                commit = readCommit(top);
+                read.put(top, commit);
+            }
+            int generation = 1;
+            boolean ready = true;
+            for (int i = 0; i < commit.parents.size(); i++) {
+                Node parent = knownNode(commit.parents.get(i));
+                if (parent == null) {
+                    ready = false;
+                    stack.push(commit.parents.get(i));
+                    break;
+                }
+                generation = Math.max(generation, parent.generation + 1);
+            }
+            if (ready) {
+                readNodes.put(top, new Node(top, commit.parents.toArray(new ObjectId[0]), generation, commit.time));
+                stack.pop();
+            }
+        }
+        return readNodes.get(id);
+    }
+
+    // A commit from the graph or already read, or null
+    private Node knownNode(ObjectId id) {
+        int position = graph == null ? -1 : graph.find(id);
+        if (position < 0) {
+            return readNodes.get(id);
+        }
+        int[] parentRows = graph.parentsAt(position);
+        ObjectId[] parents = new ObjectId[parentRows.length];
+        for (int i = 0; i < parentRows.length; i++) {
+            parents[i] = graph.idAt(parentRows[i]);
+        }
+        return new Node(id, parents, graph.generationAt(position), graph.timeAt(position));
+    }
+}
@@ -0,0 +1,627 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The staging index (git/index), stored as a sorted binary file with one
+ * entry per path.
+ *
+ * File layout:
+ *   "GIDX" <version int> <entry count int> <20 byte SHA-1 of everything after the header>
+ *   offsets: count x int, where each entry starts in the file
+ *   entries: <20 byte object id> <size long> <mtime long> <file key long>
+ *            <path length short> <UTF-8 path>, sorted by path
+ * Version 1 files have no size/mtime/file key and are still readable.
+ *
+ * The stat data (size, modification time in nanoseconds and a hash of the
+ * file key) lets tree builders reuse an entry's blob id without reading the
+ * file again; see isUnchanged().
+ *
+ * The file is memory mapped, so get() is a binary search over the offset
+ * table, and its checksum is checked once, when the index is opened. put()
+ * and remove() are kept in a sorted change set until save(). A small set of
+ * changes is appended to git/index.log instead of rewriting the file, so
+ * saving one path costs one short append. Once the log holds more than
+ * LOG_MIN_ENTRIES changes and an eighth of the entries, save() merges
+ * everything into a new index in one pass and deletes the log. An old text
+ * index (one "blob <sha> <path>" or "<sha> <path>" line per entry) is read
+ * once and converted on the next save().
+ *
+ * Log layout:
+ *   "GLOG" <version int> <20 byte checksum of the index it applies to>
+ *   batches: <record count int> <byte length int> <records> <CRC32 long>
+ *   record:  <1 = put, 0 = remove byte> <20 byte object id> <size long>
+ *            <mtime long> <file key long> <path length short> <UTF-8 path>
+ * A log whose checksum does not match the index is left over from before
+ * the last merge and is ignored. A batch cut short by a crash, and
+ * anything after it, is cut off the log when it is read, so later batches
+ * are never appended behind it. Each batch is synced before save() returns.
+ * Entries too new to trust when they are logged are saved with mtime 0, so
+ * they are hashed again rather than trusted after a reload.
+ *
+ * Usage:
+ *   GitIndex index = repository.getIndex();
+ *   index.put("main/a.txt", blobHash);
+ *   index.save();
+ */
+public class GitIndex {
+
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int ID_SIZE = 20;
+    private static final int LOG_VERSION = 1;
+    private static final int LOG_HEADER_SIZE = 28;
+
+    /**
+     * Changes that always fit in the log before a full rewrite
+     */
+    public static final int LOG_MIN_ENTRIES = 1024;
+
+    // Coarsest file timestamp resolution we allow for (FAT uses 2 seconds)
+    private static final long RACY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * One path in the index, the blob it points to, and the file's stat data
+     * when the blob was made (all zero if unknown)
+     */
+    public static class Entry {
+        public final String path;
+        public final ObjectId id;
+        public final long size;
+        public final long mtime;
+        public final long fileKey;
+
+        public Entry(String path, ObjectId id) {
+            this(path, id, 0, 0, 0);
+        }
+
+        public Entry(String path, ObjectId id, long size, long mtime, long fileKey) {
+            this.path = path;
+            this.id = id;
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+        }
+
+        /**
+         * Builds an entry that records the stat data of a file
+         *
+         * @param path  The repo-relative path
+         * @param id    The blob id of the file
+         * @param attrs The file's attributes, read before it was hashed
+         * @return The new entry
+         */
+        public static Entry fromFile(String path, ObjectId id, BasicFileAttributes attrs) {
+            return new Entry(path, id, attrs.size(), mtimeOf(attrs), fileKeyOf(attrs));
+        }
+
+        @Override
+        public String toString() {
+            return id.toHex() + " " + path;
+        }
+    }
+
+    private File indexFile;
+    private File logFile;
+    // Mapped binary file, or null if the index was empty or in the old format
+    private MappedByteBuffer mapped;
+    private int mappedCount;
+    private int statSize;
+    // When the mapped file was written, in nanoseconds
+    private long savedTime;
+    // Changes on top of the mapped file by path, logged or not; a null value
+    // means the path was removed
+    private TreeMap<String, Entry> changes = new TreeMap<>();
+    // The changes not yet in the log
+    private TreeMap<String, Entry> unsaved = new TreeMap<>();
+    // Paths whose change came from the log; their stat data was checked for
+    // raciness when it was logged
+    private HashSet<String> logged = new HashSet<>();
+    // Read from the old text format, so the next save() must rewrite
+    private boolean legacy;
+    // Where the last good batch of the log ends, or 0 if there is no log for
+    // the mapped file
+    private long logEnd;
+
+    /**
+     * Opens the index file, mapping it if it is already in the binary format
+     *
+     * @param indexFile The git/index file
+     */
+    public GitIndex(File indexFile) {
+        this.indexFile = indexFile;
+        this.logFile = new File(indexFile.getParentFile(), indexFile.getName() + ".log");
+        try {
+            load(true);
+            replayLog();
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading index " + indexFile.getPath(), e);
+        }
+    }
+
+    /**
+     * Looks up the blob recorded for a path
+     *
+     * @param path The repo-relative path
+     * @return The blob hash in hex, or null if the path is not in the index
+     */
+    public synchronized String get(String path) {
+        ObjectId id = getId(path);
+        return id == null ? null : id.toHex();
+    }
+
+    /**
+     * Looks up the blob recorded for a path
+     *
+     * @param path The repo-relative path
+     * @return The blob id, or null if the path is not in the index
+     */
+    public synchronized ObjectId getId(String path) {
+        Entry entry = getEntry(path);
+        return entry == null ? null : entry.id;
+    }
+
+    /**
+     * Looks up the full entry recorded for a path
+     *
+     * @param path The repo-relative path
+     * @return The entry, or null if the path is not in the index
+     */
+    public synchronized Entry getEntry(String path) {
+        if (changes.containsKey(path)) {
+            return changes.get(path);
+        }
+        int position = findMapped(path);
+        return position < 0 ? null : entryAt(position);
+    }
+
+    /**
+     * Checks whether a file still matches the stat data of its index entry, in
+     * which case the entry's blob id can be reused without reading the file.
+     * Entries whose mtime is not older than the index file itself are never
+     * trusted, since the file could have changed again within the same clock
+     * tick after it was hashed.
+     *
+     * @param entry The index entry for the file
+     * @param attrs The file's current attributes
+     * @return true if size, mtime and file key all match, otherwise false
+     */
+    public synchronized boolean isUnchanged(Entry entry, BasicFileAttributes attrs) {
+        boolean fromLog = logged.contains(entry.path) && changes.get(entry.path) == entry;
+        if (entry.mtime == 0 || (!fromLog && entry.mtime >= savedTime)) {
+            return false;
+        }
+        return entry.size == attrs.size() && entry.mtime == mtimeOf(attrs) && entry.fileKey == fileKeyOf(attrs);
+    }
+
+    /**
+     * Adds a path to the index, replacing any entry it already has
+     *
+     * @param path The repo-relative path
+     * @param id   The blob id of the file
+     */
+    public synchronized void put(String path, ObjectId id) {
+        put(new Entry(path, id));
+    }
+
+    /**
+     * Adds a path to the index, replacing any entry it already has
+     *
+     * @param path The repo-relative path
+     * @param sha1 The blob hash of the file in hex
+     */
+    public synchronized void put(String path, String sha1) {
+        put(path, ObjectId.fromHex(sha1));
+    }
+
+    /**
+     * Adds an entry to the index, replacing any entry with the same path
+     *
+     * @param entry The entry to add
+     */
+    public synchronized void put(Entry entry) {
+        changes.put(entry.path, entry);
+        unsaved.put(entry.path, entry);
+        logged.remove(entry.path);
+    }
+
+    /**
+     * Removes a path from the index
+     *
+     * @param path The repo-relative path
+     * @return true if the path was in the index, otherwise false
+     */
+    public synchronized boolean remove(String path) {
+        boolean present = getEntry(path) != null;
+        changes.put(path, null);
+        unsaved.put(path, null);
+        logged.remove(path);
+        return present;
+    }
+
+    /**
+     * @return The number of paths in the index, including unsaved changes
+     */
+    public synchronized int size() {
+        return entries().size();
+    }
+
+    /**
+     * Returns every entry in path order, including unsaved changes
+     *
+     * @return The entries sorted by path
+     */
+    public synchronized ArrayList<Entry> entries() {
+        ArrayList<Entry> result = new ArrayList<>();
+        int position = 0;
+        for (Map.Entry<String, Entry> change : changes.entrySet()) {
+            while (position < mappedCount && pathAt(position).compareTo(change.getKey()) < 0) {
+                result.add(entryAt(position));
+                position++;
+            }
+            if (position < mappedCount && pathAt(position).equals(change.getKey())) {
+                position++; // replaced or removed by the change
+            }
+            if (change.getValue() != null) {
+                result.add(change.getValue());
+            }
+        }
+        while (position < mappedCount) {
+            result.add(entryAt(position));
+            position++;
+        }
+        return result;
+    }
+
+    /**
+     * Saves the pending changes: appended to git/index.log while the log is
+     * small, otherwise merged with the mapped entries into a new index file,
+     * which is written to a temp file and renamed over the old one
+     */
+    public synchronized void save() {
+        if (unsaved.isEmpty() && mapped != null && !legacy) {
+            return;
+        }
+        try {
+            if (mapped != null && !legacy && changes.size() <= Math.max(LOG_MIN_ENTRIES, mappedCount / 8)) {
+                appendLog();
+                return;
+            }
+            ArrayList<Entry> all = entries();
+            File tempFile = File.createTempFile("index", ".tmp", indexFile.getParentFile());
+            try {
+                writeFile(tempFile, all);
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tempFile.delete();
+            }
+            Files.deleteIfExists(logFile.toPath());
+            logEnd = 0;
+            changes.clear();
+            unsaved.clear();
+            logged.clear();
+            legacy = false;
+            load(false); // just written, so no need to check the checksum
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing index " + indexFile.getPath(), e);
+        }
+    }
+
+    // Appends the unsaved changes to the log as one batch and syncs it,
+    // starting a new log if there is none for the current index file
+    private void appendLog() throws IOException {
+        long racyFrom = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - RACY_WINDOW_NANOS;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(bytes);
+        byte[] id = new byte[ID_SIZE];
+        for (Map.Entry<String, Entry> change : unsaved.entrySet()) {
+            Entry entry = change.getValue();
+            byte[] path = change.getKey().getBytes(StandardCharsets.UTF_8);
+            if (path.length > 0xffff) {
+                throw new IOException("Path too long for index: " + change.getKey());
+            }
+            if (entry == null) {
+                records.writeByte(0);
+                records.write(new byte[ID_SIZE + 24]);
+            } else {
+                if (entry.mtime >= racyFrom) {
+                    // Could change again within the same timestamp tick
+                    entry = new Entry(entry.path, entry.id, entry.size, 0, entry.fileKey);
+                    changes.put(entry.path, entry);
+                }
+                records.writeByte(1);
+                entry.id.copyRawTo(id, 0);
+                records.write(id);
+                records.writeLong(entry.size);
+                records.writeLong(entry.mtime);
+                records.writeLong(entry.fileKey);
+            }
+            records.writeShort(path.length);
+            records.write(path);
+        }
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteArrayOutputStream batchBytes = new ByteArrayOutputStream(body.length + 44);
+        DataOutputStream batch = new DataOutputStream(batchBytes);
+        if (logEnd == 0) {
+            byte[] checksum = new byte[ID_SIZE];
+            mapped.get(12, checksum);
+            batch.write("GLOG".getBytes(StandardCharsets.US_ASCII));
+            batch.writeInt(LOG_VERSION);
+            batch.write(checksum);
+        }
+        batch.writeInt(unsaved.size());
+        batch.writeInt(body.length);
+        batch.write(body);
+        batch.writeLong(crc.getValue());
+
+        ByteBuffer buffer = ByteBuffer.wrap(batchBytes.toByteArray());
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            // Drops an old log, or a batch left half written by a failed save
+            if (channel.size() != logEnd) {
+                channel.truncate(logEnd);
+            }
+            long position = logEnd;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        }
+        logEnd += buffer.capacity();
+        logged.addAll(unsaved.keySet());
+        unsaved.clear();
+    }
+
+    // Whether the log exists and belongs to the index with this checksum
+    private boolean logMatches(byte[] checksum) throws IOException {
+        if (logFile.length() < LOG_HEADER_SIZE) {
+            return false;
+        }
+        byte[] header = new byte[LOG_HEADER_SIZE];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(logFile))) {
+            in.readFully(header);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        byte[] logChecksum = new byte[ID_SIZE];
+        buffer.get(8, logChecksum);
+        return new String(header, 0, 4, StandardCharsets.US_ASCII).equals("GLOG")
+                && buffer.getInt(4) == LOG_VERSION && Arrays.equals(checksum, logChecksum);
+    }
+
+    // Applies the logged changes on top of the mapped file, stopping at the
+    // first batch that is incomplete or damaged and cutting it off the log
+    private void replayLog() throws IOException {
+        logEnd = 0;
+        if (mapped == null || legacy) {
+            return;
+        }
+        byte[] checksum = new byte[ID_SIZE];
+        mapped.get(12, checksum);
+        if (!logMatches(checksum)) {
+            return;
+        }
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(logFile.toPath()));
+        log.position(LOG_HEADER_SIZE);
+        long end = LOG_HEADER_SIZE;
+        while (log.remaining() >= 8) {
+            int count = log.getInt();
+            int length = log.getInt();
+            if (count < 0 || length < 0 || log.remaining() < length + 8L) {
+                break;
+            }
+            byte[] body = new byte[length];
+            log.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (crc.getValue() != log.getLong()) {
+                break;
+            }
+            ByteBuffer records = ByteBuffer.wrap(body);
+            for (int i = 0; i < count; i++) {
+                boolean isPut = records.get() == 1;
+                ObjectId id = ObjectId.fromBuffer(records, records.position());
+                records.position(records.position() + ID_SIZE);
+                long size = records.getLong();
+                long mtime = records.getLong();
+                long fileKey = records.getLong();
+                byte[] path = new byte[records.getShort() & 0xffff];
+                records.get(path);
+                String pathText = new String(path, StandardCharsets.UTF_8);
+                changes.put(pathText, isPut ? new Entry(pathText, id, size, mtime, fileKey) : null);
+                logged.add(pathText);
+            }
+            end = log.position();
+        }
+        if (end < log.capacity()) {
+            try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+                channel.force(false);
+            }
+        }
+        logEnd = end;
+    }
+
+    // Maps a binary index, or reads an old text index into the change set
+    private void load(boolean verify) throws IOException {
+        mapped = null;
+        mappedCount = 0;
+        if (!indexFile.exists() || indexFile.length() == 0) {
+            return;
+        }
+        if (!isBinary()) {
+            loadText();
+            legacy = true;
+            return;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath())) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int version = buffer.getInt(4);
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported index version " + version);
+        }
+        // The checksum covers the offset table and the entries
+        byte[] expected = new byte[ID_SIZE];
+        buffer.get(12, expected);
+        if (verify && !Arrays.equals(expected,
+                Sha1Generator.digest(buffer.slice(HEADER_SIZE, buffer.capacity() - HEADER_SIZE)))) {
+            throw new IOException("Index checksum mismatch");
+        }
+        mapped = buffer;
+        mappedCount = buffer.getInt(8);
+        statSize = version == 1 ? 0 : 24;
+        savedTime = Files.getLastModifiedTime(indexFile.toPath()).to(TimeUnit.NANOSECONDS);
+    }
+
+    // Checks the magic number at the start of the file
+    private boolean isBinary() throws IOException {
+        byte[] magic = new byte[4];
+        try (FileInputStream in = new FileInputStream(indexFile)) {
+            if (in.read(magic) != 4) {
+                return false;
+            }
+        }
+        return new String(magic, StandardCharsets.US_ASCII).equals("GIDX");
+    }
+
+    // Reads the old text format; later lines for the same path win
+    private void loadText() throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(indexFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("blob ")) {
+                    line = line.substring(5);
+                } else if (line.startsWith("tree ")) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space == ObjectId.HEX_LENGTH && ObjectId.isHex(line.substring(0, space))) {
+                    String path = line.substring(space + 1);
+                    changes.put(path, new Entry(path, ObjectId.fromHex(line.substring(0, space))));
+                }
+            }
+        }
+    }
+
+    // Binary search of the mapped entries; returns the position or -1
+    private int findMapped(String path) {
+        int low = 0;
+        int high = mappedCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = pathAt(mid).compareTo(path);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Path of the mapped entry at a position
+    private String pathAt(int position) {
+        int offset = mapped.getInt(HEADER_SIZE + position * 4);
+        int length = mapped.getShort(offset + ID_SIZE + statSize) & 0xffff;
+        byte[] path = new byte[length];
+        mapped.get(offset + ID_SIZE + statSize + 2, path);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+
+    // Full mapped entry at a position
+    private Entry entryAt(int position) {
+        int offset = mapped.getInt(HEADER_SIZE + position * 4);
+        ObjectId id = ObjectId.fromBuffer(mapped, offset);
+        if (statSize == 0) {
+            return new Entry(pathAt(position), id);
+        }
+        return new Entry(pathAt(position), id, mapped.getLong(offset + ID_SIZE),
+                mapped.getLong(offset + ID_SIZE + 8), mapped.getLong(offset + ID_SIZE + 16));
+    }
+
+    // Modification time in nanoseconds
+    private static long mtimeOf(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    // The file key (device and inode on Unix) folded into a long
+    private static long fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? 0 : key.toString().hashCode() & 0xffffffffL;
+    }
+
+    // Writes sorted entries in the binary format
+    private static void writeFile(File file, ArrayList<Entry> entries) throws IOException {
+        byte[][] paths = new byte[entries.size()][];
+        int[] offsets = new int[entries.size()];
+        int offset = HEADER_SIZE + entries.size() * 4;
+        for (int i = 0; i < entries.size(); i++) {
+            paths[i] = entries.get(i).path.getBytes(StandardCharsets.UTF_8);
+            if (paths[i].length > 0xffff) {
+                throw new IOException("Path too long for index: " + entries.get(i).path);
+            }
+            offsets[i] = offset;
+            offset += ID_SIZE + 24 + 2 + paths[i].length;
+        }
+
+        MessageDigest md = Sha1Generator.threadDigest();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+            out.write("GIDX".getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            out.write(new byte[ID_SIZE]); // checksum is filled in below
+
+            DataOutputStream body = new DataOutputStream(new DigestOutputStream(out, md));
+            for (int i = 0; i < offsets.length; i++) {
+                body.writeInt(offsets[i]);
+            }
+            byte[] id = new byte[ID_SIZE];
+            for (int i = 0; i < paths.length; i++) {
+                Entry entry = entries.get(i);
+                entry.id.copyRawTo(id, 0);
+                body.write(id);
+                body.writeLong(entry.size);
+                body.writeLong(entry.mtime);
+                body.writeLong(entry.fileKey);
+                body.writeShort(paths[i].length);
+                body.write(paths[i]);
+            }
+            body.flush();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(12);
+            raf.write(md.digest());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Reports which files under a directory differ from git/index, without
+ * changing the index or storing anything.
+ *
+ * The directory is walked in parallel on a ForkJoinPool. Each file is
+ * compared with its index entry by stat data first; only files whose size,
+ * mtime or file key differ (or that are too new to trust, see
+ * GitIndex.isUnchanged) are hashed, and a file whose hash still matches is
+ * not reported. Changes are handed to the caller as soon as they are found,
+ * so it can start on them before the walk finishes. Deleted files are
+ * reported last, once the walk has seen everything that still exists.
+ *
+ * Ignored files (see IgnoreRules) are not reported as added, and ignored
+ * folders are not walked. Files already in the index are still compared
+ * when ignored, as git does; those under an ignored folder are assumed
+ * unchanged rather than reported as deleted.
+ *
+ * Usage:
+ *   GitStatus status = new GitStatus(repository);
+ *   status.status("myProgram", change -> System.out.println(change));
+ *   ArrayList<GitStatus.Change> all = status.status();
+ */
+public class GitStatus {
+
+    /**
+     * How a path differs from the index
+     */
+    public enum Kind {
+        ADDED, MODIFIED, DELETED
+    }
+
+    /**
+     * One path that differs from the index
+     */
+    public static class Change implements Comparable<Change> {
+        public final Kind kind;
+        public final String path;
+
+        public Change(Kind kind, String path) {
+            this.kind = kind;
+            this.path = path;
+        }
+
+        @Override
+        public int compareTo(Change other) {
+            return path.compareTo(other.path);
+        }
+
+        @Override
+        public String toString() {
+            return kind.name().charAt(0) + " " + path;
+        }
+    }
+
+    private MyRepo repository;
+
+    public GitStatus(MyRepo repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Compares the whole repository (except the git folder) with the index
+     *
+     * @return Every change, sorted by path
+     */
+    public ArrayList<Change> status() {
+        ArrayList<Change> changes = new ArrayList<>();
+        status("", changes::add);
+        changes.sort(null);
+        return changes;
+    }
+
+    /**
+     * Compares one directory with the index, handing each change to the
+     * listener as it is found. The listener is never called by two threads
+     * at once, but changes arrive in no particular order.
+     *
+     * @param dirRelPath The directory to check, relative to the repo root, or
+     *                   "" for the whole repository
+     * @param listener   Receives each change
+     */
+    public void status(String dirRelPath, Consumer<Change> listener) {
+        File dir = dirRelPath.isEmpty() ? repository.repoFolder : new File(repository.repoFolder, dirRelPath);
+        if (!dir.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + dirRelPath);
+        }
+        GitIndex index = repository.getIndex();
+        HashMap<String, GitIndex.Entry> entries = new HashMap<>();
+        ArrayList<GitIndex.Entry> all = index.entries();
+        String prefix = dirRelPath.isEmpty() ? "" : dirRelPath + "/";
+        for (int i = 0; i < all.size(); i++) {
+            if (all.get(i).path.startsWith(prefix)) {
+                entries.put(all.get(i).path, all.get(i));
+            }
+        }
+
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        Set<String> ignoredDirs = ConcurrentHashMap.newKeySet();
+        Consumer<Change> serialized = change -> {
+            synchronized (listener) {
+                listener.accept(change);
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            IgnoreRules rules = repository.ignoreRules(dirRelPath);
+            pool.invoke(new DirectoryTask(dir, prefix, rules, index, entries, seen, ignoredDirs, serialized));
+        } finally {
+            pool.shutdown();
+        }
+
+        ArrayList<String> deleted = new ArrayList<>();
+        for (String path : entries.keySet()) {
+            if (!seen.contains(path) && !isUnder(path, ignoredDirs)) {
+                deleted.add(path);
+            }
+        }
+        deleted.sort(null);
+        for (int i = 0; i < deleted.size(); i++) {
+            serialized.accept(new Change(Kind.DELETED, deleted.get(i)));
+        }
+    }
+
+    // Whether a path is inside one of the given folders ("dir/" prefixes)
+    private static boolean isUnder(String path, Set<String> dirPrefixes) {
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (dirPrefixes.contains(path.substring(0, slash + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Checks one directory's files and forks a task per subdirectory
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private File dir;
+        private String prefix;
+        // The rules of dir's parent
+        private IgnoreRules rules;
+        private GitIndex index;
+        private HashMap<String, GitIndex.Entry> entries;
+        private Set<String> seen;
+        private Set<String> ignoredDirs;
+        private Consumer<Change> listener;
+
+        DirectoryTask(File dir, String prefix, IgnoreRules rules, GitIndex index,
+                HashMap<String, GitIndex.Entry> entries, Set<String> seen, Set<String> ignoredDirs,
+                Consumer<Change> listener) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.rules = rules;
+            this.index = index;
+            this.entries = entries;
+            this.seen = seen;
+            this.ignoredDirs = ignoredDirs;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void compute() {
+            ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(dir);
+            IgnoreRules here = rules.enter(prefix, children);
+            ArrayList<DirectoryTask> subtasks = new ArrayList<>();
+            for (int i = 0; i < children.size(); i++) {
+                DirectoryWalker.Entry child = children.get(i);
+                String path = prefix + child.name;
+                boolean ignored = here.isIgnored(path, child.isDirectory());
+                if (child.isDirectory()) {
+                    if (ignored) {
+                        ignoredDirs.add(path + "/");
+                    } else {
+                        DirectoryTask subtask = new DirectoryTask(child.toFile(), path + "/", here,
+                                index, entries, seen, ignoredDirs, listener);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    }
+                } else if (child.isFile() && (!ignored || entries.containsKey(path))) {
+                    checkFile(child, path);
+                }
+            }
+            for (int i = 0; i < subtasks.size(); i++) {
+                subtasks.get(i).join();
+            }
+        }
+
+        // Reports a file that is not in the index, or whose content changed,
+        // using the attributes read when the folder was listed
+        private void checkFile(DirectoryWalker.Entry file, String path) {
+            GitIndex.Entry entry = entries.get(path);
+            if (entry == null) {
+                listener.accept(new Change(Kind.ADDED, path));
+                return;
+            }
+            if (index.isUnchanged(entry, file.attrs)) {
+                seen.add(path);
+                return;
+            }
+            ObjectId id;
+            try {
+                id = repository.hashBlob(file.toFile());
+            } catch (RuntimeException e) {
+                if (!file.toFile().exists()) {
+                    return; // deleted since the folder was listed; reported with the others
+                }
+                throw e;
+            }
+            seen.add(path);
+            if (!id.equals(entry.id)) {
+                listener.accept(new Change(Kind.MODIFIED, path));
+            }
+        }
+    }
+}
@@ -1,7 +1,9 @@
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Builds tree objects for directories and updates the index with entries.
@@ -14,9 +16,19 @@ import java.util.ArrayList;
  *   GitTreeBuilder builder = new GitTreeBuilder(repository);
  *   String treeHash = builder.addDirectory("myProgram");
  *   System.out.println("Tree hash: " + treeHash);
+ *
+ * For big directories, addDirectory("myProgram", threads) does the same work
+ * on a ForkJoinPool and gives the same tree hash and index lines.
+ *
+ * Files and folders matched by .gitignore files (and the git folder) are
+ * left out of the trees and the index, and ignored folders are never
+ * listed (see IgnoreRules).
  */
 public class GitTreeBuilder {
 
+    // Number of files hashed by one fork/join task in parallel mode
+    private static final int FILE_BATCH_SIZE = 64;
+
     private MyRepo repository;
 
     public GitTreeBuilder(MyRepo repository) {
@@ -27,93 +39,321 @@ public class GitTreeBuilder {
      * Adds a directory given a relative path from the repo root.
      * Creates blobs for files, tree objects for subdirectories, and writes
      * a tree object for this directory into git/objects under its SHA-1.
-     * Also appends entries for every file and subdirectory to git/index.
+     * Also records every file under the directory in git/index. Files whose
+     * size, mtime and file key match their index entry are not read again,
+     * and subdirectories whose fingerprint matches git/treecache reuse their
+     * cached tree id, taking their files' index entries from the cached tree
+     * instead of staging them (see TreeCache).
      */
     public String addDirectory(String directoryPath) {
+        return addDirectoryId(directoryPath).toHex();
+    }
+
+    /**
+     * Same as addDirectory(directoryPath), but returns the tree id without
+     * converting it to hex
+     *
+     * @param directoryPath The directory to add, relative to the repo root
+     * @return The tree id of the directory
+     */
+    public ObjectId addDirectoryId(String directoryPath) {
+        File dir = checkDirectory(directoryPath);
+
+        ArrayList<GitIndex.Entry> indexEntries = new ArrayList<>();
+        IgnoreRules rules = repository.ignoreRules(directoryPath);
+        DirectoryResult result = buildTreeForDirectory(dir, directoryPath, rules, indexEntries);
+
+        updateIndex(indexEntries);
+        repository.getTreeCache().save();
+        return result.treeId;
+    }
+
+    /**
+     * Same as addDirectory(directoryPath), but subdirectories and batches of
+     * files are hashed, compressed and written in parallel. The tree objects
+     * and the order of the index lines match the sequential version exactly.
+     *
+     * @param directoryPath The directory to add, relative to the repo root
+     * @param parallelism   The number of worker threads to use
+     * @return The tree hash of the directory
+     */
+    public String addDirectory(String directoryPath, int parallelism) {
+        return addDirectoryId(directoryPath, parallelism).toHex();
+    }
+
+    /**
+     * Same as addDirectory(directoryPath, parallelism), but returns the tree
+     * id without converting it to hex
+     *
+     * @param directoryPath The directory to add, relative to the repo root
+     * @param parallelism   The number of worker threads to use
+     * @return The tree id of the directory
+     */
+    public ObjectId addDirectoryId(String directoryPath, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        File dir = checkDirectory(directoryPath);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            IgnoreRules rules = repository.ignoreRules(directoryPath);
+            DirectoryResult result = pool.invoke(new DirectoryTask(dir, directoryPath, rules));
+            updateIndex(result.indexEntries);
+            repository.getTreeCache().save();
+            return result.treeId;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Resolves a repo-relative path and makes sure it is a directory
+    private File checkDirectory(String directoryPath) {
         File dir = new File(repository.repoFolder, directoryPath);
         if (!dir.exists() || !dir.isDirectory()) {
             throw new IllegalArgumentException("Directory not found or not a directory: " + directoryPath);
         }
+        return dir;
+    }
 
-        ArrayList<String> indexLines = new ArrayList<>();
-        String treeHash = buildTreeForDirectory(dir, directoryPath, indexLines);
+    // Recursively builds a tree for dir. Subdirectories are done first so
+    // that dir's fingerprint is known before any of its files are staged;
+    // the tree lines still list files first. Rules are those of dir's parent.
+    private DirectoryResult buildTreeForDirectory(File dir, String relPath, IgnoreRules rules,
+            ArrayList<GitIndex.Entry> indexEntries) {
+        ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(dir);
+        rules = rules.enter(relPath, children);
+        children = rules.filter(relPath, children);
+        TreeCache.Fingerprint fingerprint = new TreeCache.Fingerprint();
+        fingerprint.addRules(rules.id());
 
-        appendToIndex(indexLines);
-        return treeHash;
-    }
+        ArrayList<String> subRelPaths = new ArrayList<>();
+        ArrayList<ObjectId> subTreeIds = new ArrayList<>();
+        for (int i = 0; i < children.size(); i++) {
+            DirectoryWalker.Entry child = children.get(i);
+            if (child.isDirectory()) {
+                String subRelPath = relPath + "/" + child.name;
+                DirectoryResult sub = buildTreeForDirectory(child.toFile(), subRelPath, rules, indexEntries);
+                fingerprint.addTree(child.name, sub.fingerprint, sub.newestMtime);
+                subRelPaths.add(subRelPath);
+                subTreeIds.add(sub.treeId);
+            }
+        }
+        ArrayList<File> files = new ArrayList<>();
+        ArrayList<BasicFileAttributes> attrs = new ArrayList<>();
+        readFileAttributes(children, files, attrs);
+        for (int i = 0; i < files.size(); i++) {
+            fingerprint.addFile(files.get(i).getName(), attrs.get(i));
+        }
 
-    // Recursively builds a tree for dir and returns the tree hash
-    private String buildTreeForDirectory(File dir, String relPath, ArrayList<String> indexLines) {
-        ArrayList<String> treeLines = new ArrayList<>();
-
-        // List and sort children by name (beginner bubble sort)
-        File[] childrenArray = dir.listFiles();
-        if (childrenArray == null) {
-            childrenArray = new File[0];
-        }
-        ArrayList<File> children = new ArrayList<>();
-        for (int i = 0; i < childrenArray.length; i++) {
-            children.add(childrenArray[i]);
-        }
-        for (int i = 0; i < children.size() - 1; i++) {
-            for (int j = i + 1; j < children.size(); j++) {
-                if (children.get(i).getName().compareTo(children.get(j).getName()) > 0) {
-                    File temp = children.get(i);
-                    children.set(i, children.get(j));
-                    children.set(j, temp);
-                }
+        ArrayList<String> filePaths = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            filePaths.add(relPath + "/" + files.get(i).getName());
+        }
+
+        ObjectId fp = fingerprint.finish();
+        ObjectId cached = cachedTree(relPath, fp);
+        if (cached != null) {
+            ArrayList<GitIndex.Entry> restored = repository.restoreEntries(cached, filePaths, attrs);
+            if (restored != null) {
+                indexEntries.addAll(restored);
+                return new DirectoryResult(cached, fp, fingerprint.newestMtime(), indexEntries);
             }
         }
 
         // Files first
-        for (int i = 0; i < children.size(); i++) {
-            File child = children.get(i);
-            if (child.isFile()) {
-                String fileRelPath = relPath + "/" + child.getName();
-                String blobHash = repository.createBlobFromFile(child); // reuse helper
-                String line = "blob " + blobHash + " " + fileRelPath;
-                treeLines.add(line);
-                indexLines.add(line);
-            }
+        ArrayList<GitIndex.Entry> staged = repository.stageFiles(files, filePaths, attrs); // skips unchanged files
+        StringBuilder treeText = new StringBuilder();
+        for (int i = 0; i < staged.size(); i++) {
+            appendLine(treeText, "blob ", staged.get(i).id, filePaths.get(i));
+            indexEntries.add(staged.get(i));
         }
 
         // Directories next
+        for (int i = 0; i < subTreeIds.size(); i++) {
+            appendLine(treeText, "tree ", subTreeIds.get(i), subRelPaths.get(i));
+        }
+
+        // Write the tree object using MyRepo helper
+        ObjectId treeId = repository.writeObjectId(treeText.toString());
+        repository.getTreeCache().put(cacheKey(relPath), fp, fingerprint.newestMtime(), treeId);
+        return new DirectoryResult(treeId, fp, fingerprint.newestMtime(), indexEntries);
+    }
+
+    // Splits out the file children and the attributes the listing read
+    private void readFileAttributes(ArrayList<DirectoryWalker.Entry> children, ArrayList<File> files,
+            ArrayList<BasicFileAttributes> attrs) {
         for (int i = 0; i < children.size(); i++) {
-            File child = children.get(i);
-            if (child.isDirectory()) {
-                String subRelPath = relPath + "/" + child.getName();
-                String subTreeHash = buildTreeForDirectory(child, subRelPath, indexLines);
-                String line = "tree " + subTreeHash + " " + subRelPath;
-                treeLines.add(line);
+            if (children.get(i).isFile()) {
+                files.add(children.get(i).toFile());
+                attrs.add(children.get(i).attrs);
             }
         }
+    }
 
-        // Join lines with newlines
-        String treeContent = "";
-        for (int i = 0; i < treeLines.size(); i++) {
-            treeContent = treeContent + treeLines.get(i) + "\n";
+    // The cached tree id for a directory, if its fingerprint still matches
+    // and the tree object is still stored
+    private ObjectId cachedTree(String relPath, ObjectId fingerprint) {
+        ObjectId cached = repository.getTreeCache().get(cacheKey(relPath), fingerprint);
+        return cached != null && repository.hasObject(cached) ? cached : null;
+    }
+
+    private static String cacheKey(String relPath) {
+        return "builder " + relPath;
+    }
+
+    // Appends one "<type> <SHA1> <path>" tree line
+    private static void appendLine(StringBuilder treeText, String type, ObjectId id, String path) {
+        id.appendHex(treeText.append(type)).append(' ').append(path).append('\n');
+    }
+
+    // Tree id, fingerprint and index entries produced for one directory
+    private static class DirectoryResult {
+        ObjectId treeId;
+        ObjectId fingerprint;
+        long newestMtime;
+        ArrayList<GitIndex.Entry> indexEntries;
+
+        DirectoryResult(ObjectId treeId, ObjectId fingerprint, long newestMtime,
+                ArrayList<GitIndex.Entry> indexEntries) {
+            this.treeId = treeId;
+            this.fingerprint = fingerprint;
+            this.newestMtime = newestMtime;
+            this.indexEntries = indexEntries;
         }
+    }
 
-        // Write the tree object using MyRepo helper
-        String treeHash = repository.writeObject(treeContent);
-        return treeHash;
+    // Builds one directory's tree, forking a task per subdirectory and, unless
+    // the tree cache already has it, per batch of files, then joins the
+    // results back in sorted order
+    private class DirectoryTask extends RecursiveTask<DirectoryResult> {
+        private static final long serialVersionUID = 1L;
+
+        private File dir;
+        private String relPath;
+        // The rules of dir's parent
+        private IgnoreRules rules;
+
+        DirectoryTask(File dir, String relPath, IgnoreRules rules) {
+            this.dir = dir;
+            this.relPath = relPath;
+            this.rules = rules;
+        }
+
+        @Override
+        protected DirectoryResult compute() {
+            ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(dir);
+            IgnoreRules here = rules.enter(relPath, children);
+            children = here.filter(relPath, children);
+            ArrayList<DirectoryTask> subtasks = new ArrayList<>();
+            for (int i = 0; i < children.size(); i++) {
+                DirectoryWalker.Entry child = children.get(i);
+                if (child.isDirectory()) {
+                    DirectoryTask subtask = new DirectoryTask(child.toFile(), relPath + "/" + child.name, here);
+                    subtask.fork();
+                    subtasks.add(subtask);
+                }
+            }
+
+            // Pick out this directory's files while the subdirectories run
+            ArrayList<File> files = new ArrayList<>();
+            ArrayList<BasicFileAttributes> attrs = new ArrayList<>();
+            readFileAttributes(children, files, attrs);
+
+            TreeCache.Fingerprint fingerprint = new TreeCache.Fingerprint();
+            fingerprint.addRules(here.id());
+            ArrayList<DirectoryResult> subs = new ArrayList<>();
+            ArrayList<GitIndex.Entry> indexEntries = new ArrayList<>();
+            for (int i = 0; i < subtasks.size(); i++) {
+                DirectoryResult sub = subtasks.get(i).join();
+                fingerprint.addTree(subtasks.get(i).dir.getName(), sub.fingerprint, sub.newestMtime);
+                subs.add(sub);
+            }
+            for (int i = 0; i < files.size(); i++) {
+                fingerprint.addFile(files.get(i).getName(), attrs.get(i));
+            }
+
+            ObjectId fp = fingerprint.finish();
+            ObjectId cached = cachedTree(relPath, fp);
+            if (cached != null) {
+                ArrayList<String> filePaths = new ArrayList<>();
+                for (int i = 0; i < files.size(); i++) {
+                    filePaths.add(relPath + "/" + files.get(i).getName());
+                }
+                ArrayList<GitIndex.Entry> restored = repository.restoreEntries(cached, filePaths, attrs);
+                if (restored != null) {
+                    indexEntries.addAll(restored);
+                    for (int i = 0; i < subs.size(); i++) {
+                        indexEntries.addAll(subs.get(i).indexEntries);
+                    }
+                    return new DirectoryResult(cached, fp, fingerprint.newestMtime(), indexEntries);
+                }
+            }
+
+            ArrayList<FileBatchTask> batches = new ArrayList<>();
+            for (int start = 0; start < files.size(); start += FILE_BATCH_SIZE) {
+                int end = Math.min(start + FILE_BATCH_SIZE, files.size());
+                batches.add(new FileBatchTask(files.subList(start, end), attrs.subList(start, end), relPath));
+            }
+            invokeAll(batches);
+
+            StringBuilder treeText = new StringBuilder();
+
+            // Files first
+            for (int b = 0; b < batches.size(); b++) {
+                GitIndex.Entry[] entries = batches.get(b).join();
+                for (int i = 0; i < entries.length; i++) {
+                    appendLine(treeText, "blob ", entries[i].id, entries[i].path);
+                    indexEntries.add(entries[i]);
+                }
+            }
+
+            // Directories next
+            for (int i = 0; i < subs.size(); i++) {
+                appendLine(treeText, "tree ", subs.get(i).treeId, subtasks.get(i).relPath);
+                indexEntries.addAll(subs.get(i).indexEntries);
+            }
+
+            ObjectId treeId = repository.writeObjectId(treeText.toString());
+            repository.getTreeCache().put(cacheKey(relPath), fp, fingerprint.newestMtime(), treeId);
+            return new DirectoryResult(treeId, fp, fingerprint.newestMtime(), indexEntries);
+        }
     }
 
-    // Appends a batch of lines to git/index
-    private void appendToIndex(ArrayList<String> lines) {
-        if (lines.isEmpty()) {
-            return;
+    // Stages a slice of one directory's files through stageFiles, so
+    // concurrent file I/O applies here too when it is on
+    private class FileBatchTask extends RecursiveTask<GitIndex.Entry[]> {
+        private static final long serialVersionUID = 1L;
+
+        private List<File> files;
+        private List<BasicFileAttributes> attrs;
+        private String relPath;
+
+        FileBatchTask(List<File> files, List<BasicFileAttributes> attrs, String relPath) {
+            this.files = files;
+            this.attrs = attrs;
+            this.relPath = relPath;
         }
-        File indexFile = new File(repository.gitFolder, "index");
-        try {
-            BufferedWriter bw = new BufferedWriter(new FileWriter(indexFile, true));
-            for (int i = 0; i < lines.size(); i++) {
-                bw.write(lines.get(i));
-                bw.newLine();
+
+        @Override
+        protected GitIndex.Entry[] compute() {
+            ArrayList<String> paths = new ArrayList<>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                paths.add(relPath + "/" + files.get(i).getName());
             }
-            bw.close();
-        } catch (Exception e) {
-            throw new RuntimeException("Error updating index", e);
+            return repository.stageFiles(files, paths, attrs).toArray(new GitIndex.Entry[0]);
+        }
+    }
+
+    // Records a batch of file entries in git/index
+    private void updateIndex(ArrayList<GitIndex.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        GitIndex index = repository.getIndex();
+        for (int i = 0; i < entries.size(); i++) {
+            index.put(entries.get(i));
         }
+        index.save();
     }
 }
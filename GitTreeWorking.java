@@ -3,14 +3,17 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 
 /**
  * Milestone 3.1: Recursive tree generation and working list
  *
  * Reuses MyRepo helpers:
- *   - repository.createBlobFromFile(file)  -> blob sha1
- *   - repository.writeObject(text)         -> object sha1 (tree)
+ *   - repository.stageFiles(files, paths, attrs) -> index entries with the blob ids
+ *   - repository.writeObjectId(text)       -> object id (tree)
+ *   - repository.getTreeCache()            -> tree ids of unchanged directories
+ *   - repository.ignoreRules(path)         -> what .gitignore leaves out
  */
 public class GitTreeWorking {
 
@@ -23,52 +26,130 @@ public class GitTreeWorking {
 
 
     public String buildTreeFromDirectory(String startingDirRelPath) {
+        return buildTreeIdFromDirectory(startingDirRelPath).toHex();
+    }
+
+    /**
+     * Same as buildTreeFromDirectory(startingDirRelPath), but returns the tree
+     * id without converting it to hex
+     *
+     * @param startingDirRelPath The directory to build, relative to the repo root
+     * @return The tree id of the directory
+     */
+    public ObjectId buildTreeIdFromDirectory(String startingDirRelPath) {
         File startDir = new File(repository.repoFolder, startingDirRelPath);
         if (!startDir.exists() || !startDir.isDirectory()) {
             throw new IllegalArgumentException("Not a directory: " + startingDirRelPath);
         }
 
-        ArrayList<String> indexAdditions = new ArrayList<>();
-        String treeHash = buildWorkingTree(startDir, startingDirRelPath, startingDirRelPath, indexAdditions);
+        ArrayList<GitIndex.Entry> indexAdditions = new ArrayList<>();
+        IgnoreRules rules = repository.ignoreRules(startingDirRelPath);
+        ObjectId treeId = buildWorkingTree(startDir, startingDirRelPath, startingDirRelPath, rules, indexAdditions).treeId;
 
         appendIndexBlobs(indexAdditions);
-        return treeHash;
+        repository.getTreeCache().save();
+        return treeId;
     }
 
-    // Recursively build working tree; return this directory's tree sha1
-    private String buildWorkingTree(File currentDir, String baseRelPath, String curRelPath, ArrayList<String> indexAdditions) {
-        ArrayList<File> children = listChildrenSorted(currentDir);
-        ArrayList<String> treeLines = new ArrayList<>();
-
-        // Files first
+    // Recursively build working tree. Subdirectories are built first so the
+    // directory's fingerprint is known before its files are staged; a
+    // fingerprint the tree cache already has skips staging and writing, and
+    // its files' index entries come from the cached tree.
+    // Ignored children are dropped before anything else looks at them.
+    private WorkingResult buildWorkingTree(File currentDir, String baseRelPath, String curRelPath, IgnoreRules rules,
+            ArrayList<GitIndex.Entry> indexAdditions) {
+        ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(currentDir);
+        rules = rules.enter(curRelPath, children);
+        children = rules.filter(curRelPath, children);
+        TreeCache.Fingerprint fingerprint = new TreeCache.Fingerprint();
+        fingerprint.addRules(rules.id());
+
+        ArrayList<String> subRelPaths = new ArrayList<>();
+        ArrayList<ObjectId> subTreeIds = new ArrayList<>();
+        for (int i = 0; i < children.size(); i++) {
+            DirectoryWalker.Entry child = children.get(i);
+            if (child.isDirectory()) {
+                String childRelPath = curRelPath + "/" + child.name;
+                WorkingResult sub = buildWorkingTree(child.toFile(), baseRelPath, childRelPath, rules, indexAdditions);
+                fingerprint.addTree(child.name, sub.fingerprint, sub.newestMtime);
+                subRelPaths.add(childRelPath);
+                subTreeIds.add(sub.treeId);
+            }
+        }
+        ArrayList<File> files = new ArrayList<>();
+        ArrayList<BasicFileAttributes> attrs = new ArrayList<>();
         for (int i = 0; i < children.size(); i++) {
-            File child = children.get(i);
+            DirectoryWalker.Entry child = children.get(i);
             if (child.isFile()) {
-                String relFromBase = pathRelativeToBase(baseRelPath, curRelPath + "/" + child.getName());
-                String blobSha1 = repository.createBlobFromFile(child);
-                String line = "blob " + blobSha1 + " " + relFromBase;
-                treeLines.add(line);
-                indexAdditions.add(line);
+                fingerprint.addFile(child.name, child.attrs);
+                files.add(child.toFile());
+                attrs.add(child.attrs);
             }
         }
 
-        // Directories next
-        for (int i = 0; i < children.size(); i++) {
-            File child = children.get(i);
-            if (child.isDirectory()) {
-                String childRelPath = curRelPath + "/" + child.getName();
-                String childTreeSha1 = buildWorkingTree(child, baseRelPath, childRelPath, indexAdditions);
-                String relFromBase = pathRelativeToBase(baseRelPath, childRelPath);
-                String line = "tree " + childTreeSha1 + " " + relFromBase;
-                treeLines.add(line);
+        ArrayList<String> filePaths = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            filePaths.add(curRelPath + "/" + files.get(i).getName());
+        }
+
+        ObjectId fp = fingerprint.finish();
+        TreeCache cache = repository.getTreeCache();
+        String cacheKey = "working " + baseRelPath + " " + curRelPath;
+        ObjectId cached = cache.get(cacheKey, fp);
+        if (cached != null && repository.hasObject(cached) && workingTreeFile(curRelPath).exists()) {
+            ArrayList<GitIndex.Entry> restored = repository.restoreEntries(cached, filePaths, attrs);
+            if (restored != null) {
+                indexAdditions.addAll(restored);
+                return new WorkingResult(cached, fp, fingerprint.newestMtime());
             }
         }
 
-        writeWorkingTreeFile(curRelPath, treeLines);
+        StringBuilder treeText = new StringBuilder();
+
+        // Files first
+        // The index always uses repo-relative paths; unchanged files are not re-read
+        ArrayList<GitIndex.Entry> staged = repository.stageFiles(files, filePaths, attrs);
+        for (int i = 0; i < staged.size(); i++) {
+            String relFromBase = pathRelativeToBase(baseRelPath, filePaths.get(i));
+            staged.get(i).id.appendHex(treeText.append("blob ")).append(' ').append(relFromBase).append('\n');
+            indexAdditions.add(staged.get(i));
+        }
+
+        // Directories next
+        for (int i = 0; i < subTreeIds.size(); i++) {
+            String relFromBase = pathRelativeToBase(baseRelPath, subRelPaths.get(i));
+            subTreeIds.get(i).appendHex(treeText.append("tree ")).append(' ').append(relFromBase).append('\n');
+        }
+
+        String text = treeText.toString();
+        writeWorkingTreeFile(curRelPath, text);
+        ObjectId treeId = repository.writeObjectId(text);
+        cache.put(cacheKey, fp, fingerprint.newestMtime(), treeId);
+        return new WorkingResult(treeId, fp, fingerprint.newestMtime());
+    }
+
+    // Tree id and fingerprint of one directory
+    private static class WorkingResult {
+        ObjectId treeId;
+        ObjectId fingerprint;
+        long newestMtime;
+
+        WorkingResult(ObjectId treeId, ObjectId fingerprint, long newestMtime) {
+            this.treeId = treeId;
+            this.fingerprint = fingerprint;
+            this.newestMtime = newestMtime;
+        }
+    }
 
-        String treeText = joinWithNewlines(treeLines);
-        String treeSha1 = repository.writeObject(treeText);
-        return treeSha1;
+    /**
+     * Starts watching a directory and keeps its working tree up to date as
+     * files change. See WorkingTreeWatcher.
+     *
+     * @param startingDirRelPath The directory to watch, relative to the repo root
+     * @return The running watcher; close it when done
+     */
+    public WorkingTreeWatcher watch(String startingDirRelPath) {
+        return new WorkingTreeWatcher(repository, this, startingDirRelPath);
     }
 
     // Ensure git/trees folder exists
@@ -79,27 +160,8 @@ public class GitTreeWorking {
         }
     }
 
-    
-    private ArrayList<File> listChildrenSorted(File dir) {
-        File[] arr = dir.listFiles();
-        if (arr == null) arr = new File[0];
-        ArrayList<File> list = new ArrayList<>();
-        for (int i = 0; i < arr.length; i++) list.add(arr[i]);
-
-        for (int i = 0; i < list.size() - 1; i++) {
-            for (int j = i + 1; j < list.size(); j++) {
-                if (list.get(i).getName().compareTo(list.get(j).getName()) > 0) {
-                    File tmp = list.get(i);
-                    list.set(i, list.get(j));
-                    list.set(j, tmp);
-                }
-            }
-        }
-        return list;
-    }
-
     // Convert fullRelPath (repo-relative) to a path relative to baseRelPath
-    private String pathRelativeToBase(String baseRelPath, String fullRelPath) {
+    String pathRelativeToBase(String baseRelPath, String fullRelPath) {
         if (fullRelPath.startsWith(baseRelPath + "/")) {
             return fullRelPath.substring(baseRelPath.length() + 1);
         }
@@ -109,54 +171,39 @@ public class GitTreeWorking {
         return fullRelPath;
     }
 
+    // The git/trees/<dir>.tree file for a directory
+    private File workingTreeFile(String curRelPath) {
+        String safeName;
+        if (curRelPath.length() == 0) {
+            safeName = "root";
+        } 
+        else {
+            safeName = curRelPath.replace('/', '_');
+        }
+        return new File(repository.gitFolder, "trees/" + safeName + ".tree");
+    }
+
     // Write git/trees/<dir>.tree file with both blob and tree lines
-    private void writeWorkingTreeFile(String curRelPath, ArrayList<String> lines) {
+    void writeWorkingTreeFile(String curRelPath, String treeText) {
         try {
-            String safeName;
-            if (curRelPath.length() == 0) {
-                safeName = "root";
-            } 
-            else {
-                safeName = curRelPath.replace('/', '_');
-            }
-            File workingTreeFile = new File(repository.gitFolder, "trees/" + safeName + ".tree");
+            File workingTreeFile = workingTreeFile(curRelPath);
             BufferedWriter writer = new BufferedWriter(new FileWriter(workingTreeFile));
-            for (int i = 0; i < lines.size(); i++) {
-                writer.write(lines.get(i));
-                writer.newLine();
-            }
+            writer.write(treeText);
             writer.close();
         } catch (Exception e) {
             throw new RuntimeException("Error writing working tree file for " + curRelPath, e);
         }
     }
 
-    // Append ONLY blob lines to git/index (no tree lines)
-    private void appendIndexBlobs(ArrayList<String> lines) {
-        if (lines.isEmpty()) {
+    // Record ONLY blob entries in git/index (no tree lines)
+    private void appendIndexBlobs(ArrayList<GitIndex.Entry> entries) {
+        if (entries.isEmpty()) {
             return;
         }
-        try {
-            File indexFile = new File(repository.gitFolder, "index");
-            BufferedWriter indexWriter = new BufferedWriter(new FileWriter(indexFile, true));
-            for (int i = 0; i < lines.size(); i++) {
-                String line = lines.get(i);
-                if (line.startsWith("blob ")) {
-                    indexWriter.write(line);
-                    indexWriter.newLine();
-                }
-            }
-            indexWriter.close();
-        } catch (Exception e) {
-            throw new RuntimeException("Error appending to index", e);
-        }
-    }
-
-    private String joinWithNewlines(ArrayList<String> lines) {
-        String joined = "";
-        for (int i = 0; i < lines.size(); i++) {
-            joined = joined + lines.get(i) + "\n";
+        GitIndex index = repository.getIndex();
+        for (int i = 0; i < entries.size(); i++) {
+            index.put(entries.get(i));
         }
-        return joined;
+        index.save();
     }
 }
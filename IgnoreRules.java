@@ -0,0 +1,426 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which files and folders the tree builders and GitStatus leave
+ * out, from .gitignore files in the repository.
+ *
+ * Each .gitignore applies to the folder it is in and everything below it,
+ * and a deeper file wins over a shallower one. Within one file the last
+ * matching line wins. Supported syntax:
+ *   # comment          blank lines and comments are skipped
+ *   name               a file or folder with this name, at any depth
+ *   *.log, tmp*, a?c   globs on the name: * and ? never match /, [abc] too
+ *   dir/               only folders
+ *   /name, a/b/*.txt   a leading or inner / anchors the path to the
+ *                      .gitignore's folder
+ *   **                 as a whole path segment, any number of folders
+ *   !pattern           puts back something an earlier line left out
+ * An ignored folder is never listed, so nothing inside it can be put back.
+ *
+ * The repository's own git folder is always ignored. The DEFAULT_LINES
+ * (build output and node_modules) are ignored too, unless a .gitignore
+ * puts them back with a "!" line.
+ *
+ * Lines are compiled once. Plain names and anchored paths go in hash maps,
+ * "*.ext" globs are looked up by each ".ext" the name ends with, "prefix*"
+ * globs by the name's first character, and only the remaining globs are
+ * matched one by one, with precompiled patterns. Checking a path costs a
+ * few hash lookups however many lines there are.
+ *
+ * Rules are immutable, so one instance can be shared between threads.
+ *
+ * Usage:
+ *   IgnoreRules rules = repository.ignoreRules("myProgram");
+ *   ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(dir);
+ *   IgnoreRules here = rules.enter("myProgram", children);
+ *   children = here.filter("myProgram", children);
+ */
+public class IgnoreRules {
+
+    public static final String FILE_NAME = ".gitignore";
+
+    /**
+     * Lines applied at the repository root before its own .gitignore
+     */
+    public static final List<String> DEFAULT_LINES = List.of("build/", "node_modules/");
+
+    // The repository's git folder, relative to the repo root
+    private static final String GIT_FOLDER = "git";
+
+    // One compiled line
+    private static class Rule {
+        final int order;
+        final boolean negated;
+        final boolean directoryOnly;
+        final boolean anchored;
+        // Only for rules that are not looked up by literal
+        final String literal;
+        final Pattern pattern;
+
+        Rule(int order, boolean negated, boolean directoryOnly, boolean anchored, String literal, Pattern pattern) {
+            this.order = order;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+            this.literal = literal;
+            this.pattern = pattern;
+        }
+    }
+
+    private static final IgnoreRules NONE = parse("", List.of(), null);
+    private static final IgnoreRules DEFAULTS = parse("", DEFAULT_LINES, null);
+
+    private String base;
+    private IgnoreRules parent;
+    private HashMap<String, List<Rule>> names = new HashMap<>();
+    private HashMap<String, List<Rule>> paths = new HashMap<>();
+    private HashMap<String, List<Rule>> suffixes = new HashMap<>();
+    private HashMap<Character, List<Rule>> prefixes = new HashMap<>();
+    private ArrayList<Rule> globs = new ArrayList<>();
+    private boolean empty = true;
+    private ObjectId id;
+
+    private IgnoreRules(String base, IgnoreRules parent) {
+        this.base = base;
+        this.parent = parent;
+    }
+
+    /**
+     * @return Rules that ignore only the git folder
+     */
+    public static IgnoreRules none() {
+        return NONE;
+    }
+
+    /**
+     * @return The DEFAULT_LINES, which every repository starts from
+     */
+    public static IgnoreRules defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Compiles .gitignore lines
+     *
+     * @param base   The folder the lines apply to, relative to the repo root
+     *               ("" for the root)
+     * @param lines  The lines
+     * @param parent Rules from the folders above, consulted when no line here
+     *               matches; may be null
+     * @return The compiled rules
+     */
+    public static IgnoreRules parse(String base, List<String> lines, IgnoreRules parent) {
+        IgnoreRules rules = new IgnoreRules(normalize(base), parent);
+        StringBuilder source = new StringBuilder();
+        if (parent != null) {
+            parent.id.appendHex(source);
+        }
+        source.append('\n').append(rules.base).append('\n');
+        for (int i = 0; i < lines.size(); i++) {
+            rules.addLine(lines.get(i), i);
+            source.append(lines.get(i)).append('\n');
+        }
+        rules.id = ObjectId.fromRaw(Sha1Generator.digest(source.toString().getBytes(StandardCharsets.UTF_8)));
+        return rules;
+    }
+
+    /**
+     * Reads and compiles a .gitignore file
+     *
+     * @param file   The file
+     * @param base   The folder it is in, relative to the repo root
+     * @param parent Rules from the folders above; may be null
+     * @return The compiled rules
+     */
+    public static IgnoreRules load(File file, String base, IgnoreRules parent) {
+        try {
+            return parse(base, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8), parent);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Returns the rules for a folder that has just been listed: these rules,
+     * plus its own .gitignore if the listing has one
+     *
+     * @param dirRelPath The folder, relative to the repo root
+     * @param children   The folder's listing
+     * @return The rules to use for the folder's children
+     */
+    public IgnoreRules enter(String dirRelPath, List<DirectoryWalker.Entry> children) {
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).isFile() && children.get(i).name.equals(FILE_NAME)) {
+                return load(children.get(i).toFile(), dirRelPath, this);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Same as enter(dirRelPath, children), for callers that have not listed
+     * the folder
+     *
+     * @param dirRelPath The folder, relative to the repo root
+     * @param dir        The folder
+     * @return The rules to use for the folder's children
+     */
+    public IgnoreRules enter(String dirRelPath, File dir) {
+        File file = new File(dir, FILE_NAME);
+        return file.isFile() ? load(file, dirRelPath, this) : this;
+    }
+
+    /**
+     * Identifies these rules and every rule above them, so a cached result
+     * can tell when a .gitignore it depended on has changed
+     *
+     * @return A hash of the lines, bases and parents
+     */
+    public ObjectId id() {
+        return id;
+    }
+
+    /**
+     * Drops the ignored entries from a folder's listing
+     *
+     * @param dirRelPath The folder, relative to the repo root
+     * @param children   The folder's listing
+     * @return The entries that are not ignored, in the same order
+     */
+    public ArrayList<DirectoryWalker.Entry> filter(String dirRelPath, ArrayList<DirectoryWalker.Entry> children) {
+        String prefix = normalize(dirRelPath);
+        prefix = prefix.isEmpty() ? "" : prefix + "/";
+        ArrayList<DirectoryWalker.Entry> kept = new ArrayList<>(children.size());
+        for (int i = 0; i < children.size(); i++) {
+            DirectoryWalker.Entry child = children.get(i);
+            if (!isIgnored(prefix + child.name, child.isDirectory())) {
+                kept.add(child);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Checks one path. Only the path itself is checked; callers that walk
+     * down from the root never reach paths inside ignored folders.
+     *
+     * @param relPath     The path relative to the repo root
+     * @param isDirectory Whether the path is a folder
+     * @return true if the path is ignored
+     */
+    public boolean isIgnored(String relPath, boolean isDirectory) {
+        String path = normalize(relPath);
+        if (isDirectory && path.equals(GIT_FOLDER)) {
+            return true;
+        }
+        for (IgnoreRules rules = this; rules != null; rules = rules.parent) {
+            if (rules.empty) {
+                continue;
+            }
+            Rule match = rules.lastMatch(path, isDirectory);
+            if (match != null) {
+                return !match.negated;
+            }
+        }
+        return false;
+    }
+
+    // The highest-numbered line that matches, or null
+    private Rule lastMatch(String path, boolean isDirectory) {
+        String local;
+        if (base.isEmpty()) {
+            local = path;
+        } else if (path.startsWith(base + "/")) {
+            local = path.substring(base.length() + 1);
+        } else {
+            return null; // not under the folder these rules belong to
+        }
+        String name = local.substring(local.lastIndexOf('/') + 1);
+        Rule best = null;
+        best = better(best, names.get(name), local, name, isDirectory);
+        best = better(best, paths.get(local), local, name, isDirectory);
+        for (int dot = name.indexOf('.'); dot >= 0; dot = name.indexOf('.', dot + 1)) {
+            best = better(best, suffixes.get(name.substring(dot)), local, name, isDirectory);
+        }
+        if (!name.isEmpty()) {
+            best = better(best, prefixes.get(name.charAt(0)), local, name, isDirectory);
+        }
+        return better(best, globs, local, name, isDirectory);
+    }
+
+    // The later of best and any candidate that matches
+    private static Rule better(Rule best, List<Rule> candidates, String local, String name, boolean isDirectory) {
+        if (candidates == null) {
+            return best;
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            Rule rule = candidates.get(i);
+            if ((best != null && rule.order < best.order) || (rule.directoryOnly && !isDirectory)) {
+                continue;
+            }
+            if (rule.pattern != null && !rule.pattern.matcher(rule.anchored ? local : name).matches()) {
+                continue;
+            }
+            if (rule.pattern == null && rule.literal != null && !matchesLiteral(rule.literal, name)) {
+                continue;
+            }
+            best = rule;
+        }
+        return best;
+    }
+
+    // A "prefix*" or "*suffix" rule stored with its literal part marked by
+    // where the star was
+    private static boolean matchesLiteral(String literal, String name) {
+        if (literal.startsWith("*")) {
+            return name.endsWith(literal.substring(1));
+        }
+        return name.startsWith(literal.substring(0, literal.length() - 1));
+    }
+
+    // Compiles one line into whichever index fits it
+    private void addLine(String line, int order) {
+        String text = line;
+        while (text.endsWith(" ") && !text.endsWith("\\ ")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        if (text.isEmpty() || text.startsWith("#")) {
+            return;
+        }
+        boolean negated = false;
+        if (text.startsWith("!")) {
+            negated = true;
+            text = text.substring(1);
+        } else if (text.startsWith("\\#") || text.startsWith("\\!")) {
+            text = text.substring(1);
+        }
+        boolean directoryOnly = false;
+        if (text.endsWith("/")) {
+            directoryOnly = true;
+            text = text.substring(0, text.length() - 1);
+        }
+        boolean anchored = text.indexOf('/') >= 0;
+        if (text.startsWith("/")) {
+            text = text.substring(1);
+        }
+        if (text.isEmpty()) {
+            return;
+        }
+        empty = false;
+
+        if (!hasWildcard(text)) {
+            Rule rule = new Rule(order, negated, directoryOnly, anchored, null, null);
+            (anchored ? paths : names).computeIfAbsent(unescape(text), k -> new ArrayList<>()).add(rule);
+            return;
+        }
+        if (!anchored) {
+            String rest = text.substring(1);
+            if (text.startsWith("*") && !hasWildcard(rest) && rest.startsWith(".")) {
+                Rule rule = new Rule(order, negated, directoryOnly, false, text, null);
+                suffixes.computeIfAbsent(unescape(rest), k -> new ArrayList<>()).add(rule);
+                return;
+            }
+            String head = text.substring(0, text.length() - 1);
+            if (text.endsWith("*") && !head.isEmpty() && !hasWildcard(head) && head.charAt(0) != '\\') {
+                Rule rule = new Rule(order, negated, directoryOnly, false, unescape(head) + "*", null);
+                prefixes.computeIfAbsent(head.charAt(0), k -> new ArrayList<>()).add(rule);
+                return;
+            }
+        }
+        globs.add(new Rule(order, negated, directoryOnly, anchored, null, compile(text)));
+    }
+
+    private static boolean hasWildcard(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '*' || c == '?' || c == '[') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String unescape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                c = text.charAt(++i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // Turns a glob into a regular expression over a whole path or name
+    private static Pattern compile(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (c == '*' && glob.startsWith("**", i)) {
+                boolean atStart = i == 0 || glob.charAt(i - 1) == '/';
+                boolean atEnd = i + 2 == glob.length() || glob.charAt(i + 2) == '/';
+                if (atStart && i + 2 < glob.length() && atEnd) {
+                    regex.append("(?:.*/)?"); // "**/": any number of folders
+                    i += 3;
+                } else {
+                    regex.append(".*");
+                    i += 2;
+                }
+            } else if (c == '*') {
+                regex.append("[^/]*");
+                i++;
+            } else if (c == '?') {
+                regex.append("[^/]");
+                i++;
+            } else if (c == '[') {
+                int end = glob.indexOf(']', i + 2);
+                if (end < 0) {
+                    regex.append("\\[");
+                    i++;
+                } else {
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = end + 1;
+                }
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                i += 2;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+                i++;
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    // Repo-relative paths without a leading "/" or "./", or a trailing "/".
+    // Builders started at the root make paths like "/name".
+    private static String normalize(String relPath) {
+        int start = 0;
+        int end = relPath.length();
+        while (start < end && (relPath.charAt(start) == '/' || relPath.startsWith("./", start))) {
+            start += relPath.charAt(start) == '/' ? 1 : 2;
+        }
+        if (relPath.equals(".")) {
+            return "";
+        }
+        while (end > start && relPath.charAt(end - 1) == '/') {
+            end--;
+        }
+        return relPath.substring(start, end);
+    }
+}
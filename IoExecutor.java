@@ -0,0 +1,147 @@
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking file operations (reads, stats, object writes) with many of
+ * them in flight at once, for storage where each call mostly waits, such as
+ * NFS or a FUSE-mounted object store.
+ *
+ * I/O tasks run on virtual threads when the JVM has them (Java 21 and
+ * later) and on a platform thread pool of maxInFlight threads otherwise. In
+ * both cases at most maxInFlight I/O tasks run at once. CPU-bound work such
+ * as hashing and compressing is handed to compute(), which runs it on a
+ * fixed pool with one platform thread per processor, so thousands of
+ * waiting I/O tasks never mean thousands of threads compressing.
+ *
+ * Usage:
+ *   IoExecutor io = new IoExecutor(256);
+ *   Future<byte[]> data = io.submit(() -> Files.readAllBytes(path));
+ *   byte[] stored = io.compute(() -> Compression.encode(data.get()));
+ *   io.close();
+ */
+public class IoExecutor {
+
+    private final ExecutorService ioPool;
+    private final ExecutorService computePool;
+    private final Semaphore inFlight;
+    private final boolean virtual;
+
+    /**
+     * Starts the executor
+     *
+     * @param maxInFlight Most I/O tasks running at once
+     */
+    public IoExecutor(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("I/O concurrency must be at least 1: " + maxInFlight);
+        }
+        inFlight = new Semaphore(maxInFlight);
+        ExecutorService virtualPool = newVirtualThreadExecutor();
+        virtual = virtualPool != null;
+        ioPool = virtual ? virtualPool : newDaemonPool(maxInFlight, "repo-io-");
+        computePool = newDaemonPool(Runtime.getRuntime().availableProcessors(), "repo-compute-");
+    }
+
+    /**
+     * @return true if I/O tasks run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtual;
+    }
+
+    /**
+     * Starts an I/O task, waiting for a slot if maxInFlight are running
+     *
+     * @param task The blocking operation
+     * @return Its result, once done
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return ioPool.submit(() -> {
+            inFlight.acquire();
+            try {
+                return task.call();
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Runs CPU-bound work on the compute pool and waits for it
+     *
+     * @param task The work
+     * @return Its result
+     * @throws Exception whatever the work threw
+     */
+    public <T> T compute(Callable<T> task) throws Exception {
+        try {
+            return computePool.submit(task).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Waits for an I/O task and returns its result, rethrowing its failure
+     * as a RuntimeException
+     *
+     * @param future A future from submit()
+     * @return The task's result
+     */
+    public static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for I/O", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Error in I/O task", e.getCause());
+        }
+    }
+
+    /**
+     * Stops both pools once the tasks already started finish
+     */
+    public void close() {
+        ioPool.shutdown();
+        computePool.shutdown();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() if this JVM has it. Looked
+    // up by reflection so the code still compiles and runs on Java 17.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null; // before Java 21, or a preview build without --enable-preview
+        }
+    }
+
+    // A fixed pool of daemon threads, so an open executor never keeps the
+    // JVM alive
+    private static ExecutorService newDaemonPool(int threads, String namePrefix) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
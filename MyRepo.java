@@ -1,16 +1,76 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 public class MyRepo {
+    // Files at least this big are memory-mapped instead of read into a buffer
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    // Most of a file mapped at once
+    private static final long MAP_WINDOW_SIZE = 256L * 1024 * 1024;
+    // Direct buffer that smaller files are read through, one per thread
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(65536));
+
+    // Objects bigger than this stay loose when repacking
+    private static final long MAX_PACKED_OBJECT_SIZE = 512L * 1024 * 1024;
+
+    // Directory levels loose objects are spread over in new repositories
+    // (1 means objects/ab/cdef...); repositories without a config are flat
+    public static final int DEFAULT_OBJECT_FANOUT = 1;
+
+    // First line of a chunked blob's manifest; the NUL keeps it from matching
+    // any text file
+    public static final String CHUNKED_BLOB_HEADER = "\0chunked-blob 1\n";
+    private static final int MAX_OBJECT_FANOUT = 2;
+
+    // Objects waiting for the write-behind writer before writes block
+    private static final int WRITE_BEHIND_QUEUE_SIZE = 1024;
+
     File repoFolder;
     File gitFolder;
     File readme;
+    // Opened pack files, loaded the first time an object is looked up
+    private volatile ArrayList<PackFile> packs;
+    // Ids of every stored object, built from the object store on first use
+    private volatile ObjectPresenceIndex presence;
+    private GitIndex index;
+    private TreeCache treeCache;
+    private ObjectReader objectReader;
+    private int objectFanout;
+    // Files at least this big are stored as chunks (0 = never)
+    private long chunkThreshold;
+    private int compressionLevel;
+    // Background writer for loose objects, or null to write them directly
+    private volatile ObjectWriter objectWriter;
+    // Runs file reads and writes concurrently, or null to run them in turn
+    private volatile IoExecutor ioExecutor;
+    // Fan-out directories already created, so writes can skip mkdirs
+    private final Set<String> knownObjectDirs = ConcurrentHashMap.newKeySet();
+    // File name -> paths under the repo, built the first time a file is
+    // looked up by name
+    private FileNameIndex fileNames;
 
     /**
      * Constructor for creating a new git repository
@@ -44,8 +104,16 @@ public class MyRepo {
                 e.printStackTrace();
             }
         } else {
+            gitFolder = new File(name + "/git");
             System.out.println("Git Repository Already Exists");
         }
+        objectFanout = readObjectFanout();
+        chunkThreshold = Long.parseLong(readConfig("blobs.chunkThreshold", "0"));
+        compressionLevel = Integer.parseInt(readConfig("objects.compressionLevel",
+                Integer.toString(Compression.DEFAULT_LEVEL)));
+        startObjectWriter(Integer.parseInt(readConfig("objects.writeBehindBatch", "0")),
+                Long.parseLong(readConfig("objects.writeBehindWindowMillis", "0")));
+        startIoExecutor(Integer.parseInt(readConfig("io.maxInFlight", "0")));
 
     }
 
@@ -91,15 +159,10 @@ public class MyRepo {
      * @return true if cleanup was successful, otherwise false
      */
     public boolean cleanup() {
-        File[] repoContents = repoFolder.listFiles();
-        for (File file : repoContents) {
-            if (!file.isDirectory()) {
-                file.delete();
-            } else {
-                removeDirectory(file.getName(), repoFolder.getPath());
-            }
-        }
-        return repoFolder.delete();
+        startIoExecutor(0);
+        startObjectWriter(0, 0);
+        fileNames = null;
+        return DirectoryWalker.delete(repoFolder);
     }
 
     /**
@@ -122,33 +185,63 @@ public class MyRepo {
         HEAD.createNewFile();
         // make objects directory
         objectsFolder.mkdir();
+        writeObjectFanout(DEFAULT_OBJECT_FANOUT);
+    }
+
+    // Reads the loose object layout from git/config (0 = flat)
+    private int readObjectFanout() {
+        return Integer.parseInt(readConfig("objects.fanout", "0"));
+    }
+
+    // Saves the loose object layout in git/config
+    private void writeObjectFanout(int fanout) throws IOException {
+        writeConfig("objects.fanout", Integer.toString(fanout));
+    }
+
+    // Reads one setting from git/config
+    private String readConfig(String key, String defaultValue) {
+        File configFile = new File(gitFolder, "config");
+        if (!configFile.exists()) {
+            return defaultValue;
+        }
+        Properties config = new Properties();
+        try (InputStream in = new FileInputStream(configFile)) {
+            config.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading " + configFile.getPath(), e);
+        }
+        return config.getProperty(key, defaultValue).trim();
+    }
+
+    // Saves one setting in git/config, keeping the others
+    private void writeConfig(String key, String value) throws IOException {
+        File configFile = new File(gitFolder, "config");
+        Properties config = new Properties();
+        if (configFile.exists()) {
+            try (InputStream in = new FileInputStream(configFile)) {
+                config.load(in);
+            }
+        }
+        config.setProperty(key, value);
+        try (OutputStream out = new FileOutputStream(configFile)) {
+            config.store(out, null);
+        }
     }
 
     /**
-     * Main function to search this repo to see if a file exists by name
+     * Main function to search this repo to see if a file exists by name. The
+     * answer comes from an in-memory file name index (see findFiles), so no
+     * directories are read when the name is known.
      * 
      * @param fileName The name of the file to search for
      * @return true if the file exists in the repository, otherwise false
      */
     public boolean includesFile(String fileName) {
-        File[] files = repoFolder.listFiles();
-        for (File file : files) {
-            if (!file.isDirectory()) {
-                if (file.getName().equals(fileName)) {
-                    return true;
-                }
-            } else {
-                if (includesFile(fileName, file.getPath())) {
-                    return true;
-                }
-            }
-
-        }
-        return false;
+        return !findFiles(fileName).isEmpty();
     }
 
     /**
-     * Recursive helper method to check subdirectories for files by name
+     * Checks a directory and its subdirectories for a file by name
      * 
      * @param fileName The name of the file to search for
      * @param filePath The path of the directory to search in
@@ -156,80 +249,114 @@ public class MyRepo {
      *         subdirectories, otherwise false
      */
     public boolean includesFile(String fileName, String filePath) {
-        File[] files = new File(filePath).listFiles();
-        for (File file : files) {
-            if (!file.isDirectory()) {
-                if (file.getName().equals(fileName)) {
-                    return true;
-                }
-            } else {
-                if (includesFile(fileName, file.getPath()))
-                    return true;
-            }
-
-        }
-        return false;
+        return findFile(fileName, filePath) != null;
     }
 
     /**
-     * Main function to find the path of a file in the repo
+     * Main function to find the path of a file in the repo. If several files
+     * have the name, the first path in sorted order is returned; use
+     * findFiles to see all of them.
      * 
      * @param fileName The name of the file to find
      * @return The full path to the file if found, null if not found
      */
     public String findFile(String fileName) {
-        File[] files = repoFolder.listFiles();
-        for (File file : files) {
-            if (!file.isDirectory()) {
-                if (file.getName().equals(fileName)) {
-                    return file.getPath();
-                }
-            } else {
-                String result = findFile(fileName, file.getPath());
-                if (result != null) {
-                    return result;
-                }
+        ArrayList<String> paths = findFiles(fileName);
+        return paths.isEmpty() ? null : paths.get(0);
+    }
+
+    /**
+     * Finds every file in the repo with a name. Lookups use a file name index
+     * that is built with one walk of the repo (git/objects is skipped) and
+     * kept up to date by this class's own file changes, so a name that is
+     * found costs a hash lookup and a check that its paths still exist. When
+     * the name is not found, or one of its paths is gone, the folders whose
+     * modification time changed since they were listed are listed again (see
+     * FileNameIndex.refresh), so files created or deleted outside this class
+     * are still seen without walking the whole repo.
+     * 
+     * @param fileName The name of the files to find
+     * @return The full paths in sorted order; more than one means the name is
+     *         ambiguous, and none means no file has the name
+     */
+    public ArrayList<String> findFiles(String fileName) {
+        FileNameIndex names = getFileNames();
+        ArrayList<String> paths = names.paths(fileName);
+        boolean gone = false;
+        for (int i = 0; i < paths.size(); i++) {
+            if (!new File(paths.get(i)).isFile()) {
+                gone = true;
+            }
+        }
+        if (paths.isEmpty() || gone) {
+            // A gone path with no folder changed: walk everything to be sure
+            if (!names.refresh() && gone) {
+                names.rebuild();
             }
+            paths = names.paths(fileName);
+        }
+        return paths;
+    }
+
+    /**
+     * Walks the whole repo again into the file name index. findFiles already
+     * notices files created or deleted outside this class, so this is only
+     * needed if folder modification times cannot be trusted.
+     */
+    public void rescanFiles() {
+        getFileNames().rebuild();
+    }
 
+    // Finds the only file in the repo with a name, for operations that must
+    // not pick one of several matches; null if none or several match
+    private String findUniqueFile(String fileName) {
+        ArrayList<String> paths = findFiles(fileName);
+        if (paths.size() > 1) {
+            System.out.println("Ambiguous file name " + fileName + ": " + paths);
+            return null;
         }
-        return null;
+        return paths.isEmpty() ? null : paths.get(0);
     }
 
     /**
-     * Recursive helper method to find the path of a file in a subdirectory of the
-     * repo
+     * Finds the path of a file by name in a directory or any of its
+     * subdirectories, walking them directly instead of using the file name
+     * index
      * 
      * @param fileName The name of the file to find
      * @param filePath The path of the directory to search in
      * @return The full path to the file if found, null if not found
      */
     public String findFile(String fileName, String filePath) {
-        File[] files = new File(filePath).listFiles();
-        for (File file : files) {
-            if (!file.isDirectory()) {
-                if (file.getName().equals(fileName)) {
-                    return file.getPath();
-                }
-            } else {
-                String result = findFile(fileName, file.getPath());
-                if (result != null) {
-                    return result;
-                }
+        String[] found = new String[1];
+        DirectoryWalker.walkFiles(new File(filePath), null, file -> {
+            if (file.name.equals(fileName)) {
+                found[0] = file.toFile().getPath();
+                return false;
             }
-
-        }
-        return null;
+            return true;
+        });
+        return found[0];
     }
 
     /**
-     * Removes the file in the repo
+     * Removes the file in the repo. Nothing is deleted if several files have
+     * the name.
      * 
      * @param fileName The name of the file to remove
      * @return true if the file was successfully deleted, otherwise false
      */
     public boolean removeFile(String fileName) {
-        File fileToRemove = new File(findFile(fileName));
-        return fileToRemove.delete();
+        String path = findUniqueFile(fileName);
+        if (path == null) {
+            return false;
+        }
+        File fileToRemove = new File(path);
+        if (!fileToRemove.delete()) {
+            return false;
+        }
+        getFileNames().remove(fileToRemove);
+        return true;
     }
 
     /**
@@ -241,55 +368,31 @@ public class MyRepo {
      */
     public boolean removeDirectory(String directoryName, String path) {
         File directoryToRemove = new File(path + "/" + directoryName);
-        File[] directoryContents = directoryToRemove.listFiles();
-        for (File file : directoryContents) {
-            if (!file.isDirectory()) {
-                file.delete();
-            } else {
-                removeDirectory(file.getName(), file.getParent());
-            }
-        }
-        try {
-            return directoryToRemove.delete();
-        } catch (Exception e) {
-            // TODO: handle exception
+        if (fileNames != null) {
+            fileNames.removeUnder(directoryToRemove);
         }
-        return false;
-
+        return DirectoryWalker.delete(directoryToRemove);
     }
 
     /**
      * Creates a compressed blob file from the specified file and stores it in the
-     * objects folder
+     * objects folder. Fails if several files have the name.
      * 
      * @param fileNameString The name of the file to create a blob from
      * @return true if the blob was successfully created, otherwise false
      */
     public boolean createBlobFile(String fileNameString) {
-        File file = new File(findFile(fileNameString));
-
-        if (file == null || !file.exists() || file.isDirectory()) {
+        String path = findUniqueFile(fileNameString);
+        if (path == null) {
+            return false;
+        }
+        File file = new File(path);
+        if (!file.exists() || file.isDirectory()) {
             return false;
         }
-        BufferedReader br;
         try {
-            br = new BufferedReader(new FileReader(file));
-
-            StringBuilder sb = new StringBuilder();
-            while (br.ready()) {
-                sb.append(br.readLine());
-                sb.append("\n");
-            }
-            br.close();
-            String fileContents = sb.toString();
-            fileContents = Compression.compress(fileContents);
-            String sha1 = Sha1Generator.generateSha1(fileContents);
-
-            File blobFile = new File(gitFolder.getPath() + "/objects/" + sha1);
-            blobFile.createNewFile();
-            BufferedWriter bw = new BufferedWriter(new FileWriter(blobFile));
-            bw.write(fileContents);
-            bw.close();
+            createBlobFromFile(file);
+            return true;
         } catch (Exception e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -306,24 +409,272 @@ public class MyRepo {
      * @return true if the file was successfully added to the index, otherwise false
      */
     public boolean addFileToIndex(String blobHashString, String fileNameString) {
-        File file = new File(findFile(fileNameString));
-        if (file == null || !file.exists() || file.isDirectory()) {
+        return addFileToIndex(ObjectId.fromHex(blobHashString), fileNameString);
+    }
+
+    /**
+     * Adds a file entry to the index with its blob id. Fails if several files
+     * have the name.
+     * 
+     * @param blobId         The id of the blob file
+     * @param fileNameString The name of the file to add to the index
+     * @return true if the file was successfully added to the index, otherwise false
+     */
+    public boolean addFileToIndex(ObjectId blobId, String fileNameString) {
+        String path = findUniqueFile(fileNameString);
+        if (path == null) {
+            return false;
+        }
+        File file = new File(path);
+        if (!file.exists() || file.isDirectory()) {
             return false;
         }
 
         try {
-            BufferedWriter bw = new BufferedWriter(new FileWriter(gitFolder.getPath() + "/index", true));
-            bw.write(blobHashString + " " + findFile(fileNameString));
-            bw.newLine();
-            bw.close();
+            GitIndex index = getIndex();
+            index.put(relativePath(file), blobId);
+            index.save();
             return true;
-        } catch (IOException e) {
+        } catch (RuntimeException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
         return false;
     }
 
+    /**
+     * Makes the index entry for a file, creating its blob only if needed. When
+     * the file's size, modification time and file key still match its current
+     * index entry (and the blob is still stored), that entry's blob id is
+     * reused and the file is never opened. The index itself is not changed.
+     * 
+     * @param file      The file to stage
+     * @param indexPath The file's repo-relative path in the index
+     * @return An entry with the blob id and the file's current stat data
+     */
+    public GitIndex.Entry stageFile(File file, String indexPath) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading attributes of " + file.getPath(), e);
+        }
+        return stageFile(file, indexPath, attrs);
+    }
+
+    /**
+     * Same as stageFile(file, indexPath), for callers that have already read
+     * the file's attributes
+     * 
+     * @param file      The file to stage
+     * @param indexPath The file's repo-relative path in the index
+     * @param attrs     The file's attributes, read before this call
+     * @return An entry with the blob id and the file's stat data
+     */
+    public GitIndex.Entry stageFile(File file, String indexPath, BasicFileAttributes attrs) {
+        GitIndex index = getIndex();
+        GitIndex.Entry cached = index.getEntry(indexPath);
+        if (cached != null && index.isUnchanged(cached, attrs) && hasObject(cached.id)) {
+            return cached;
+        }
+        return GitIndex.Entry.fromFile(indexPath, createBlobId(file), attrs);
+    }
+
+    /**
+     * Stages several files, like calling stageFile for each. When I/O
+     * concurrency is on (see setIoConcurrency), the files are read and their
+     * objects written with many in flight at once, while hashing and
+     * compressing run on a pool with one thread per processor.
+     * 
+     * @param files      The files to stage
+     * @param indexPaths Each file's repo-relative path in the index
+     * @param attrs      Each file's attributes, read before this call
+     * @return The entries, in the same order as the files
+     */
+    public ArrayList<GitIndex.Entry> stageFiles(List<File> files, List<String> indexPaths,
+            List<BasicFileAttributes> attrs) {
+        ArrayList<GitIndex.Entry> entries = new ArrayList<>(files.size());
+        IoExecutor io = ioExecutor;
+        if (io == null || files.size() < 2) {
+            for (int i = 0; i < files.size(); i++) {
+                entries.add(stageFile(files.get(i), indexPaths.get(i), attrs.get(i)));
+            }
+            return entries;
+        }
+        ArrayList<Future<GitIndex.Entry>> pending = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            String indexPath = indexPaths.get(i);
+            BasicFileAttributes fileAttrs = attrs.get(i);
+            pending.add(io.submit(() -> stageFileConcurrently(io, file, indexPath, fileAttrs)));
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            entries.add(IoExecutor.join(pending.get(i)));
+        }
+        return entries;
+    }
+
+    /**
+     * Makes the index entries for a directory's files from the tree the tree
+     * cache holds for it, without opening the files. A cached tree was built
+     * from files with exactly these attributes (see TreeCache), so its blob
+     * ids still hold.
+     *
+     * @param treeId     The directory's cached tree
+     * @param indexPaths Each file's repo-relative path in the index, in tree
+     *                   order
+     * @param attrs      Each file's attributes, read before this call
+     * @return The entries, in the same order as the paths, or null if the
+     *         tree's blob lines do not name the same files
+     */
+    public ArrayList<GitIndex.Entry> restoreEntries(ObjectId treeId, List<String> indexPaths,
+            List<BasicFileAttributes> attrs) {
+        List<ObjectReader.TreeEntry> lines = readTree(treeId);
+        GitIndex index = getIndex();
+        ArrayList<GitIndex.Entry> entries = new ArrayList<>(indexPaths.size());
+        for (int i = 0; i < lines.size(); i++) {
+            ObjectReader.TreeEntry line = lines.get(i);
+            if (line.isTree) {
+                continue;
+            }
+            int n = entries.size();
+            if (n == indexPaths.size() || !indexPaths.get(n).endsWith("/" + line.name)) {
+                return null;
+            }
+            GitIndex.Entry current = index.getEntry(indexPaths.get(n));
+            if (current != null && current.id.equals(line.id) && index.isUnchanged(current, attrs.get(n))) {
+                entries.add(current);
+            } else {
+                entries.add(GitIndex.Entry.fromFile(indexPaths.get(n), line.id, attrs.get(n)));
+            }
+        }
+        return entries.size() == indexPaths.size() ? entries : null;
+    }
+
+    // stageFile on an I/O thread: the read and the write stay here, and the
+    // hashing and compressing go to the compute pool. Files that are mapped
+    // or chunked take the usual path.
+    private GitIndex.Entry stageFileConcurrently(IoExecutor io, File file, String indexPath,
+            BasicFileAttributes attrs) throws Exception {
+        GitIndex index = getIndex();
+        GitIndex.Entry cached = index.getEntry(indexPath);
+        if (cached != null && index.isUnchanged(cached, attrs) && hasObject(cached.id)) {
+            return cached;
+        }
+        long size = attrs.size();
+        if (size >= MAP_THRESHOLD || (chunkThreshold > 0 && size >= chunkThreshold)) {
+            return GitIndex.Entry.fromFile(indexPath, createBlobId(file), attrs);
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        EncodedObject encoded = io.compute(() -> encodeObject(data, 0, data.length));
+        return GitIndex.Entry.fromFile(indexPath, storeEncoded(encoded), attrs);
+    }
+
+    /**
+     * Turns concurrent file I/O on or off and saves the setting in
+     * git/config. With it on, stageFiles (and so both tree builders) keep up
+     * to maxInFlight file reads and object writes going at once, on virtual
+     * threads where the JVM has them (see IoExecutor). This helps on storage
+     * with high latency per call and does little on a local disk.
+     * 
+     * @param maxInFlight Most file operations in flight, or 0 to do them one
+     *                    at a time
+     */
+    public void setIoConcurrency(int maxInFlight) {
+        if (maxInFlight < 0) {
+            throw new IllegalArgumentException("I/O concurrency cannot be negative: " + maxInFlight);
+        }
+        try {
+            writeConfig("io.maxInFlight", Integer.toString(maxInFlight));
+        } catch (IOException e) {
+            throw new RuntimeException("Error saving I/O concurrency", e);
+        }
+        startIoExecutor(maxInFlight);
+    }
+
+    // Replaces the I/O executor (maxInFlight 0 = none)
+    private synchronized void startIoExecutor(int maxInFlight) {
+        IoExecutor old = ioExecutor;
+        ioExecutor = maxInFlight > 0 ? new IoExecutor(maxInFlight) : null;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Lists the files in the repository that were added, modified or deleted
+     * since they were last recorded in git/index. See GitStatus for the
+     * streaming and per-directory versions.
+     * 
+     * @return The changes, sorted by path
+     */
+    public ArrayList<GitStatus.Change> status() {
+        return new GitStatus(this).status();
+    }
+
+    /**
+     * Returns the staging index for this repository, opening git/index the
+     * first time it is needed
+     * 
+     * @return The shared index
+     */
+    public synchronized GitIndex getIndex() {
+        if (index == null) {
+            index = new GitIndex(new File(gitFolder, "index"));
+        }
+        return index;
+    }
+
+    /**
+     * Returns the cache of directory fingerprints and tree ids used by the
+     * tree builders, loading git/treecache the first time it is needed
+     * 
+     * @return The shared tree cache
+     */
+    public synchronized TreeCache getTreeCache() {
+        if (treeCache == null) {
+            treeCache = new TreeCache(new File(gitFolder, "treecache"));
+        }
+        return treeCache;
+    }
+
+    /**
+     * Returns the ignore rules in force for a directory's listing: the
+     * IgnoreRules defaults, the root .gitignore and the .gitignore of every
+     * folder down to, but not including, the directory itself. Callers add
+     * the directory's own file with IgnoreRules.enter once they list it.
+     * 
+     * @param dirRelPath The directory, relative to the repo root, or "" for
+     *                   the root
+     * @return The rules
+     */
+    public IgnoreRules ignoreRules(String dirRelPath) {
+        IgnoreRules rules = IgnoreRules.defaults();
+        String[] segments = dirRelPath.split("/");
+        String path = "";
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].isEmpty() || segments[i].equals(".")) {
+                continue;
+            }
+            // Load the parent's file before stepping into this segment
+            rules = rules.enter(path, new File(repoFolder, path));
+            path = path.isEmpty() ? segments[i] : path + "/" + segments[i];
+        }
+        return rules;
+    }
+
+    /**
+     * Converts a file inside the repository into the path used by the index
+     * and tree objects
+     * 
+     * @param file A file inside the repository folder
+     * @return The path relative to the repo root, using / as the separator
+     */
+    public String relativePath(File file) {
+        String relative = repoFolder.getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath()).toString();
+        return relative.replace(File.separatorChar, '/');
+    }
+
     /**
      * Method to remove directory in the repo by name only
      * 
@@ -348,48 +699,935 @@ public class MyRepo {
     }
 
 
+    /**
+     * Compresses text content and stores it in the objects folder. Safe to call
+     * from several threads at once, since every write goes through a temp file
+     * that is renamed into place.
+     * 
+     * @param content The text of the object
+     * @return The SHA-1 hash of the content, which is the object's id
+     */
     public String writeObject(String content) {
+        return writeObjectId(content).toHex();
+    }
+
+    /**
+     * Same as writeObject(content), but returns the id without converting it
+     * to hex
+     * 
+     * @param content The text of the object
+     * @return The object's id
+     */
+    public ObjectId writeObjectId(String content) {
         try {
-            String compressed = Compression.compress(content);
-            String sha1 = Sha1Generator.generateSha1(compressed);
-
-            File objFile = new File(gitFolder, "objects/" + sha1);
-            if (!objFile.exists()) {
-                objFile.createNewFile();
-                try (BufferedWriter bw = new BufferedWriter(new FileWriter(objFile))) {
-                    bw.write(compressed);
-                }
-            }
-            return sha1;
+            byte[] data = content.getBytes(StandardCharsets.UTF_8);
+            return writeObjectBytes(data, 0, data.length);
         } catch (Exception e) {
             throw new RuntimeException("Error writing object", e);
         }
     }
 
+    /**
+     * Creates a compressed blob object from the raw bytes of a file. Binary
+     * content is stored unchanged, and memory use does not grow with the file
+     * size: files under MAP_THRESHOLD are read through a pooled direct buffer,
+     * and bigger ones are memory-mapped and hashed before anything is
+     * compressed, so a big file that is already stored is never compressed or
+     * copied. Either way the bytes go to the digest and the deflater without
+     * being copied onto the Java heap. Files at or above the chunking
+     * threshold are stored as a chunked blob instead.
+     * 
+     * @param file The file to store
+     * @return The SHA-1 hash of the file's content, which is the blob's id
+     */
     public String createBlobFromFile(File file) {
+        return createBlobId(file).toHex();
+    }
+
+    /**
+     * Same as createBlobFromFile(file), but returns the id without converting
+     * it to hex
+     * 
+     * @param file The file to store
+     * @return The blob's id
+     */
+    public ObjectId createBlobId(File file) {
         try {
-            StringBuilder sb = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    sb.append(line).append('\n');
+            long size = file.length();
+            if (chunkThreshold > 0 && size >= chunkThreshold) {
+                try (InputStream in = new FileInputStream(file)) {
+                    return writeChunkedBlob(in);
+                }
+            }
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (size >= MAP_THRESHOLD) {
+                    return writeObjectMapped(in);
                 }
+                return writeObjectChannel(in);
             }
+        } catch (Exception e) {
+            throw new RuntimeException("Error creating blob for file: " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Turns chunked blob storage on or off and saves the setting in git/config.
+     * A chunked blob splits the file at content-defined boundaries, stores each
+     * chunk as its own object, and stores a manifest listing the chunks as the
+     * blob. Chunks that are already stored (from another file or an earlier
+     * version of the same file) are not written again. The manifest text is:
+     *   CHUNKED_BLOB_HEADER
+     *   size <total bytes>
+     *   chunk <SHA1> <bytes>   (one line per chunk, in order)
+     * and it is stored with the Compression.CHUNK_LIST header bit, which is
+     * what marks the blob as chunked when it is read.
+     * 
+     * @param threshold Smallest file size to chunk, in bytes, or 0 to turn
+     *                  chunking off
+     */
+    public void setChunkThreshold(long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Chunk threshold cannot be negative: " + threshold);
+        }
+        try {
+            writeConfig("blobs.chunkThreshold", Long.toString(threshold));
+        } catch (IOException e) {
+            throw new RuntimeException("Error saving chunk threshold", e);
+        }
+        chunkThreshold = threshold;
+    }
 
-            String contents = sb.toString();
-            String compressed = Compression.compress(contents);
-            String sha1 = Sha1Generator.generateSha1(compressed);
+    // Stores each content-defined chunk as an object and returns the id of
+    // the manifest that lists them, stored with the CHUNK_LIST header bit so
+    // readers know to follow it
+    private ObjectId writeChunkedBlob(InputStream in) throws Exception {
+        byte[] manifest = chunkManifest(in, true).getBytes(StandardCharsets.UTF_8);
+        EncodedObject object = encodeObject(manifest, 0, manifest.length);
+        if (object.stored != null) {
+            object.stored[0] |= Compression.CHUNK_LIST;
+        }
+        return storeEncoded(object);
+    }
+
+    // Splits a stream into chunks and returns the manifest text listing them,
+    // storing each chunk only if asked to
+    private String chunkManifest(InputStream in, boolean store) throws Exception {
+        StringBuilder chunkLines = new StringBuilder();
+        long[] total = new long[1];
+        ContentChunker.split(in, (buffer, length) -> {
+            ObjectId chunkId = store ? writeObjectBytes(buffer, 0, length)
+                    : ObjectId.fromRaw(Sha1Generator.digest(buffer, 0, length));
+            chunkId.appendHex(chunkLines.append("chunk ")).append(' ').append(length).append('\n');
+            total[0] += length;
+        });
+        return CHUNKED_BLOB_HEADER + "size " + total[0] + "\n" + chunkLines;
+    }
 
-            File objFile = new File(gitFolder, "objects/" + sha1);
-            if (!objFile.exists()) {
-                objFile.createNewFile();
-                try (BufferedWriter bw = new BufferedWriter(new FileWriter(objFile))) {
-                    bw.write(compressed);
+    /**
+     * Works out the id createBlobId(file) would give, without storing
+     * anything. For a chunked blob this is the id of its manifest.
+     * 
+     * @param file The file to hash
+     * @return The blob id of the file's current content
+     */
+    public ObjectId hashBlob(File file) {
+        try {
+            long size = file.length();
+            if (chunkThreshold > 0 && size >= chunkThreshold) {
+                try (InputStream in = new FileInputStream(file)) {
+                    byte[] manifest = chunkManifest(in, false).getBytes(StandardCharsets.UTF_8);
+                    return ObjectId.fromRaw(Sha1Generator.digest(manifest));
                 }
             }
-            return sha1;
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (size >= MAP_THRESHOLD) {
+                    return digestMapped(in);
+                }
+                MessageDigest md = Sha1Generator.threadDigest();
+                ByteBuffer buffer = READ_BUFFER.get();
+                boolean more = true;
+                while (more) {
+                    buffer.clear();
+                    more = fill(in, buffer);
+                    buffer.flip();
+                    md.update(buffer);
+                }
+                return ObjectId.fromRaw(md.digest());
+            }
         } catch (Exception e) {
-            throw new RuntimeException("Error creating blob for file: " + file.getPath(), e);
+            throw new RuntimeException("Error hashing file: " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Sets the deflate level used for new objects and saves it in git/config.
+     * Level 0 stores everything raw.
+     * 
+     * @param level 0-9, or Compression.DEFAULT_LEVEL
+     */
+    public void setCompressionLevel(int level) {
+        if (level != Compression.DEFAULT_LEVEL && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9: " + level);
+        }
+        try {
+            writeConfig("objects.compressionLevel", Integer.toString(level));
+        } catch (IOException e) {
+            throw new RuntimeException("Error saving compression level", e);
+        }
+        compressionLevel = level;
+    }
+
+    /**
+     * Turns write-behind on or off and saves the setting in git/config. With
+     * write-behind, loose objects are handed to an ObjectWriter thread instead
+     * of being written by the caller: writes return as soon as the object is
+     * hashed and encoded, and the writer commits them in batches, each object
+     * fsynced under a temp name before it is renamed into place. Objects
+     * waiting to be written are still found by hasObject and
+     * readStoredObject. Call flush() before relying on them being on disk.
+     * 
+     * @param batchSize    Most objects committed by one group of fsyncs, or 0
+     *                     to write objects directly
+     * @param windowMillis How long the writer waits for more objects before
+     *                     committing a batch that is not full
+     */
+    public void setWriteBehind(int batchSize, long windowMillis) {
+        if (batchSize < 0 || windowMillis < 0) {
+            throw new IllegalArgumentException("Write-behind batch size and window cannot be negative: "
+                    + batchSize + ", " + windowMillis);
+        }
+        try {
+            writeConfig("objects.writeBehindBatch", Integer.toString(batchSize));
+            writeConfig("objects.writeBehindWindowMillis", Long.toString(windowMillis));
+        } catch (IOException e) {
+            throw new RuntimeException("Error saving write-behind settings", e);
+        }
+        startObjectWriter(batchSize, windowMillis);
+    }
+
+    /**
+     * Waits until every object written so far is on disk. Does nothing unless
+     * write-behind is on.
+     */
+    public void flush() {
+        ObjectWriter writer = objectWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    // Closes the current writer, flushing it, and then starts one with new
+    // settings (batchSize 0 = write directly). Writes that meet the closing
+    // writer store their objects themselves (see submit).
+    private synchronized void startObjectWriter(int batchSize, long windowMillis) {
+        ObjectWriter old = objectWriter;
+        try {
+            if (old != null) {
+                old.close();
+            }
+        } finally {
+            objectWriter = batchSize > 0
+                    ? new ObjectWriter(WRITE_BEHIND_QUEUE_SIZE, batchSize, windowMillis, this::forgetDroppedObject)
+                    : null;
+        }
+    }
+
+    // Hashes the content first, so content that is already stored is never
+    // compressed, then encodes and stores it
+    private ObjectId writeObjectBytes(byte[] data, int off, int len) throws Exception {
+        return storeEncoded(encodeObject(data, off, len));
+    }
+
+    // An object's id and stored bytes; stored is null if the object was
+    // already in the repository when it was encoded
+    private static class EncodedObject {
+        final ObjectId id;
+        final byte[] stored;
+
+        EncodedObject(ObjectId id, byte[] stored) {
+            this.id = id;
+            this.stored = stored;
+        }
+    }
+
+    // The CPU-bound half of writeObjectBytes: hashes, and encodes unless the
+    // object is already stored
+    private EncodedObject encodeObject(byte[] data, int off, int len) {
+        ObjectId id = ObjectId.fromRaw(Sha1Generator.digest(data, off, len));
+        if (hasObject(id)) {
+            freshenObject(id);
+            return new EncodedObject(id, null);
+        }
+        return new EncodedObject(id, Compression.encode(ByteBuffer.wrap(data, off, len), compressionLevel));
+    }
+
+    // The I/O half of writeObjectBytes: writes an encoded object as a loose file
+    private ObjectId storeEncoded(EncodedObject object) throws IOException {
+        ObjectId id = object.id;
+        byte[] stored = object.stored;
+        if (stored == null) {
+            return id;
+        }
+        if (hasObject(id)) {
+            freshenObject(id);
+            return id;
+        }
+        ObjectWriter writer = objectWriter;
+        if (writer != null && submit(writer, id, prepareLooseObjectFile(id), stored, null)) {
+            return id;
+        }
+        File tempFile = File.createTempFile("incoming", ".tmp", new File(gitFolder, "objects"));
+        boolean handedOver = false;
+        try {
+            Files.write(tempFile.toPath(), stored);
+            // A writer started since the check above may take the file
+            handedOver = storeLooseObject(tempFile, id);
+            return id;
+        } finally {
+            if (!handedOver) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    // Reads a channel through the thread's direct buffer, feeding each block
+    // to the digest and the encoder in a single pass. The first block decides
+    // whether the content is worth compressing.
+    private ObjectId writeObjectChannel(FileChannel in) throws Exception {
+        File tempFile = File.createTempFile("incoming", ".tmp", new File(gitFolder, "objects"));
+        boolean handedOver = false;
+        try {
+            MessageDigest md = Sha1Generator.threadDigest();
+            ByteBuffer buffer = READ_BUFFER.get();
+            buffer.clear();
+            boolean more = fill(in, buffer);
+            buffer.flip();
+            boolean compress = Compression.shouldCompress(buffer);
+            try (FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                Compression.ChannelEncoder encoder = new Compression.ChannelEncoder(out, compressionLevel, compress);
+                while (true) {
+                    md.update(buffer.duplicate());
+                    encoder.write(buffer);
+                    if (!more) {
+                        break;
+                    }
+                    buffer.clear();
+                    more = fill(in, buffer);
+                    buffer.flip();
+                }
+                encoder.finish();
+            }
+            ObjectId id = ObjectId.fromRaw(md.digest());
+            handedOver = storeLooseObject(tempFile, id);
+            return id;
+        } finally {
+            if (!handedOver) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    // Reads until the buffer is full; returns false at the end of the channel
+    private static boolean fill(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Maps the file a window at a time: hashes every window first, then, if
+    // the object is new, encodes the same windows into a temp file
+    private ObjectId writeObjectMapped(FileChannel in) throws Exception {
+        long size = in.size();
+        ObjectId id = digestMapped(in, size);
+        if (hasObject(id)) {
+            freshenObject(id);
+            return id;
+        }
+        File tempFile = File.createTempFile("incoming", ".tmp", new File(gitFolder, "objects"));
+        boolean handedOver = false;
+        try {
+            try (FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                // The first window decides on compression; an empty file
+                // still gets an encoder, so it is stored as an empty object
+                ByteBuffer first = size > 0
+                        ? in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(MAP_WINDOW_SIZE, size))
+                        : ByteBuffer.allocate(0);
+                Compression.ChannelEncoder encoder = new Compression.ChannelEncoder(out, compressionLevel,
+                        Compression.shouldCompress(first));
+                for (long pos = 0; pos < size; pos += MAP_WINDOW_SIZE) {
+                    ByteBuffer window = pos == 0 ? first
+                            : in.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW_SIZE, size - pos));
+                    encoder.write(window);
+                }
+                encoder.finish();
+            }
+            handedOver = storeLooseObject(tempFile, id);
+            return id;
+        } finally {
+            if (!handedOver) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    // Hashes a file a mapped window at a time
+    private static ObjectId digestMapped(FileChannel in) throws IOException {
+        return digestMapped(in, in.size());
+    }
+
+    // Hashes the first size bytes of a file, so the id and the stored bytes
+    // cover the same content if the file changes size in between
+    private static ObjectId digestMapped(FileChannel in, long size) throws IOException {
+        MessageDigest md = Sha1Generator.threadDigest();
+        for (long pos = 0; pos < size; pos += MAP_WINDOW_SIZE) {
+            md.update(in.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW_SIZE, size - pos)));
+        }
+        return ObjectId.fromRaw(md.digest());
+    }
+
+    // Renames a finished temp file to its object name unless the object is
+    // already stored. Returns true if the temp file was handed to the
+    // write-behind writer, which then renames it.
+    private boolean storeLooseObject(File tempFile, ObjectId id) throws IOException {
+        if (hasObject(id)) {
+            freshenObject(id);
+            return false;
+        }
+        File objFile = prepareLooseObjectFile(id);
+        ObjectWriter writer = objectWriter;
+        if (writer != null && submit(writer, id, objFile, null, tempFile)) {
+            return true;
+        }
+        // Written directly: the rename is atomic, and syncing is left to
+        // write-behind, which groups it
+        Files.move(tempFile.toPath(), objFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        getPresence().add(id);
+        return false;
+    }
+
+    // Hands an object to the write-behind writer. It is recorded as present
+    // first, so a drop reported by the writer always comes after the add.
+    // Returns false if setWriteBehind closed the writer in the meantime; the
+    // caller then writes the object itself.
+    private boolean submit(ObjectWriter writer, ObjectId id, File objFile, byte[] stored, File tempFile) {
+        getPresence().add(id);
+        try {
+            if (stored != null) {
+                writer.submit(id, objFile, stored);
+            } else {
+                writer.submit(id, objFile, tempFile);
+            }
+            return true;
+        } catch (IllegalStateException e) {
+            forgetDroppedObject(id);
+            return false;
+        } catch (RuntimeException e) {
+            forgetDroppedObject(id);
+            throw e;
+        }
+    }
+
+    // Called when the write-behind writer gives up on an object. Only the
+    // presence index is touched, since this runs on the writer thread and
+    // must not wait for the repository lock.
+    private void forgetDroppedObject(ObjectId id) {
+        ObjectPresenceIndex current = presence;
+        if (current != null && findLooseObject(id) == null) {
+            current.remove(id);
+        }
+    }
+
+    // An object's loose file, with its fan-out folder created. The folder is
+    // only marked known once it exists, so a thread racing this one never
+    // skips creating it.
+    private File prepareLooseObjectFile(ObjectId id) throws IOException {
+        File objFile = looseObjectFile(id);
+        if (!knownObjectDirs.contains(objFile.getParent())) {
+            Files.createDirectories(objFile.getParentFile().toPath());
+            knownObjectDirs.add(objFile.getParent());
+        }
+        return objFile;
+    }
+
+    /**
+     * Checks whether an object is stored in the repository. The answer comes
+     * from an in-memory index of object ids that is built from the loose
+     * objects and packs on first use and updated on every write, so no file
+     * system call is made.
+     * 
+     * @param id The object id
+     * @return true if the object exists, otherwise false
+     */
+    public boolean hasObject(ObjectId id) {
+        return getPresence().contains(id);
+    }
+
+    /**
+     * Checks whether an object is stored in the repository
+     * 
+     * @param sha1 The object id in hex
+     * @return true if the object exists, otherwise false
+     */
+    public boolean hasObject(String sha1) {
+        return hasObject(ObjectId.fromHex(sha1));
+    }
+
+    /**
+     * Reads an object exactly as it is stored (still compressed), from a pack
+     * file if it has been packed, otherwise from its loose file (or from
+     * memory if the write-behind writer has not written it yet)
+     * 
+     * @param id The object id
+     * @return The stored bytes, or null if the object does not exist
+     */
+    public byte[] readStoredObject(ObjectId id) {
+        ObjectWriter writer = objectWriter;
+        if (writer != null) {
+            byte[] waiting = writer.pending(id);
+            if (waiting != null) {
+                return waiting;
+            }
+        }
+        ArrayList<PackFile> currentPacks = getPacks();
+        for (int i = 0; i < currentPacks.size(); i++) {
+            byte[] data = currentPacks.get(i).read(id);
+            if (data != null) {
+                return data;
+            }
+        }
+        File objFile = findLooseObject(id);
+        if (objFile == null) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(objFile.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading object " + id, e);
+        }
+    }
+
+    /**
+     * Reads an object exactly as it is stored (still compressed)
+     * 
+     * @param sha1 The object id in hex
+     * @return The stored bytes, or null if the object does not exist
+     */
+    public byte[] readStoredObject(String sha1) {
+        return readStoredObject(ObjectId.fromHex(sha1));
+    }
+
+    /**
+     * Opens a stream over an object exactly as it is stored (still
+     * compressed). Packed objects are streamed out of the mapped pack and
+     * loose ones out of their file, so nothing is read into memory up front.
+     * 
+     * @param id The object id
+     * @return The stored bytes as a stream, or null if the object does not
+     *         exist
+     */
+    public InputStream openStoredObject(ObjectId id) {
+        ObjectWriter writer = objectWriter;
+        if (writer != null) {
+            byte[] waiting = writer.pending(id);
+            if (waiting != null) {
+                return new ByteArrayInputStream(waiting);
+            }
+        }
+        ArrayList<PackFile> currentPacks = getPacks();
+        for (int i = 0; i < currentPacks.size(); i++) {
+            int position = currentPacks.get(i).find(id);
+            if (position >= 0) {
+                return currentPacks.get(i).openAt(position);
+            }
+        }
+        File objFile = findLooseObject(id);
+        if (objFile == null) {
+            return null;
+        }
+        try {
+            return new BufferedInputStream(new FileInputStream(objFile), 65536);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading object " + id, e);
+        }
+    }
+
+    /**
+     * Opens an object's content as a stream, decompressing it as it is read.
+     * A chunked blob reads as the original file, one chunk at a time.
+     * 
+     * @param id The object id
+     * @return The content; the caller closes it
+     */
+    public InputStream readObject(ObjectId id) {
+        return getObjectReader().open(id);
+    }
+
+    /**
+     * Reads a tree object's entries, from the decoded tree cache when it was
+     * read recently
+     * 
+     * @param id The tree id
+     * @return The entries in the order the tree lists them
+     */
+    public List<ObjectReader.TreeEntry> readTree(ObjectId id) {
+        return getObjectReader().readTree(id);
+    }
+
+    /**
+     * Returns the reader used by readObject and readTree, which holds the
+     * decoded tree cache
+     * 
+     * @return The shared object reader
+     */
+    public synchronized ObjectReader getObjectReader() {
+        if (objectReader == null) {
+            objectReader = new ObjectReader(this, ObjectReader.DEFAULT_TREE_CACHE_BYTES);
+        }
+        return objectReader;
+    }
+
+    /**
+     * Merges every loose object and every existing pack into a new pack file
+     * with a sorted index under git/objects/pack, then deletes the loose copies
+     * and the old packs. A new pack is started whenever one would grow past
+     * PackFile.MAX_PACK_SIZE, and very large objects are left loose.
+     * 
+     * @return The number of objects now stored in packs
+     */
+    public synchronized int repack() {
+        flush();
+        ArrayList<PackFile> oldPacks = getPacks();
+        TreeSet<ObjectId> ids = new TreeSet<>();
+        HashMap<ObjectId, File> looseFiles = listLooseObjects();
+        for (Map.Entry<ObjectId, File> loose : looseFiles.entrySet()) {
+            if (loose.getValue().length() <= MAX_PACKED_OBJECT_SIZE) {
+                ids.add(loose.getKey());
+            }
+        }
+        for (int i = 0; i < oldPacks.size(); i++) {
+            PackFile pack = oldPacks.get(i);
+            for (int j = 0; j < pack.size(); j++) {
+                ids.add(pack.idAt(j));
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        File packDir = new File(gitFolder, "objects/pack");
+        ArrayList<ObjectId> sortedIds = new ArrayList<>(ids);
+        ArrayList<PackFile> newPacks = new ArrayList<>();
+        try {
+            int next = 0;
+            while (next < sortedIds.size()) {
+                PackFile pack = PackFile.write(packDir, sortedIds, next, this::readStoredObject);
+                newPacks.add(pack);
+                next += pack.size();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error repacking objects", e);
+        }
+
+        // Everything is packed and synced (see PackFile.write), so the old
+        // copies can go
+        packs = newPacks;
+        for (int i = 0; i < oldPacks.size(); i++) {
+            File oldPack = oldPacks.get(i).getFile();
+            boolean rewritten = false;
+            for (int j = 0; j < newPacks.size(); j++) {
+                if (newPacks.get(j).getFile().equals(oldPack)) {
+                    rewritten = true; // same ids, so the new pack took its name
+                }
+            }
+            if (!rewritten) {
+                PackFile.indexFileFor(oldPack).delete();
+                oldPack.delete();
+            }
+        }
+        for (Map.Entry<ObjectId, File> loose : looseFiles.entrySet()) {
+            if (ids.contains(loose.getKey())) {
+                loose.getValue().delete();
+            }
+        }
+        removeEmptyObjectDirs(new File(gitFolder, "objects"));
+        return sortedIds.size();
+    }
+
+    /**
+     * Deletes objects that cannot be reached from HEAD, git/refs, the index
+     * or the tree cache, once they are older than
+     * GarbageCollector.DEFAULT_GRACE_MILLIS. See GarbageCollector.
+     * 
+     * @return How many objects were removed, the bytes freed and the time
+     *         taken
+     */
+    public GarbageCollector.Result gc() {
+        return gc(GarbageCollector.DEFAULT_GRACE_MILLIS);
+    }
+
+    /**
+     * Deletes unreachable objects older than a grace period. Younger ones are
+     * kept, since a tree build running alongside may be about to refer to
+     * them.
+     * 
+     * @param graceMillis How old an unreachable object must be to be deleted
+     * @return How many objects were removed, the bytes freed and the time
+     *         taken
+     */
+    public synchronized GarbageCollector.Result gc(long graceMillis) {
+        if (graceMillis < 0) {
+            throw new IllegalArgumentException("Grace period cannot be negative: " + graceMillis);
+        }
+        flush();
+        return new GarbageCollector(this, graceMillis).run();
+    }
+
+    // Swaps one pack for the packs rewritten from it, deleting the old files
+    // unless a new pack took the same name
+    synchronized void replacePack(PackFile oldPack, List<PackFile> newPacks) {
+        ArrayList<PackFile> updated = new ArrayList<>();
+        ArrayList<PackFile> current = getPacks();
+        for (int i = 0; i < current.size(); i++) {
+            if (current.get(i) != oldPack) {
+                updated.add(current.get(i));
+            }
+        }
+        boolean rewritten = false;
+        for (int i = 0; i < newPacks.size(); i++) {
+            updated.add(newPacks.get(i));
+            if (newPacks.get(i).getFile().equals(oldPack.getFile())) {
+                rewritten = true;
+            }
+        }
+        packs = updated;
+        if (!rewritten) {
+            PackFile.indexFileFor(oldPack.getFile()).delete();
+            oldPack.getFile().delete();
+        }
+    }
+
+    // Called when a write finds its object already stored: sets the loose
+    // file's modification time, or its pack's, to now, as git does. A gc
+    // running alongside then keeps the object through its grace period, the
+    // same as one just written, until the tree or index entry that reuses it
+    // is saved. An object still waiting for the write-behind writer has
+    // nothing to touch yet.
+    private void freshenObject(ObjectId id) {
+        long now = System.currentTimeMillis();
+        File objFile = findLooseObject(id);
+        if (objFile != null) {
+            objFile.setLastModified(now);
+            return;
+        }
+        ArrayList<PackFile> currentPacks = getPacks();
+        for (int i = 0; i < currentPacks.size(); i++) {
+            if (currentPacks.get(i).contains(id)) {
+                currentPacks.get(i).getFile().setLastModified(now);
+                return;
+            }
+        }
+    }
+
+    // Drops a deleted object from the presence index, unless another copy of
+    // it is still stored somewhere
+    void forgetObject(ObjectId id) {
+        ObjectPresenceIndex current = presence;
+        if (current == null || findLooseObject(id) != null) {
+            return;
+        }
+        ArrayList<PackFile> currentPacks = getPacks();
+        for (int i = 0; i < currentPacks.size(); i++) {
+            if (currentPacks.get(i).contains(id)) {
+                return;
+            }
+        }
+        current.remove(id);
+    }
+
+    /**
+     * Moves every loose object into a new fan-out layout in place and records
+     * the layout in git/config. Objects are found in any layout while this
+     * runs, so an interrupted migration can simply be run again.
+     * 
+     * @param fanout Directory levels to use: 0 for flat, 1 for objects/ab/cdef...,
+     *               2 for objects/ab/cd/ef...
+     * @return The number of objects that were moved
+     */
+    public synchronized int migrateObjectLayout(int fanout) {
+        if (fanout < 0 || fanout > MAX_OBJECT_FANOUT) {
+            throw new IllegalArgumentException("Fan-out must be between 0 and " + MAX_OBJECT_FANOUT + ": " + fanout);
+        }
+        flush();
+        int moved = 0;
+        try {
+            HashMap<ObjectId, File> looseFiles = listLooseObjects();
+            for (Map.Entry<ObjectId, File> loose : looseFiles.entrySet()) {
+                File target = looseObjectFile(loose.getKey(), fanout);
+                if (target.equals(loose.getValue())) {
+                    continue;
+                }
+                target.getParentFile().mkdirs();
+                if (target.exists()) {
+                    loose.getValue().delete();
+                } else {
+                    Files.move(loose.getValue().toPath(), target.toPath());
+                }
+                moved++;
+            }
+            removeEmptyObjectDirs(new File(gitFolder, "objects"));
+            writeObjectFanout(fanout);
+        } catch (IOException e) {
+            throw new RuntimeException("Error migrating object layout", e);
+        }
+        objectFanout = fanout;
+        knownObjectDirs.clear();
+        return moved;
+    }
+
+    // Path of the loose file an object is written to in the current layout
+    File looseObjectFile(ObjectId id) {
+        return looseObjectFile(id, objectFanout);
+    }
+
+    // Path of an object's loose file in a given fan-out layout
+    private File looseObjectFile(ObjectId id, int fanout) {
+        String hex = id.toHex();
+        StringBuilder path = new StringBuilder("objects/");
+        for (int i = 0; i < fanout; i++) {
+            path.append(hex, i * 2, i * 2 + 2).append('/');
+        }
+        path.append(hex, fanout * 2, hex.length());
+        return new File(gitFolder, path.toString());
+    }
+
+    // Looks for an object's loose file in the current layout, then in the others
+    private File findLooseObject(ObjectId id) {
+        File objFile = looseObjectFile(id);
+        if (objFile.exists()) {
+            return objFile;
+        }
+        for (int fanout = 0; fanout <= MAX_OBJECT_FANOUT; fanout++) {
+            if (fanout != objectFanout) {
+                objFile = looseObjectFile(id, fanout);
+                if (objFile.exists()) {
+                    return objFile;
+                }
+            }
+        }
+        return null;
+    }
+
+    // All loose object files by id, in any layout
+    HashMap<ObjectId, File> listLooseObjects() {
+        HashMap<ObjectId, File> result = new HashMap<>();
+        collectLooseObjects(new File(gitFolder, "objects"), "", result);
+        return result;
+    }
+
+    // Adds files whose folder prefix plus name make a full SHA-1; descends into
+    // two-character hex folders only
+    private void collectLooseObjects(File dir, String prefix, HashMap<ObjectId, File> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile()) {
+                String id = prefix + name;
+                if (id.matches("[0-9a-f]{40}")) {
+                    result.put(ObjectId.fromHex(id), file);
+                }
+            } else if (prefix.length() < MAX_OBJECT_FANOUT * 2 && name.matches("[0-9a-f]{2}")) {
+                collectLooseObjects(file, prefix + name, result);
+            }
+        }
+    }
+
+    // Deletes fan-out folders left empty by a migration, repack or gc
+    void removeEmptyObjectDirs(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory() && file.getName().matches("[0-9a-f]{2}")) {
+                removeEmptyObjectDirs(file);
+                String[] left = file.list();
+                if (left != null && left.length == 0) {
+                    knownObjectDirs.remove(file.getPath());
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    // Walks the repo into a file name index the first time a file is looked
+    // up by name
+    private synchronized FileNameIndex getFileNames() {
+        if (fileNames == null) {
+            fileNames = new FileNameIndex(repoFolder, new File(gitFolder, "objects"));
+        }
+        return fileNames;
+    }
+
+    // Loads the id of every loose and packed object the first time an
+    // existence check is made
+    private ObjectPresenceIndex getPresence() {
+        ObjectPresenceIndex current = presence;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (presence == null) {
+                HashMap<ObjectId, File> looseFiles = listLooseObjects();
+                ArrayList<PackFile> currentPacks = getPacks();
+                int expected = looseFiles.size();
+                for (int i = 0; i < currentPacks.size(); i++) {
+                    expected += currentPacks.get(i).size();
+                }
+                ObjectPresenceIndex loaded = new ObjectPresenceIndex(expected * 2);
+                for (ObjectId id : looseFiles.keySet()) {
+                    loaded.add(id);
+                }
+                for (int i = 0; i < currentPacks.size(); i++) {
+                    for (int j = 0; j < currentPacks.get(i).size(); j++) {
+                        loaded.add(currentPacks.get(i).idAt(j));
+                    }
+                }
+                presence = loaded;
+            }
+            return presence;
+        }
+    }
+
+    // Opens the pack files in git/objects/pack the first time they are needed
+    ArrayList<PackFile> getPacks() {
+        ArrayList<PackFile> current = packs;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (packs == null) {
+                ArrayList<PackFile> loaded = new ArrayList<>();
+                File[] files = new File(gitFolder, "objects/pack").listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.getName().endsWith(".pack") && PackFile.indexFileFor(file).exists()) {
+                            try {
+                                loaded.add(new PackFile(file));
+                            } catch (IOException e) {
+                                throw new RuntimeException("Error opening pack " + file.getPath(), e);
+                            }
+                        }
+                    }
+                }
+                packs = loaded;
+            }
+            return packs;
         }
     }
 
@@ -0,0 +1,225 @@
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable 20 byte SHA-1 object id.
+ *
+ * The bytes are held in three primitive fields instead of a 40 character
+ * String, so an id costs 32 bytes of heap instead of about 100, and equals,
+ * hashCode and compareTo are a few integer operations. Ids sort in the same
+ * order as their hex strings. Hex is only produced at the edges: when an id
+ * is printed, written into a tree line, or used as a file name.
+ *
+ * Usage:
+ *   ObjectId id = ObjectId.fromHex("0a4d55a8d778e5022fab701977c5d840bbc486d0");
+ *   String hex = id.toHex();
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+    public static final int LENGTH = 20;
+    public static final int HEX_LENGTH = 40;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Bytes 0-7, 8-15 and 16-19, big-endian
+    private final long w1;
+    private final long w2;
+    private final int w3;
+
+    private ObjectId(long w1, long w2, int w3) {
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    /**
+     * Makes an id from raw digest bytes
+     *
+     * @param raw The 20 byte digest
+     * @return The id
+     */
+    public static ObjectId fromRaw(byte[] raw) {
+        return fromRaw(raw, 0);
+    }
+
+    /**
+     * Makes an id from 20 bytes inside a larger array
+     *
+     * @param raw An array holding the id
+     * @param off Where the id starts
+     * @return The id
+     */
+    public static ObjectId fromRaw(byte[] raw, int off) {
+        return new ObjectId(readLong(raw, off), readLong(raw, off + 8), (int) readInt(raw, off + 16));
+    }
+
+    /**
+     * Makes an id from 20 bytes in a buffer, without moving its position
+     *
+     * @param buffer A buffer holding the id, such as a mapped index
+     * @param index  Where the id starts
+     * @return The id
+     */
+    public static ObjectId fromBuffer(ByteBuffer buffer, int index) {
+        return new ObjectId(buffer.getLong(index), buffer.getLong(index + 8), buffer.getInt(index + 16));
+    }
+
+    /**
+     * Parses a 40 character hex id
+     *
+     * @param hex The id in hex, upper or lower case
+     * @return The id
+     * @throws IllegalArgumentException if the string is not a 40 digit hex id
+     */
+    public static ObjectId fromHex(String hex) {
+        if (hex == null || hex.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("Not an object id: " + hex);
+        }
+        return new ObjectId(hexLong(hex, 0, 16), hexLong(hex, 16, 16), (int) hexLong(hex, 32, 8));
+    }
+
+    /**
+     * Checks whether a string is a 40 digit hex id
+     *
+     * @param text The string to check
+     * @return true if fromHex would accept it, otherwise false
+     */
+    public static boolean isHex(String text) {
+        if (text == null || text.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            if (Character.digit(text.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The first byte of the id, 0-255, as used by fan-out tables
+     */
+    public int firstByte() {
+        return (int) (w1 >>> 56);
+    }
+
+    /**
+     * Returns 64 bits of the id, for hash tables and Bloom filters that need
+     * more than hashCode() gives
+     *
+     * @param word 0, 1 or 2 (the last holds only 32 bits)
+     * @return That part of the id
+     */
+    public long word(int word) {
+        return word == 0 ? w1 : word == 1 ? w2 : w3 & 0xffffffffL;
+    }
+
+    /**
+     * @return A new array with the 20 raw bytes
+     */
+    public byte[] toRaw() {
+        byte[] raw = new byte[LENGTH];
+        copyRawTo(raw, 0);
+        return raw;
+    }
+
+    /**
+     * Writes the 20 raw bytes into an array
+     *
+     * @param dst The array to write to
+     * @param off Where to start writing
+     */
+    public void copyRawTo(byte[] dst, int off) {
+        writeLong(dst, off, w1);
+        writeLong(dst, off + 8, w2);
+        for (int i = 0; i < 4; i++) {
+            dst[off + 16 + i] = (byte) (w3 >>> (24 - i * 8));
+        }
+    }
+
+    /**
+     * Appends the hex form to a builder without making a String first
+     *
+     * @param sb The builder to append to
+     * @return The same builder
+     */
+    public StringBuilder appendHex(StringBuilder sb) {
+        appendHex(sb, w1, 16);
+        appendHex(sb, w2, 16);
+        appendHex(sb, w3 & 0xffffffffL, 8);
+        return sb;
+    }
+
+    /**
+     * @return The id as 40 lowercase hex characters
+     */
+    public String toHex() {
+        return appendHex(new StringBuilder(HEX_LENGTH)).toString();
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId id = (ObjectId) other;
+        return w1 == id.w1 && w2 == id.w2 && w3 == id.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        // The bytes are already a uniform hash
+        return (int) (w1 >>> 32);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(w1, other.w1);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(w2, other.w2);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(w3, other.w3);
+        }
+        return cmp;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        return (readInt(b, off) << 32) | readInt(b, off + 4);
+    }
+
+    private static long readInt(byte[] b, int off) {
+        return ((b[off] & 0xffL) << 24) | ((b[off + 1] & 0xffL) << 16) | ((b[off + 2] & 0xffL) << 8) | (b[off + 3] & 0xffL);
+    }
+
+    private static void writeLong(byte[] b, int off, long value) {
+        for (int i = 0; i < 8; i++) {
+            b[off + i] = (byte) (value >>> (56 - i * 8));
+        }
+    }
+
+    private static long hexLong(String hex, int start, int digits) {
+        long value = 0;
+        for (int i = start; i < start + digits; i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not an object id: " + hex);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static void appendHex(StringBuilder sb, long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            sb.append(HEX_DIGITS[(int) (value >>> shift) & 0xf]);
+        }
+    }
+}
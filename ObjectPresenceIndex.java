@@ -0,0 +1,138 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers which object ids are stored in a repository, so existence checks
+ * do not have to touch the file system.
+ *
+ * A Bloom filter answers first: if any of an id's bits is clear the object is
+ * definitely missing. Otherwise the exact set of ids decides, so there are no
+ * false positives either. Since object ids are already SHA-1 hashes, the
+ * Bloom filter's bit positions are taken straight from the id's bits.
+ *
+ * Lookups never lock. Adds are synchronized so the filter can be rebuilt
+ * at twice the size once it fills up.
+ */
+public class ObjectPresenceIndex {
+
+    // Bits per expected id and bits set per id (about 1% false positives)
+    private static final int BITS_PER_ID = 10;
+    private static final int HASHES = 7;
+    private static final int MIN_CAPACITY = 1024;
+
+    private final Set<ObjectId> ids = ConcurrentHashMap.newKeySet();
+    private volatile AtomicLongArray bits;
+    private volatile int capacity;
+
+    /**
+     * Creates an empty index sized for a number of ids
+     *
+     * @param expectedIds How many ids are likely to be added
+     */
+    public ObjectPresenceIndex(int expectedIds) {
+        capacity = Math.max(MIN_CAPACITY, expectedIds);
+        bits = new AtomicLongArray(wordsFor(capacity));
+    }
+
+    /**
+     * Checks whether an id has been added
+     *
+     * @param id The object id
+     * @return true if the object is known to exist, otherwise false
+     */
+    public boolean contains(ObjectId id) {
+        return mightContain(bits, id) && ids.contains(id);
+    }
+
+    /**
+     * Records that an object now exists
+     *
+     * @param id The object id
+     */
+    public synchronized void add(ObjectId id) {
+        if (!ids.add(id)) {
+            return;
+        }
+        if (ids.size() > capacity) {
+            // Rebuild a bigger filter so the false positive rate stays low
+            int newCapacity = capacity * 2;
+            AtomicLongArray newBits = new AtomicLongArray(wordsFor(newCapacity));
+            for (ObjectId known : ids) {
+                setBits(newBits, known);
+            }
+            capacity = newCapacity;
+            bits = newBits;
+        } else {
+            setBits(bits, id);
+        }
+    }
+
+    /**
+     * Forgets an object that has been deleted. The Bloom filter keeps its bits,
+     * which only costs an extra set lookup.
+     *
+     * @param id The object id
+     */
+    public synchronized void remove(ObjectId id) {
+        ids.remove(id);
+    }
+
+    /**
+     * @return The number of ids in the index
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    // Number of longs needed for a filter of this capacity
+    private static int wordsFor(int capacity) {
+        long bitCount = (long) capacity * BITS_PER_ID;
+        return (int) Math.min(Integer.MAX_VALUE - 8, (bitCount + 63) / 64);
+    }
+
+    private static boolean mightContain(AtomicLongArray bits, ObjectId id) {
+        long bitCount = (long) bits.length() * 64;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = bitPosition(id, i, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void setBits(AtomicLongArray bits, ObjectId id) {
+        long bitCount = (long) bits.length() * 64;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = bitPosition(id, i, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << (bit & 63);
+            long old = bits.get(word);
+            while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask)) {
+                old = bits.get(word);
+            }
+        }
+    }
+
+    // The i-th bit position for an id: 20 bits from the first 128 bits of the
+    // id, combined with 20 bits of the last 32 to cover filters larger than
+    // 2^20 bits
+    private static long bitPosition(ObjectId id, int i, long bitCount) {
+        long high = bits20(id, i * 18);
+        long low = (id.word(2) >>> (i * 2)) & 0xFFFFF;
+        return ((high << 20) | low) % bitCount;
+    }
+
+    // 20 bits of the id starting at a bit offset below 128
+    private static long bits20(ObjectId id, int start) {
+        long word = start < 64 ? id.word(0) : id.word(1);
+        int shift = start % 64;
+        if (shift + 20 <= 64) {
+            return (word >>> (64 - shift - 20)) & 0xFFFFF;
+        }
+        long next = id.word(1);
+        int fromNext = shift + 20 - 64;
+        return ((word << fromNext) | (next >>> (64 - fromNext))) & 0xFFFFF;
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Reads objects back out of a repository.
+ *
+ * open() streams an object's content, inflating it as the caller reads, so
+ * a big blob never has to fit in memory. A chunked blob (see
+ * MyRepo.setChunkThreshold) reads as the original file: its chunks are
+ * opened one after another as the stream reaches them. Only the
+ * Compression.CHUNK_LIST header bit makes an object a chunked blob, so a
+ * file whose content happens to look like a manifest reads back unchanged.
+ *
+ * readTree() parses a tree object into its entries and keeps the result in
+ * an LRU cache bounded by an estimate of its memory use, so walks that keep
+ * coming back to the same trees (diffs, status, checkouts) decode each one
+ * once. Cached entry lists are read-only and can be shared between threads.
+ *
+ * Usage:
+ *   try (InputStream in = repository.readObject(blobId)) { ... }
+ *   List<ObjectReader.TreeEntry> entries = repository.readTree(treeId);
+ */
+public class ObjectReader {
+
+    public static final long DEFAULT_TREE_CACHE_BYTES = 16L * 1024 * 1024;
+
+    // Rough heap cost of a cached tree and of each of its entries, on top of
+    // the characters of the entry's path
+    private static final int TREE_OVERHEAD = 64;
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * One line of a tree object
+     */
+    public static class TreeEntry {
+        public final String name;
+        public final String path;
+        public final boolean isTree;
+        public final ObjectId id;
+
+        public TreeEntry(String name, String path, boolean isTree, ObjectId id) {
+            this.name = name;
+            this.path = path;
+            this.isTree = isTree;
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return (isTree ? "tree " : "blob ") + id + " " + path;
+        }
+    }
+
+    // A parsed tree and what it is estimated to cost
+    private static class CachedTree {
+        final List<TreeEntry> entries;
+        final long bytes;
+
+        CachedTree(List<TreeEntry> entries, long bytes) {
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+    }
+
+    private MyRepo repository;
+    private long maxCacheBytes;
+    private long cachedBytes;
+    private LinkedHashMap<ObjectId, CachedTree> trees = new LinkedHashMap<>(64, 0.75f, true);
+    private long cacheHits;
+    private long treesDecoded;
+
+    /**
+     * @param repository    The repository to read from
+     * @param maxCacheBytes Roughly how much memory parsed trees may use, or 0
+     *                      to cache nothing
+     */
+    public ObjectReader(MyRepo repository, long maxCacheBytes) {
+        if (maxCacheBytes < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative: " + maxCacheBytes);
+        }
+        this.repository = repository;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    /**
+     * Opens an object's content as a stream
+     *
+     * @param id The object id
+     * @return The content; the caller closes it
+     */
+    public InputStream open(ObjectId id) {
+        boolean[] chunkList = new boolean[1];
+        InputStream in = openDecoded(id, chunkList);
+        if (!chunkList[0]) {
+            return in;
+        }
+        try {
+            List<ObjectId> chunks = parseChunks(id, in.readAllBytes());
+            in.close();
+            return openChunks(chunks);
+        } catch (IOException e) {
+            closeQuietly(in, e);
+            throw new RuntimeException("Error reading object " + id, e);
+        }
+    }
+
+    /**
+     * Lists the chunks a chunked blob is made of, reading only its manifest
+     *
+     * @param id The object id
+     * @return The chunk ids in file order, or an empty list if the object is
+     *         not a chunked blob
+     */
+    public List<ObjectId> chunkIds(ObjectId id) {
+        boolean[] chunkList = new boolean[1];
+        try (InputStream in = openDecoded(id, chunkList)) {
+            if (!chunkList[0]) {
+                return Collections.emptyList();
+            }
+            return parseChunks(id, in.readAllBytes());
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading object " + id, e);
+        }
+    }
+
+    /**
+     * Reads an object's whole content into memory
+     *
+     * @param id The object id
+     * @return The content
+     */
+    public byte[] readBytes(ObjectId id) {
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading object " + id, e);
+        }
+    }
+
+    /**
+     * Reads a tree object's entries, decoding it only if it is not cached
+     *
+     * @param id The tree id
+     * @return The entries in the order the tree lists them (files, then
+     *         folders); the list cannot be changed
+     */
+    public List<TreeEntry> readTree(ObjectId id) {
+        synchronized (trees) {
+            CachedTree cached = trees.get(id);
+            if (cached != null) {
+                cacheHits++;
+                return cached.entries;
+            }
+        }
+        CachedTree parsed = parseTree(id, readBytes(id));
+        synchronized (trees) {
+            treesDecoded++;
+            if (parsed.bytes <= maxCacheBytes && !trees.containsKey(id)) {
+                trees.put(id, parsed);
+                cachedBytes += parsed.bytes;
+                Iterator<CachedTree> oldest = trees.values().iterator();
+                while (cachedBytes > maxCacheBytes) {
+                    cachedBytes -= oldest.next().bytes;
+                    oldest.remove();
+                }
+            }
+        }
+        return parsed.entries;
+    }
+
+    /**
+     * @return How many readTree calls were answered from the cache
+     */
+    public long cacheHits() {
+        synchronized (trees) {
+            return cacheHits;
+        }
+    }
+
+    /**
+     * @return How many tree objects readTree has decoded
+     */
+    public long treesDecoded() {
+        synchronized (trees) {
+            return treesDecoded;
+        }
+    }
+
+    /**
+     * @return The estimated memory used by cached trees
+     */
+    public long cachedBytes() {
+        synchronized (trees) {
+            return cachedBytes;
+        }
+    }
+
+    // Turns "blob <hex> <path>" / "tree <hex> <path>" lines into entries
+    private static CachedTree parseTree(ObjectId id, byte[] content) {
+        String[] lines = new String(content, StandardCharsets.UTF_8).split("\n");
+        ArrayList<TreeEntry> entries = new ArrayList<>(lines.length);
+        long bytes = TREE_OVERHEAD;
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isEmpty()) {
+                continue;
+            }
+            String[] parts = lines[i].split(" ", 3);
+            if (parts.length != 3 || !ObjectId.isHex(parts[1])
+                    || !(parts[0].equals("blob") || parts[0].equals("tree"))) {
+                throw new IllegalArgumentException("Not a tree object: " + id);
+            }
+            String name = parts[2].substring(parts[2].lastIndexOf('/') + 1);
+            entries.add(new TreeEntry(name, parts[2], parts[0].equals("tree"), ObjectId.fromHex(parts[1])));
+            bytes += ENTRY_OVERHEAD + 2L * parts[2].length();
+        }
+        return new CachedTree(Collections.unmodifiableList(entries), bytes);
+    }
+
+    // An object's stored bytes, decoded as they are read. Sets chunkList[0]
+    // if the header byte marks the object as a chunked blob's manifest.
+    private InputStream openDecoded(ObjectId id, boolean[] chunkList) {
+        InputStream stored = repository.openStoredObject(id);
+        if (stored == null) {
+            throw new IllegalArgumentException("Object not found: " + id);
+        }
+        try {
+            PushbackInputStream peek = new PushbackInputStream(stored, 1);
+            int header = peek.read();
+            if (header != -1) {
+                peek.unread(header);
+            }
+            chunkList[0] = Compression.isChunkList(header);
+            return Compression.decodingStream(peek);
+        } catch (IOException e) {
+            closeQuietly(stored, e);
+            throw new RuntimeException("Error reading object " + id, e);
+        }
+    }
+
+    // The chunk ids in a manifest, after its first line:
+    //   size <bytes>
+    //   chunk <SHA1> <bytes>   (one line per chunk)
+    private static List<ObjectId> parseChunks(ObjectId id, byte[] manifest) {
+        String[] lines = new String(manifest, StandardCharsets.UTF_8).split("\n");
+        ArrayList<ObjectId> chunks = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].startsWith("chunk ")) {
+                String[] parts = lines[i].split(" ");
+                if (parts.length != 3 || !ObjectId.isHex(parts[1])) {
+                    throw new IllegalArgumentException("Bad chunk list in blob " + id);
+                }
+                chunks.add(ObjectId.fromHex(parts[1]));
+            }
+        }
+        return chunks;
+    }
+
+    // A stream that opens each chunk only when the previous one has been
+    // read to the end
+    private InputStream openChunks(List<ObjectId> chunks) {
+        Iterator<ObjectId> next = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return open(next.next());
+            }
+        });
+    }
+
+    // Closes a stream after an error, keeping the first error
+    private static void closeQuietly(InputStream in, IOException error) {
+        try {
+            in.close();
+        } catch (IOException closeError) {
+            error.addSuppressed(closeError);
+        }
+    }
+}
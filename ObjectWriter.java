@@ -0,0 +1,337 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Writes loose objects on a background thread so the thread that hashes and
+ * compresses them does not wait for the file system.
+ *
+ * Objects are handed over through a bounded queue; when the queue is full,
+ * submit() blocks until the writer catches up. The writer takes objects off
+ * the queue in batches of up to batchSize, or whatever arrived within
+ * windowMillis of the first one, and commits each batch in three steps:
+ *   1. write every object to a temp file and fsync it
+ *   2. rename every temp file to its object name
+ *   3. fsync every folder a file was renamed into
+ * An object name therefore only ever points at complete, durable content,
+ * and one batch costs a single round of folder syncs however many objects
+ * it holds.
+ *
+ * Until an object is renamed into place its bytes are kept in memory and
+ * returned by pending(), so readers see it straight away. flush() waits until
+ * everything submitted before it is on disk.
+ *
+ * If a batch fails, every object of it that was not renamed, and everything
+ * submitted after it, is dropped and reported to the onDropped callback.
+ * From then on submit() and flush() throw the failure. The thread keeps
+ * draining the queue, so a submit() blocked on a full queue is not stuck.
+ *
+ * Usage:
+ *   ObjectWriter writer = new ObjectWriter(1024, 256, 10);
+ *   writer.submit(id, objectFile, storedBytes);
+ *   writer.flush();
+ *   writer.close();
+ */
+public class ObjectWriter {
+
+    // One object waiting to be written: either its stored bytes, or a temp
+    // file that already holds them
+    private static class Pending {
+        final ObjectId id;
+        final File target;
+        final byte[] data;
+        File tempFile;
+
+        Pending(ObjectId id, File target, byte[] data, File tempFile) {
+            this.id = id;
+            this.target = target;
+            this.data = data;
+            this.tempFile = tempFile;
+        }
+    }
+
+    private final ArrayBlockingQueue<Pending> queue;
+    private final ConcurrentHashMap<ObjectId, Pending> pending = new ConcurrentHashMap<>();
+    private final int batchSize;
+    private final long windowNanos;
+    private final Thread thread;
+    private final Consumer<ObjectId> onDropped;
+    private final AtomicLong submitted = new AtomicLong();
+    // Guarded by this
+    private long written;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Starts the writer thread
+     *
+     * @param queueCapacity Most objects waiting at once before submit() blocks
+     * @param batchSize     Most objects committed by one group of fsyncs
+     * @param windowMillis  How long to wait for more objects before
+     *                      committing a batch that is not full
+     */
+    public ObjectWriter(int queueCapacity, int batchSize, long windowMillis) {
+        this(queueCapacity, batchSize, windowMillis, id -> {
+        });
+    }
+
+    /**
+     * Starts the writer thread
+     *
+     * @param queueCapacity Most objects waiting at once before submit() blocks
+     * @param batchSize     Most objects committed by one group of fsyncs
+     * @param windowMillis  How long to wait for more objects before
+     *                      committing a batch that is not full
+     * @param onDropped     Told the id of each object that was submitted but
+     *                      will never be written because a batch failed;
+     *                      called on the writer thread
+     */
+    public ObjectWriter(int queueCapacity, int batchSize, long windowMillis, Consumer<ObjectId> onDropped) {
+        if (queueCapacity < 1 || batchSize < 1 || windowMillis < 0) {
+            throw new IllegalArgumentException("Invalid object writer settings: queue " + queueCapacity
+                    + ", batch " + batchSize + ", window " + windowMillis);
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.onDropped = onDropped;
+        thread = new Thread(this::run, "object-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues an object's stored bytes to be written to its loose file
+     *
+     * @param id     The object id
+     * @param target The object's loose file; its folder must exist
+     * @param data   The stored (encoded) bytes; not copied, so must not change
+     * @throws IllegalStateException if the writer is closed
+     */
+    public void submit(ObjectId id, File target, byte[] data) {
+        enqueue(new Pending(id, target, data, null));
+    }
+
+    /**
+     * Queues a finished temp file to be synced and renamed to an object's
+     * loose file. The writer owns the temp file from now on.
+     *
+     * @param id       The object id
+     * @param target   The object's loose file; its folder must exist
+     * @param tempFile A file in the same file system holding the stored bytes
+     * @throws IllegalStateException if the writer is closed; the temp file
+     *                               then still belongs to the caller
+     */
+    public void submit(ObjectId id, File target, File tempFile) {
+        enqueue(new Pending(id, target, null, tempFile));
+    }
+
+    /**
+     * Returns the stored bytes of an object that has been submitted but not
+     * yet renamed into place
+     *
+     * @param id The object id
+     * @return The stored bytes, or null if the object is not waiting
+     */
+    public byte[] pending(ObjectId id) {
+        Pending waiting = pending.get(id);
+        if (waiting == null) {
+            return null;
+        }
+        if (waiting.data != null) {
+            return waiting.data;
+        }
+        try {
+            return Files.readAllBytes(waiting.tempFile.toPath());
+        } catch (NoSuchFileException e) {
+            return null; // renamed in the meantime
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading pending object " + id, e);
+        }
+    }
+
+    /**
+     * Waits until every object submitted before this call is renamed into
+     * place and synced
+     */
+    public void flush() {
+        long target = submitted.get();
+        synchronized (this) {
+            while (written < target && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while flushing objects", e);
+                }
+            }
+            checkFailure();
+        }
+    }
+
+    /**
+     * Flushes, then stops the writer thread. Further submits fail.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            flush();
+        } finally {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Records the object as pending and blocks while the queue is full. It
+    // is counted under the lock close() takes, so close() waits for it.
+    private void enqueue(Pending object) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Object writer is closed");
+            }
+            checkFailure();
+            pending.put(object.id, object);
+            submitted.incrementAndGet();
+        }
+        try {
+            queue.put(object);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing object " + object.id, e);
+        }
+    }
+
+    // Called holding the lock; rethrows the writer thread's failure
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Error writing objects", failure);
+        }
+    }
+
+    // Writer thread: collects a batch, commits it, repeats. After a failure
+    // it only drops what arrives.
+    private void run() {
+        ArrayList<Pending> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                synchronized (this) {
+                    if (failure != null) {
+                        drop(batch);
+                        batch.clear();
+                        continue;
+                    }
+                }
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < batchSize) {
+                    Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                try {
+                    commit(batch);
+                } catch (IOException e) {
+                    // Dropped before anyone waiting is woken, so a failed
+                    // flush() sees the objects gone
+                    synchronized (this) {
+                        drop(batch);
+                        failure = e;
+                        notifyAll();
+                    }
+                    batch.clear();
+                    continue;
+                }
+                synchronized (this) {
+                    written += batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    // Forgets the objects of a batch that were not renamed into place
+    private void drop(ArrayList<Pending> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            Pending object = batch.get(i);
+            if (pending.remove(object.id, object)) {
+                if (object.tempFile != null) {
+                    object.tempFile.delete();
+                }
+                onDropped.accept(object.id);
+            }
+        }
+    }
+
+    // Writes and syncs every temp file, renames them all, then syncs the
+    // folders they were renamed into
+    private void commit(ArrayList<Pending> batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            Pending object = batch.get(i);
+            if (object.tempFile == null) {
+                object.tempFile = File.createTempFile("incoming", ".tmp", object.target.getParentFile());
+                try (FileChannel channel = FileChannel.open(object.tempFile.toPath(), StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(object.data);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+            } else {
+                syncFile(object.tempFile);
+            }
+        }
+        LinkedHashSet<File> folders = new LinkedHashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Pending object = batch.get(i);
+            Files.move(object.tempFile.toPath(), object.target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            pending.remove(object.id, object);
+            folders.add(object.target.getParentFile());
+        }
+        for (File folder : folders) {
+            syncFolder(folder);
+        }
+    }
+
+    // Makes a file's content durable before it is renamed into place
+    static void syncFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    // Makes the renames into a folder durable. Some platforms cannot open a
+    // folder for syncing; there the rename is as durable as it gets.
+    static void syncFolder(File folder) {
+        try (FileChannel channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported here
+        }
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * A pack file that holds many objects in one file, plus its sorted index.
+ *
+ * Pack layout (pack-<name>.pack):
+ *   "PACK" <version int> <object count int>
+ *   the stored bytes of each object, back to back, in id order
+ *
+ * Index layout (pack-<name>.idx):
+ *   "PIDX" <version int>
+ *   fan-out: 256 ints, entry i = number of ids whose first byte is <= i
+ *   ids:     count x 20 bytes, sorted
+ *   offsets: count x long, where each object starts in the pack
+ *   lengths: count x int, how many bytes each object takes
+ *
+ * Both files are memory mapped when opened. Finding an object is a binary
+ * search inside the fan-out bucket of its first byte, and reading it copies
+ * straight out of the mapped pack. All reads use absolute positions, so one
+ * PackFile can be shared between threads.
+ */
+public class PackFile {
+
+    // Largest pack that can be mapped as a single buffer
+    public static final long MAX_PACK_SIZE = Integer.MAX_VALUE;
+
+    private static final int VERSION = 1;
+    private static final int PACK_HEADER_SIZE = 12;
+    private static final int INDEX_HEADER_SIZE = 8;
+    private static final int FANOUT_SIZE = 256 * 4;
+    private static final int ID_SIZE = 20;
+
+    private File packFile;
+    private MappedByteBuffer pack;
+    private MappedByteBuffer index;
+    private int count;
+    private int idsStart;
+    private int offsetsStart;
+    private int lengthsStart;
+
+    /**
+     * Supplies the stored bytes of an object while a pack is being written
+     */
+    public interface ObjectSource {
+        byte[] read(ObjectId id) throws IOException;
+    }
+
+    /**
+     * Opens and maps an existing pack and its .idx file
+     *
+     * @param packFile The .pack file; the index must sit next to it
+     * @throws IOException if either file is missing or not a valid pack
+     */
+    public PackFile(File packFile) throws IOException {
+        this.packFile = packFile;
+        pack = map(packFile);
+        index = map(indexFileFor(packFile));
+
+        if (pack.getInt(0) != magic("PACK") || index.getInt(0) != magic("PIDX")) {
+            throw new IOException("Not a pack file: " + packFile.getPath());
+        }
+        if (pack.getInt(4) != VERSION || index.getInt(4) != VERSION) {
+            throw new IOException("Unsupported pack version: " + packFile.getPath());
+        }
+        count = pack.getInt(8);
+        if (index.getInt(INDEX_HEADER_SIZE + FANOUT_SIZE - 4) != count) {
+            throw new IOException("Pack index does not match pack: " + packFile.getPath());
+        }
+        idsStart = INDEX_HEADER_SIZE + FANOUT_SIZE;
+        offsetsStart = idsStart + count * ID_SIZE;
+        lengthsStart = offsetsStart + count * 8;
+    }
+
+    /**
+     * @return The .pack file backing this pack
+     */
+    public File getFile() {
+        return packFile;
+    }
+
+    /**
+     * @return The number of objects in this pack
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the id stored at a position in the sorted index
+     *
+     * @param position A position from 0 to size() - 1
+     * @return The object id
+     */
+    public ObjectId idAt(int position) {
+        return ObjectId.fromBuffer(index, idsStart + position * ID_SIZE);
+    }
+
+    /**
+     * Returns the stored bytes of the object at a position in the sorted index
+     *
+     * @param position A position from 0 to size() - 1
+     * @return The object exactly as it was stored
+     */
+    public byte[] readAt(int position) {
+        long offset = index.getLong(offsetsStart + position * 8);
+        int length = index.getInt(lengthsStart + position * 4);
+        byte[] data = new byte[length];
+        pack.get((int) offset, data);
+        return data;
+    }
+
+    /**
+     * Opens a stream over the stored bytes of the object at a position,
+     * read straight out of the mapped pack without copying the whole object
+     *
+     * @param position A position from 0 to size() - 1
+     * @return The object exactly as it was stored
+     */
+    public InputStream openAt(int position) {
+        long offset = index.getLong(offsetsStart + position * 8);
+        int length = index.getInt(lengthsStart + position * 4);
+        ByteBuffer data = pack.slice((int) offset, length);
+        return new InputStream() {
+            @Override
+            public int read() {
+                return data.hasRemaining() ? data.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!data.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, data.remaining());
+                data.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return data.remaining();
+            }
+        };
+    }
+
+    /**
+     * Finds an object in the index
+     *
+     * @param id The object id
+     * @return The position of the object, or -1 if it is not in this pack
+     */
+    public int find(ObjectId id) {
+        int first = id.firstByte();
+        int low = first == 0 ? 0 : index.getInt(INDEX_HEADER_SIZE + (first - 1) * 4);
+        int high = index.getInt(INDEX_HEADER_SIZE + first * 4) - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = idAt(mid).compareTo(id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether this pack holds an object
+     *
+     * @param id The object id
+     * @return true if the object is in this pack, otherwise false
+     */
+    public boolean contains(ObjectId id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Checks whether this pack holds an object
+     *
+     * @param sha1 The object id in hex
+     * @return true if the object is in this pack, otherwise false
+     */
+    public boolean contains(String sha1) {
+        return contains(ObjectId.fromHex(sha1));
+    }
+
+    /**
+     * Reads an object out of the pack
+     *
+     * @param id The object id
+     * @return The stored bytes, or null if the object is not in this pack
+     */
+    public byte[] read(ObjectId id) {
+        int position = find(id);
+        if (position < 0) {
+            return null;
+        }
+        return readAt(position);
+    }
+
+    /**
+     * Reads an object out of the pack
+     *
+     * @param sha1 The object id in hex
+     * @return The stored bytes, or null if the object is not in this pack
+     */
+    public byte[] read(String sha1) {
+        return read(ObjectId.fromHex(sha1));
+    }
+
+    /**
+     * Writes a new pack and index into packDir. Objects are taken from
+     * sortedIds starting at fromIndex until the list runs out or the pack
+     * would grow past MAX_PACK_SIZE; check size() on the result to see how
+     * many were written.
+     *
+     * @param packDir   The folder to write the pack into
+     * @param sortedIds Object ids in ascending order
+     * @param fromIndex The first id in sortedIds to pack
+     * @param source    Where to read each object's stored bytes from
+     * @return The newly written pack, already opened and synced to disk
+     * @throws IOException if the pack cannot be written, or an object is
+     *                     missing from the source
+     */
+    public static PackFile write(File packDir, List<ObjectId> sortedIds, int fromIndex, ObjectSource source)
+            throws IOException {
+        packDir.mkdirs();
+        File tempPack = File.createTempFile("pack", ".tmp", packDir);
+        File tempIndex = File.createTempFile("idx", ".tmp", packDir);
+        try {
+            int[] fanout = new int[256];
+            long[] offsets = new long[sortedIds.size() - fromIndex];
+            int[] lengths = new int[offsets.length];
+            int written = 0;
+
+            try (RandomAccessFile raf = new RandomAccessFile(tempPack, "rw")) {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(raf.getFD()), 65536));
+                out.writeInt(magic("PACK"));
+                out.writeInt(VERSION);
+                out.writeInt(0); // count is patched in below
+                long offset = PACK_HEADER_SIZE;
+                for (int i = fromIndex; i < sortedIds.size(); i++) {
+                    byte[] data = source.read(sortedIds.get(i));
+                    if (data == null) {
+                        throw new IOException("Object " + sortedIds.get(i) + " is missing and cannot be packed");
+                    }
+                    if (written > 0 && offset + data.length > MAX_PACK_SIZE) {
+                        break;
+                    }
+                    out.write(data);
+                    offsets[written] = offset;
+                    lengths[written] = data.length;
+                    offset += data.length;
+                    fanout[sortedIds.get(i).firstByte()]++;
+                    written++;
+                }
+                out.flush();
+                raf.seek(8);
+                raf.writeInt(written);
+                raf.getChannel().force(true);
+            }
+
+            MessageDigest md = Sha1Generator.threadDigest();
+            FileOutputStream indexOut = new FileOutputStream(tempIndex);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(indexOut, 65536))) {
+                out.writeInt(magic("PIDX"));
+                out.writeInt(VERSION);
+                int total = 0;
+                for (int i = 0; i < 256; i++) {
+                    total += fanout[i];
+                    out.writeInt(total);
+                }
+                byte[] id = new byte[ID_SIZE];
+                for (int i = 0; i < written; i++) {
+                    sortedIds.get(fromIndex + i).copyRawTo(id, 0);
+                    md.update(id);
+                    out.write(id);
+                }
+                for (int i = 0; i < written; i++) {
+                    out.writeLong(offsets[i]);
+                }
+                for (int i = 0; i < written; i++) {
+                    out.writeInt(lengths[i]);
+                }
+                out.flush();
+                indexOut.getChannel().force(true);
+            }
+
+            // The pack is named after the ids it holds; the index is moved in
+            // last so a half-written pack is never picked up. Both files were
+            // synced above and the folder is synced after the renames, so
+            // callers may delete the objects' other copies once this returns.
+            String name = "pack-" + Sha1Generator.toHex(md.digest());
+            File finalPack = new File(packDir, name + ".pack");
+            Files.move(tempPack.toPath(), finalPack.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempIndex.toPath(), indexFileFor(finalPack).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            ObjectWriter.syncFolder(packDir);
+            return new PackFile(finalPack);
+        } finally {
+            tempPack.delete();
+            tempIndex.delete();
+        }
+    }
+
+    /**
+     * Returns the .idx file that belongs to a .pack file
+     *
+     * @param packFile The .pack file
+     * @return The matching .idx file
+     */
+    public static File indexFileFor(File packFile) {
+        String name = packFile.getName();
+        return new File(packFile.getParentFile(), name.substring(0, name.length() - ".pack".length()) + ".idx");
+    }
+
+    // Maps a whole file read-only
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // Four ASCII characters packed into an int
+    private static int magic(String tag) {
+        byte[] b = tag.getBytes(StandardCharsets.US_ASCII);
+        return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+    }
+}
@@ -1,25 +1,179 @@
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 //https://ssojet.com/hashing/sha-1-in-java/
 
+/**
+ * SHA-1 hashing for strings, byte arrays, buffers and streams.
+ *
+ * Each thread keeps one MessageDigest and one hex char buffer and reuses
+ * them for every call, so hashing does not allocate apart from the result.
+ * The digest() methods return the raw 20 bytes for callers that do not need
+ * the hex form; the generateSha1() methods return hex.
+ */
 public class Sha1Generator {
+
+    public static final int HASH_LENGTH = 20;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(Sha1Generator::newDigest);
+    private static final ThreadLocal<char[]> HEX_BUFFER = ThreadLocal.withInitial(() -> new char[HASH_LENGTH * 2]);
+    private static final ThreadLocal<byte[]> READ_BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
+
     /**
      * Generates a SHA-1 hash from the input string
-     * 
+     *
      * @param input The string to generate SHA-1 hash for
      * @return The SHA-1 hash as a string
      * @throws Exception if SHA-1 algorithm is not available or hashing fails
      */
     public static String generateSha1(String input) throws Exception {
-        MessageDigest md = MessageDigest.getInstance("SHA-1");
-        byte[] hashBytes = md.digest(input.getBytes(StandardCharsets.UTF_8));
+        return toHex(digest(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Generates a SHA-1 hash of a byte array
+     *
+     * @param data The bytes to hash
+     * @return The SHA-1 hash in hex
+     */
+    public static String generateSha1(byte[] data) {
+        return toHex(digest(data, 0, data.length));
+    }
+
+    /**
+     * Generates a SHA-1 hash of the remaining bytes of a buffer, which may be
+     * direct or memory mapped
+     *
+     * @param data The buffer to hash; its position is moved to its limit
+     * @return The SHA-1 hash in hex
+     */
+    public static String generateSha1(ByteBuffer data) {
+        return toHex(digest(data));
+    }
+
+    /**
+     * Generates a SHA-1 hash of everything left in a stream, reading it in
+     * blocks without holding it in memory
+     *
+     * @param in The stream to hash; it is read to the end but not closed
+     * @return The SHA-1 hash in hex
+     * @throws IOException if the stream cannot be read
+     */
+    public static String generateSha1(InputStream in) throws IOException {
+        return toHex(digest(in));
+    }
+
+    /**
+     * Hashes a byte array
+     *
+     * @param data The bytes to hash
+     * @return The raw 20 byte hash
+     */
+    public static byte[] digest(byte[] data) {
+        return digest(data, 0, data.length);
+    }
+
+    /**
+     * Hashes part of a byte array
+     *
+     * @param data The bytes to hash
+     * @param off  Where to start
+     * @param len  How many bytes to hash
+     * @return The raw 20 byte hash
+     */
+    public static byte[] digest(byte[] data, int off, int len) {
+        MessageDigest md = threadDigest();
+        md.update(data, off, len);
+        return md.digest();
+    }
+
+    /**
+     * Hashes the remaining bytes of a buffer
+     *
+     * @param data The buffer to hash; its position is moved to its limit
+     * @return The raw 20 byte hash
+     */
+    public static byte[] digest(ByteBuffer data) {
+        MessageDigest md = threadDigest();
+        md.update(data);
+        return md.digest();
+    }
+
+    /**
+     * Hashes everything left in a stream
+     *
+     * @param in The stream to hash; it is read to the end but not closed
+     * @return The raw 20 byte hash
+     * @throws IOException if the stream cannot be read
+     */
+    public static byte[] digest(InputStream in) throws IOException {
+        MessageDigest md = threadDigest();
+        byte[] buffer = READ_BUFFER.get();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            md.update(buffer, 0, read);
+        }
+        return md.digest();
+    }
+
+    /**
+     * Returns this thread's SHA-1 digest, reset and ready for update() calls.
+     * Callers must finish with digest() before hashing anything else on the
+     * same thread, since every method in this class shares it.
+     *
+     * @return The reusable digest for the current thread
+     */
+    public static MessageDigest threadDigest() {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * Converts a finished digest into its lowercase hex form
+     *
+     * @param hashBytes The raw digest bytes
+     * @return The digest as a hex string
+     */
+    public static String toHex(byte[] hashBytes) {
+        char[] chars = hashBytes.length <= HASH_LENGTH ? HEX_BUFFER.get() : new char[hashBytes.length * 2];
+        for (int i = 0; i < hashBytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(hashBytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[hashBytes[i] & 0xf];
+        }
+        return new String(chars, 0, hashBytes.length * 2);
+    }
+
+    /**
+     * Converts a 40 character hex hash back into its 20 raw bytes
+     *
+     * @param hex The hash in hex form
+     * @return The raw digest bytes
+     */
+    public static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Not a hex hash: " + hex);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
 
-        StringBuilder sb = new StringBuilder();
-        for (byte b : hashBytes) {
-            sb.append(String.format("%02x", b));
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
         }
-        return sb.toString();
     }
 
-}
\ No newline at end of file
+}
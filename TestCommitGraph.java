@@ -0,0 +1,65 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestCommitGraph {
+
+    public static void main(String[] args) {
+        System.out.println("=== CommitGraph Tester ===");
+        File file = new File("TestCommitGraph.graph");
+        ObjectId tree = id("tree");
+        ObjectId root = id("root");
+        ObjectId a = id("a");
+        ObjectId b = id("b");
+        ObjectId c = id("c");
+        ObjectId octopus = id("octopus");
+
+        ArrayList<CommitGraph.Row> rows = new ArrayList<>();
+        rows.add(new CommitGraph.Row(octopus, tree, Arrays.asList(a, b, c), 50));
+        rows.add(new CommitGraph.Row(c, tree, Arrays.asList(b), 40));
+        rows.add(new CommitGraph.Row(b, tree, Arrays.asList(root), 30));
+        rows.add(new CommitGraph.Row(a, tree, Arrays.asList(root), 20));
+        rows.add(new CommitGraph.Row(root, tree, Collections.emptyList(), 10));
+        try {
+            CommitGraph.write(file, rows);
+            CommitGraph graph = new CommitGraph(file);
+            System.out.println("Size: " + graph.size()); // 5
+
+            int pos = graph.find(octopus);
+            System.out.println("Generations: root " + graph.generationAt(graph.find(root)) + ", c "
+                    + graph.generationAt(graph.find(c)) + ", octopus " + graph.generationAt(pos)); // root 1, c 3, octopus 4
+            int[] parents = graph.parentsAt(pos);
+            ArrayList<ObjectId> parentIds = new ArrayList<>();
+            for (int i = 0; i < parents.length; i++) {
+                parentIds.add(graph.idAt(parents[i]));
+            }
+            System.out.println("Three parents kept in order: " + parentIds.equals(Arrays.asList(a, b, c))); // true
+            System.out.println("Root has no parents: " + graph.parentsAt(graph.find(root)).length); // 0
+            System.out.println("Time and tree: " + graph.timeAt(pos) + " " + graph.treeAt(pos).equals(tree)); // 50 true
+            System.out.println("Missing commit: " + graph.find(id("missing"))); // -1
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Every parent must be in the graph
+        try {
+            List<CommitGraph.Row> broken = Arrays.asList(new CommitGraph.Row(a, tree, Arrays.asList(root), 20));
+            CommitGraph.write(file, broken);
+            System.out.println("Missing parent rejected: false");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Missing parent rejected: true"); // true
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Cleanup: " + file.delete()); // true
+        System.out.println("=== Test Finished ===");
+    }
+
+    private static ObjectId id(String name) {
+        return ObjectId.fromRaw(Sha1Generator.digest(name.getBytes()));
+    }
+}
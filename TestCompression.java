@@ -1,3 +1,12 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
 public class TestCompression {
     public static void main(String[] args) {
         String data = "Hello World";
@@ -14,5 +23,56 @@ public class TestCompression {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        testByteCodec();
+    }
+
+    // Tests the byte codec: deflated text, raw small and random content,
+    // the stream variants and reading old Base64 objects
+    public static void testByteCodec() {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                sb.append("line ").append(i).append('\n');
+            }
+            byte[] text = sb.toString().getBytes("UTF-8");
+            byte[] encodedText = Compression.encode(text);
+            System.out.println("Text is deflated: " + (encodedText[0] == Compression.DEFLATED)); // true
+            System.out.println("Text round trips: " + Arrays.equals(text, Compression.decode(encodedText))); // true
+            System.out.println("Newlines kept: "
+                    + Compression.decompress(Compression.compress("a\nb\n")).equals("a\nb\n")); // true
+
+            byte[] small = "tiny".getBytes("UTF-8");
+            System.out.println("Small content stored raw: " + (Compression.encode(small)[0] == Compression.STORED)); // true
+
+            byte[] random = new byte[100000];
+            new Random(3).nextBytes(random);
+            byte[] encodedRandom = Compression.encode(random);
+            System.out.println("Random content stored raw: " + (encodedRandom[0] == Compression.STORED)); // true
+            System.out.println("Random round trips: " + Arrays.equals(random, Compression.decode(encodedRandom))); // true
+
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            OutputStream out = Compression.encodingStream(stored, 9, true);
+            out.write(text);
+            out.close();
+            InputStream in = Compression.decodingStream(new ByteArrayInputStream(stored.toByteArray()));
+            System.out.println("Stream round trips: " + Arrays.equals(text, in.readAllBytes())); // true
+            in.close();
+
+            ByteArrayOutputStream channelStored = new ByteArrayOutputStream();
+            Compression.ChannelEncoder encoder = new Compression.ChannelEncoder(
+                    Channels.newChannel(channelStored), 9, true);
+            ByteBuffer direct = ByteBuffer.allocateDirect(text.length);
+            direct.put(text).flip();
+            encoder.write(direct);
+            encoder.finish();
+            System.out.println("Channel encoder round trips: "
+                    + Arrays.equals(text, Compression.decode(channelStored.toByteArray()))); // true
+
+            byte[] legacy = Compression.compress("old object").getBytes("UTF-8");
+            System.out.println("Old Base64 object readable: "
+                    + new String(Compression.decode(legacy), "UTF-8").equals("old object")); // true
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 }
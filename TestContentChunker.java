@@ -0,0 +1,92 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class TestContentChunker {
+
+    public static void main(String[] args) {
+        System.out.println("=== ContentChunker Tester ===");
+        runChunkSizeTest();
+        runChunkedBlobTest();
+    }
+
+    public static void runChunkSizeTest() {
+        byte[] data = randomBytes(2 * 1024 * 1024, 1);
+        ArrayList<Integer> sizes = new ArrayList<>();
+        try {
+            ContentChunker.split(new ByteArrayInputStream(data), (buffer, length) -> sizes.add(length));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        long total = 0;
+        boolean sizesInRange = true;
+        for (int i = 0; i < sizes.size(); i++) {
+            total += sizes.get(i);
+            boolean last = i == sizes.size() - 1;
+            if (sizes.get(i) > ContentChunker.MAX_SIZE || (!last && sizes.get(i) < ContentChunker.MIN_SIZE)) {
+                sizesInRange = false;
+            }
+        }
+        System.out.println("Chunk count: " + sizes.size()); // around 2 MB / 64 KB
+        System.out.println("Chunks cover all bytes: " + (total == data.length)); // true
+        System.out.println("Chunk sizes within limits: " + sizesInRange); // true
+    }
+
+    public static void runChunkedBlobTest() {
+        MyRepo repository = new MyRepo("ChunkRepo", true);
+        repository.setChunkThreshold(1024 * 1024);
+        File objectsFolder = new File(repository.gitFolder, "objects");
+        File bigFile = new File("ChunkRepo/big.bin");
+        byte[] data = randomBytes(3 * 1024 * 1024, 2);
+
+        try {
+            writeBytes(bigFile, data);
+            repository.createBlobFromFile(bigFile);
+            int firstCount = countObjects(objectsFolder);
+            System.out.println("Objects after first version: " + firstCount); // chunks + manifest
+
+            // Change one byte in the middle: only the chunk around it is new
+            data[data.length / 2]++;
+            writeBytes(bigFile, data);
+            repository.createBlobFromFile(bigFile);
+            int secondCount = countObjects(objectsFolder);
+            System.out.println("New objects after one byte change: " + (secondCount - firstCount)); // 2 or 3
+
+            // Insert bytes at the front: boundaries shift with the content
+            byte[] shifted = new byte[data.length + 100];
+            System.arraycopy(data, 0, shifted, 100, data.length);
+            writeBytes(bigFile, shifted);
+            repository.createBlobFromFile(bigFile);
+            int thirdCount = countObjects(objectsFolder);
+            System.out.println("New objects after inserting at start: " + (thirdCount - secondCount)); // 2 or 3
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void writeBytes(File file, byte[] data) throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+    }
+
+    private static int countObjects(File folder) {
+        int count = 0;
+        for (File file : folder.listFiles()) {
+            count += file.isDirectory() ? countObjects(file) : 1;
+        }
+        return count;
+    }
+}
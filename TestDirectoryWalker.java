@@ -0,0 +1,80 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+public class TestDirectoryWalker {
+
+    public static void main(String[] args) {
+        System.out.println("=== DirectoryWalker Tester ===");
+        File root = new File("WalkerTest");
+        File outside = new File("WalkerOutside");
+        try {
+            write("WalkerTest/b.txt", "b");
+            write("WalkerTest/a.txt", "a");
+            write("WalkerTest/sub/c.txt", "c");
+            write("WalkerTest/skip/d.txt", "d");
+            write("WalkerOutside/target.txt", "target");
+            Files.createSymbolicLink(new File(root, "link.txt").toPath(),
+                    new File(outside, "target.txt").getAbsoluteFile().toPath());
+            Files.createSymbolicLink(new File(root, "linkdir").toPath(), outside.getAbsoluteFile().toPath());
+            Files.createSymbolicLink(new File(root, "broken").toPath(),
+                    new File(outside, "missing").getAbsoluteFile().toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        // Links to files count as files, links to folders and broken links are left out
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(root);
+        for (int i = 0; i < children.size(); i++) {
+            names.add(children.get(i).name + (children.get(i).isDirectory() ? "/" : ""));
+        }
+        System.out.println("Listing: " + names); // [a.txt, b.txt, link.txt, skip/, sub/]
+        System.out.println("Link has target's size: " + (children.get(2).attrs.size() == 6)); // true
+
+        ArrayList<String> walked = new ArrayList<>();
+        DirectoryWalker.walkFiles(root, new File(root, "skip"), file -> walked.add(file.name));
+        walked.sort(null);
+        System.out.println("Walked files: " + walked); // [a.txt, b.txt, c.txt, link.txt]
+
+        int[] visited = new int[1];
+        boolean finished = DirectoryWalker.walkFiles(root, null, file -> ++visited[0] < 2);
+        System.out.println("Stopped early: " + (!finished && visited[0] == 2)); // true
+
+        System.out.println("Missing folder lists empty: " + DirectoryWalker.list(new File(root, "nope")).size()); // 0
+
+        // A big folder is listed and sorted in one pass
+        File big = new File(root, "big");
+        big.mkdirs();
+        try {
+            for (int i = 20000; i > 0; i--) {
+                new File(big, "f" + i).createNewFile();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        long start = System.nanoTime();
+        ArrayList<DirectoryWalker.Entry> bigList = DirectoryWalker.list(big);
+        long millis = (System.nanoTime() - start) / 1000000;
+        boolean sorted = true;
+        for (int i = 1; i < bigList.size(); i++) {
+            sorted &= bigList.get(i - 1).name.compareTo(bigList.get(i).name) < 0;
+        }
+        System.out.println("20000 entries sorted: " + (bigList.size() == 20000 && sorted)); // true
+        System.out.println("Listed in under 5 seconds: " + (millis < 5000)); // true
+
+        // Deleting does not follow links out of the folder
+        System.out.println("Folder deleted: " + DirectoryWalker.delete(root)); // true
+        System.out.println("Link target kept: " + new File(outside, "target.txt").exists()); // true
+        System.out.println("Cleanup: " + DirectoryWalker.delete(outside)); // true
+        System.out.println("=== Test Finished ===");
+    }
+
+    private static void write(String path, String content) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content);
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.File;
+import java.io.IOException;
+
+public class TestFileNameIndex {
+
+    public static void main(String[] args) {
+        System.out.println("=== FileNameIndex Tester ===");
+        MyRepo repository = new MyRepo("NameRepo", true);
+        try {
+            new File("NameRepo/a/b").mkdirs();
+            new File("NameRepo/c").mkdirs();
+            new File("NameRepo/a/notes.txt").createNewFile();
+            new File("NameRepo/a/b/unique.txt").createNewFile();
+            new File("NameRepo/c/notes.txt").createNewFile();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Unique file: " + repository.findFile("unique.txt")); // NameRepo/a/b/unique.txt
+        System.out.println("Matches for notes.txt: " + repository.findFiles("notes.txt")); // [NameRepo/a/notes.txt, NameRepo/c/notes.txt]
+        System.out.println("First match for notes.txt: " + repository.findFile("notes.txt")); // NameRepo/a/notes.txt
+        System.out.println("Missing file found: " + repository.includesFile("missing.txt")); // false
+
+        // Ambiguous names are never acted on
+        System.out.println("Blob from ambiguous name: " + repository.createBlobFile("notes.txt")); // false
+        System.out.println("Removed ambiguous name: " + repository.removeFile("notes.txt")); // false
+
+        // A miss lists again only the folders that changed, so files made
+        // outside MyRepo are still found
+        try {
+            new File("NameRepo/c/later.txt").createNewFile();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("File created later found: " + repository.includesFile("later.txt")); // true
+
+        // Folders untouched since long before they were listed are not listed again
+        long old = System.currentTimeMillis() - 60000;
+        File[] folders = { new File("NameRepo/idle"), new File("NameRepo/idle/deeper") };
+        folders[1].mkdirs();
+        for (int i = folders.length - 1; i >= 0; i--) {
+            folders[i].setLastModified(old);
+        }
+        FileNameIndex names = new FileNameIndex(new File("NameRepo/idle"), null);
+        System.out.println("Refresh with nothing changed: " + names.refresh()); // false
+        try {
+            new File("NameRepo/idle/deeper/new.txt").createNewFile();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Refresh after a create: " + names.refresh()); // true
+        System.out.println("New file indexed: " + names.paths("new.txt")); // [NameRepo/idle/deeper/new.txt]
+        new File("NameRepo/idle/deeper/new.txt").delete();
+        names.refresh();
+        System.out.println("Deleted file forgotten: " + names.paths("new.txt")); // []
+
+        // The repository's own deletes keep the index current
+        System.out.println("Removed unique.txt: " + repository.removeFile("unique.txt")); // true
+        System.out.println("unique.txt still found: " + repository.includesFile("unique.txt")); // false
+        System.out.println("Removed folder c: " + repository.removeDirectory("c")); // true
+        System.out.println("Matches for notes.txt: " + repository.findFiles("notes.txt")); // [NameRepo/a/notes.txt]
+        System.out.println("Blob from now unique name: " + repository.createBlobFile("notes.txt")); // true
+
+        // Files deleted behind the repository's back are noticed too
+        new File("NameRepo/a/notes.txt").delete();
+        System.out.println("Deleted file still found: " + repository.includesFile("notes.txt")); // false
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+}
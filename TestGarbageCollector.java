@@ -0,0 +1,124 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+public class TestGarbageCollector {
+
+    public static void main(String[] args) {
+        System.out.println("=== GarbageCollector Tester ===");
+        MyRepo repository = new MyRepo("GcRepo", false);
+        GitTreeBuilder builder = new GitTreeBuilder(repository);
+        GitCommit commits = new GitCommit(repository);
+        byte[] big = new byte[2 * 1024 * 1024];
+        new Random(3).nextBytes(big);
+        ObjectId oldBlob;
+        ObjectId oldTree;
+        ObjectId head;
+        ObjectId stray;
+        ObjectId sideTree;
+        try {
+            write("GcRepo/app/a.txt", "one".getBytes());
+            write("GcRepo/app/lib/b.txt", "b".getBytes());
+            oldBlob = repository.hashBlob(new File("GcRepo/app/a.txt"));
+            oldTree = builder.addDirectoryId("app");
+
+            // The first snapshot is replaced before it is ever committed
+            write("GcRepo/app/a.txt", "two".getBytes());
+            repository.setChunkThreshold(1024 * 1024);
+            write("GcRepo/app/big.bin", big);
+            head = commits.commit(builder.addDirectoryId("app"), "Ryan", "Second snapshot");
+            repository.setChunkThreshold(0);
+
+            stray = repository.writeObjectId("nobody refers to this");
+
+            // A commit only a named ref points at
+            write("GcRepo/side/c.txt", "side".getBytes());
+            sideTree = builder.addDirectoryId("side");
+            ObjectId side = commits.writeCommit(sideTree, Collections.emptyList(), "Ann", 1, "Side");
+            write("GcRepo/git/refs/side", (side.toHex() + "\n").getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        // Everything is younger than the default grace period
+        System.out.println("Nothing removed inside the grace period: " + repository.gc().removed); // 0
+
+        sleep();
+        GarbageCollector.Result result = repository.gc(0);
+        System.out.println("Removed at least the stray object and old snapshot: " + (result.removed >= 3)); // true
+        System.out.println("Bytes reclaimed: " + (result.bytesReclaimed > 0)); // true
+        System.out.println("Stray object gone: " + !repository.hasObject(stray)); // true
+        System.out.println("Old blob gone: " + !repository.hasObject(oldBlob)); // true
+        System.out.println("Old tree gone: " + !repository.hasObject(oldTree)); // true
+        System.out.println("Side tree kept by its ref: " + repository.hasObject(sideTree)); // true
+
+        ObjectId headTree = commits.readCommit(head).tree;
+        System.out.println("Head tree intact: " + readsBack(repository, headTree)); // true
+        System.out.println("Nothing more to remove: " + repository.gc(0).removed); // 0
+
+        // An old unreachable object that a new write reuses counts as just written
+        ObjectId reused = repository.writeObjectId("written long ago, then reused");
+        repository.looseObjectFile(reused).setLastModified(System.currentTimeMillis() - 60000);
+        repository.writeObjectId("written long ago, then reused");
+        System.out.println("Reused object kept: "
+                + (repository.gc(30000).removed == 0 && repository.hasObject(reused))); // true
+        repository.looseObjectFile(reused).setLastModified(System.currentTimeMillis() - 60000);
+        System.out.println("Removed once left alone: " + (repository.gc(30000).removed == 1)); // true
+
+        // Unreachable objects inside a pack are dropped when the pack is rewritten
+        ObjectId packedStray = repository.writeObjectId("packed, but nobody refers to this either");
+        repository.repack();
+        File[] packFiles = new File("GcRepo/git/objects/pack").listFiles();
+        for (int i = 0; i < packFiles.length; i++) {
+            packFiles[i].setLastModified(System.currentTimeMillis() - 60000);
+        }
+        GarbageCollector.Result packed = repository.gc(1000);
+        System.out.println("Packed stray removed: " + (packed.removed == 1 && !repository.hasObject(packedStray))); // true
+        System.out.println("Head tree intact after pack rewrite: " + readsBack(repository, headTree)); // true
+        System.out.println("Result: " + packed.toString().contains("1 removed")); // true
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    // Reads every blob under a tree back to the end, including chunked ones
+    private static boolean readsBack(MyRepo repository, ObjectId tree) {
+        for (ObjectReader.TreeEntry entry : repository.readTree(tree)) {
+            if (entry.isTree) {
+                if (!readsBack(repository, entry.id)) {
+                    return false;
+                }
+                continue;
+            }
+            try (InputStream in = repository.readObject(entry.id)) {
+                byte[] content = in.readAllBytes();
+                if (!Arrays.equals(content, Files.readAllBytes(new File("GcRepo/" + entry.path).toPath()))) {
+                    return false;
+                }
+            } catch (Exception e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Lets the clock move past the newest object's mtime
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void write(String path, byte[] content) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+    }
+}
@@ -1,14 +1,19 @@
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
 
 public class TestGit {
     public static void main(String[] args) {
         testBasicRepoOperations();
         testBlobFileCreation();
         testIndexOperations();
+        testBinaryBlobCreation();
+        testLargeBlobCreation();
+        testObjectLayoutMigration();
         // MyRepo.cleanupLocalFiles();
     }
 
@@ -79,8 +84,8 @@ public class TestGit {
         // Test blob file creation and verification
         try {
             repo2.createBlobFile(file2.getName());
-            File blobFile = new File(repo2.gitFolder.getPath() + "/objects/"
-                    + Sha1Generator.generateSha1(Compression.compress("Hello World\n")));
+            // Blob ids are the hash of the raw file bytes, so no newline is added
+            File blobFile = repo2.looseObjectFile(ObjectId.fromHex(Sha1Generator.generateSha1("Hello World")));
             System.out.println("Blob file exists: " + blobFile.exists()); // true
         } catch (Exception e) {
             e.printStackTrace();
@@ -126,19 +131,16 @@ public class TestGit {
         try {
             repo3.createBlobFile(file3.getName());
             repo3.createBlobFile(file4.getName());
-            String blobHash = Sha1Generator.generateSha1(Compression.compress("Hello World\n"));
+            String blobHash = Sha1Generator.generateSha1("Hello World");
 
             System.out.println("Adding files to index:");
             System.out.println(repo3.addFileToIndex(blobHash, file3.getName())); // true
             System.out.println(repo3.addFileToIndex(blobHash, file4.getName())); // true
 
             System.out.println("Index contents:");
-            BufferedReader br = new BufferedReader(new FileReader("NewRepo/git/index"));
-            String line = br.readLine();
-            System.out.println(line); // blob hash and file name
-            line = br.readLine();
-            System.out.println(line); // blob hash and file name
-            br.close();
+            for (GitIndex.Entry entry : repo3.getIndex().entries()) {
+                System.out.println(entry); // blob hash and file path
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -149,4 +151,102 @@ public class TestGit {
 
     }
 
+    // Tests that blobs keep binary content byte for byte
+    public static void testBinaryBlobCreation() {
+        System.out.println();
+        System.out.println("Testing Binary Blob Creation");
+
+        MyRepo repo4 = new MyRepo("NewRepo", true);
+        File binFile = new File("NewRepo/data.bin");
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+
+        try {
+            FileOutputStream out = new FileOutputStream(binFile);
+            out.write(data);
+            out.close();
+
+            String blobHash = repo4.createBlobFromFile(binFile);
+            File blobFile = repo4.looseObjectFile(ObjectId.fromHex(blobHash));
+            System.out.println("Blob file exists: " + blobFile.exists()); // true
+
+            // Decode the stored object and compare with the original bytes
+            byte[] restored = Compression.decode(Files.readAllBytes(blobFile.toPath()));
+            System.out.println("Binary content preserved: " + Arrays.equals(data, restored)); // true
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Final cleanup:");
+        System.out.println(repo4.cleanup()); // true
+    }
+
+    // Tests the buffered and memory-mapped read paths with files on both
+    // sides of the mapping threshold, compressible and not
+    public static void testLargeBlobCreation() {
+        System.out.println();
+        System.out.println("Testing Large Blob Creation");
+
+        MyRepo repo6 = new MyRepo("NewRepo", true);
+        int[] sizes = { 200000, 3 * 1024 * 1024 };
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                byte[] text = new byte[sizes[i]];
+                for (int j = 0; j < text.length; j++) {
+                    text[j] = (byte) ('a' + (j / 7) % 26);
+                }
+                byte[] random = new byte[sizes[i]];
+                new Random(i).nextBytes(random);
+                checkLargeBlob(repo6, "text" + i + ".txt", text);
+                checkLargeBlob(repo6, "random" + i + ".bin", random);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Final cleanup:");
+        System.out.println(repo6.cleanup()); // true
+    }
+
+    // Stores a file twice and checks its id and content
+    private static void checkLargeBlob(MyRepo repo, String name, byte[] data) throws IOException {
+        File file = new File(repo.repoFolder, name);
+        Files.write(file.toPath(), data);
+        String blobHash = repo.createBlobFromFile(file);
+        byte[] restored = Compression.decode(repo.readStoredObject(blobHash));
+        System.out.println(name + " id is SHA-1 of content: " + blobHash.equals(Sha1Generator.generateSha1(data))
+                + ", round trips: " + Arrays.equals(data, restored)
+                + ", same id again: " + blobHash.equals(repo.createBlobFromFile(file))); // true, true, true
+    }
+
+    // Tests moving loose objects between the flat and fan-out layouts
+    public static void testObjectLayoutMigration() {
+        System.out.println();
+        System.out.println("Testing Object Layout Migration");
+
+        MyRepo repo5 = new MyRepo("NewRepo", true);
+        String hash = repo5.writeObject("layout test");
+        File objectsFolder = new File(repo5.gitFolder, "objects");
+
+        System.out.println("Stored in fan-out folder: "
+                + new File(objectsFolder, hash.substring(0, 2) + "/" + hash.substring(2)).exists()); // true
+
+        System.out.println("Objects moved to flat layout: " + repo5.migrateObjectLayout(0)); // 1
+        System.out.println("Stored flat: " + new File(objectsFolder, hash).exists()); // true
+        System.out.println("Readable after migration: " + (repo5.readStoredObject(hash) != null)); // true
+
+        // The layout is saved, so reopening the repo keeps writing flat objects
+        MyRepo reopened = new MyRepo("NewRepo", false);
+        String second = reopened.writeObject("written after reopening");
+        System.out.println("Reopened repo writes flat: " + new File(objectsFolder, second).exists()); // true
+
+        System.out.println("Objects moved to two-level layout: " + reopened.migrateObjectLayout(2)); // 2
+        System.out.println("Readable after second migration: " + (reopened.readStoredObject(hash) != null)); // true
+
+        System.out.println("Final cleanup:");
+        System.out.println(repo5.cleanup()); // true
+    }
+
 }
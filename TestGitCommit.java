@@ -0,0 +1,88 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestGitCommit {
+
+    public static void main(String[] args) {
+        System.out.println("=== GitCommit Tester ===");
+        MyRepo repository = new MyRepo("CommitRepo", false);
+        GitTreeBuilder builder = new GitTreeBuilder(repository);
+        GitCommit commits = new GitCommit(repository);
+        System.out.println("HEAD before any commit: " + commits.head()); // null
+
+        ObjectId c1;
+        ObjectId c2;
+        ObjectId left;
+        ObjectId right;
+        ObjectId merge;
+        try {
+            write("CommitRepo/app/Main.java", "version 1");
+            c1 = commits.commit(builder.addDirectoryId("app"), "Ryan", "First version");
+            write("CommitRepo/app/Main.java", "version 2");
+            c2 = commits.commit(builder.addDirectoryId("app"), "Ryan", "Second version");
+
+            // Two branches off c2, then a merge of both, a little later
+            long now = System.currentTimeMillis() / 1000;
+            write("CommitRepo/app/Left.java", "left");
+            ObjectId leftTree = builder.addDirectoryId("app");
+            left = commits.writeCommit(leftTree, Arrays.asList(c2), "Ann", now + 10, "Left branch");
+            write("CommitRepo/app/Right.java", "right");
+            ObjectId bothTree = builder.addDirectoryId("app");
+            right = commits.writeCommit(bothTree, Arrays.asList(c2), "Bo", now + 20, "Right branch");
+            merge = commits.writeCommit(bothTree, Arrays.asList(left, right), "Ann", now + 30, "Merge");
+            commits.updateHead(c2, merge);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        System.out.println("HEAD is the merge: " + merge.equals(commits.head())); // true
+        GitCommit.Commit read = commits.readCommit(c2);
+        System.out.println("Commit fields: " + read.author + ", " + read.message + ", parent is c1: "
+                + read.parents.equals(Arrays.asList(c1))); // Ryan, Second version, parent is c1: true
+        System.out.println("Merge parents: " + commits.readCommit(merge).parents.size()); // 2
+
+        System.out.println("Merge base of branches is c2: " + c2.equals(commits.mergeBase(left, right))); // true
+        System.out.println("c1 is an ancestor of merge: " + commits.isAncestor(c1, merge)); // true
+        System.out.println("left is an ancestor of right: " + commits.isAncestor(left, right)); // false
+
+        // Newest first; c1 and c2 may share a second, and then the child comes first
+        List<ObjectId> log = commits.log(merge, 10);
+        System.out.println("Log order: " + log.equals(Arrays.asList(merge, right, left, c2, c1))); // true
+
+        // A stale expected HEAD is refused and HEAD is left alone
+        try {
+            commits.updateHead(c1, c2);
+            System.out.println("Stale update refused: false");
+        } catch (IllegalStateException e) {
+            System.out.println("Stale update refused: " + merge.equals(commits.head())); // true
+        }
+
+        System.out.println("Commits in graph: " + commits.writeCommitGraph()); // 5
+
+        // A fresh GitCommit answers everything from the graph without reading a commit object
+        GitCommit fromGraph = new GitCommit(repository);
+        fromGraph.log(fromGraph.head(), 10);
+        fromGraph.mergeBase(left, right);
+        fromGraph.isAncestor(c1, merge);
+        System.out.println("Commit objects read with graph: " + fromGraph.commitsRead()); // 0
+
+        // A commit made after the graph was written is read from its object
+        ObjectId c3 = fromGraph.commit(fromGraph.readCommit(merge).tree, "Ryan", "After the graph");
+        long before = fromGraph.commitsRead();
+        System.out.println("New commit descends from c1: " + fromGraph.isAncestor(c1, c3)); // true
+        System.out.println("Commit objects read for it: " + (fromGraph.commitsRead() - before)); // 1
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    private static void write(String path, String content) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content);
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+public class TestGitIndex {
+
+    public static void main(String[] args) {
+        System.out.println("=== GitIndex Tester ===");
+        runIndexTest();
+        runLegacyIndexTest();
+        runLogTest();
+        runStatCacheTest();
+    }
+
+    public static void runIndexTest() {
+        MyRepo repository = new MyRepo("IndexRepo", true);
+        File indexFile = new File(repository.gitFolder, "index");
+        String hashA = "1111111111111111111111111111111111111111";
+        String hashB = "2222222222222222222222222222222222222222";
+
+        // Add paths out of order, and one path twice
+        GitIndex index = new GitIndex(indexFile);
+        index.put("src/b.txt", hashA);
+        index.put("README.md", hashA);
+        index.put("src/a.txt", hashA);
+        index.put("src/b.txt", hashB);
+        index.save();
+
+        // Reopen from disk and check the entries
+        GitIndex reopened = new GitIndex(indexFile);
+        System.out.println("Entries after reopen:");
+        for (GitIndex.Entry entry : reopened.entries()) {
+            System.out.println(entry); // README.md, src/a.txt, src/b.txt in that order
+        }
+        System.out.println("Entry count: " + reopened.size()); // 3
+        System.out.println("Lookup src/b.txt uses newest hash: " + hashB.equals(reopened.get("src/b.txt"))); // true
+        System.out.println("Lookup of missing path: " + reopened.get("src/c.txt")); // null
+
+        // Remove and replace, then save again
+        System.out.println("Removed src/a.txt: " + reopened.remove("src/a.txt")); // true
+        reopened.put("README.md", hashB);
+        reopened.save();
+        GitIndex third = new GitIndex(indexFile);
+        System.out.println("Entry count after remove: " + third.size()); // 2
+        System.out.println("README.md replaced: " + hashB.equals(third.get("README.md"))); // true
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+    }
+
+    public static void runLegacyIndexTest() {
+        MyRepo repository = new MyRepo("IndexRepo", true);
+        File indexFile = new File(repository.gitFolder, "index");
+
+        // An index in the old text format, with a duplicate entry
+        try {
+            BufferedWriter bw = new BufferedWriter(new FileWriter(indexFile));
+            bw.write("blob 1111111111111111111111111111111111111111 main/a.txt");
+            bw.newLine();
+            bw.write("3333333333333333333333333333333333333333 main/b.txt");
+            bw.newLine();
+            bw.write("blob 2222222222222222222222222222222222222222 main/a.txt");
+            bw.newLine();
+            bw.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        GitIndex index = new GitIndex(indexFile);
+        index.save();
+        GitIndex converted = new GitIndex(indexFile);
+        System.out.println("Entries after converting old index:");
+        for (GitIndex.Entry entry : converted.entries()) {
+            System.out.println(entry); // main/a.txt with 2222..., main/b.txt
+        }
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+    }
+
+    public static void runLogTest() {
+        MyRepo repository = new MyRepo("IndexRepo", true);
+        File indexFile = new File(repository.gitFolder, "index");
+        File logFile = new File(repository.gitFolder, "index.log");
+        String hashA = "1111111111111111111111111111111111111111";
+        String hashB = "2222222222222222222222222222222222222222";
+        try {
+            GitIndex index = new GitIndex(indexFile);
+            index.put("a.txt", hashA);
+            index.put("b.txt", hashA);
+            index.save();
+            byte[] before = Files.readAllBytes(indexFile.toPath());
+
+            // Saving a single path appends to the log and leaves the index file alone
+            index.put("a.txt", hashB);
+            index.remove("b.txt");
+            index.save();
+            System.out.println("Index file untouched: "
+                    + Arrays.equals(before, Files.readAllBytes(indexFile.toPath()))); // true
+            System.out.println("Log written: " + logFile.exists()); // true
+
+            // A batch cut short by a crash is ignored on reopen
+            Files.write(logFile.toPath(), new byte[] { 0, 0, 0, 1, 0, 0 }, StandardOpenOption.APPEND);
+            GitIndex reopened = new GitIndex(indexFile);
+            System.out.println("Logged change read back: " + hashB.equals(reopened.get("a.txt"))); // true
+            System.out.println("Logged removal read back: " + reopened.get("b.txt")); // null
+
+            // The torn batch is cut off, so changes saved after it are not lost
+            reopened.put("c.txt", hashB);
+            reopened.save();
+            System.out.println("Saved after a torn batch: " + hashB.equals(new GitIndex(indexFile).get("c.txt"))); // true
+
+            // Enough changes merge everything into a new index file
+            for (int i = 0; i <= GitIndex.LOG_MIN_ENTRIES; i++) {
+                reopened.put("many/" + i + ".txt", hashA);
+            }
+            reopened.save();
+            System.out.println("Log merged and removed: " + !logFile.exists()); // true
+            System.out.println("Entries after merge: " + new GitIndex(indexFile).size()); // 1027
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+    }
+
+    public static void runStatCacheTest() {
+        MyRepo repository = new MyRepo("IndexRepo", true);
+        File folder = new File("IndexRepo/stat");
+        folder.mkdirs();
+        File file = new File(folder, "data.txt");
+        FileTime pastTime = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+
+        try {
+            writeText(file, "first");
+            Files.setLastModifiedTime(file.toPath(), pastTime);
+
+            GitTreeBuilder builder = new GitTreeBuilder(repository);
+            builder.addDirectory("stat");
+            String firstHash = repository.getIndex().get("stat/data.txt");
+
+            // Same size and mtime: the stored id is reused without reading the file
+            writeText(file, "other");
+            Files.setLastModifiedTime(file.toPath(), pastTime);
+            builder.addDirectory("stat");
+            System.out.println("Unchanged stat data reuses blob: "
+                    + firstHash.equals(repository.getIndex().get("stat/data.txt"))); // true
+
+            // A new mtime means the file is read and hashed again
+            Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(pastTime.toMillis() + 1000));
+            builder.addDirectory("stat");
+            System.out.println("Changed stat data rehashes file: "
+                    + !firstHash.equals(repository.getIndex().get("stat/data.txt"))); // true
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    private static void writeText(File file, String text) throws Exception {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        bw.write(text);
+        bw.close();
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+
+public class TestGitStatus {
+
+    public static void main(String[] args) {
+        System.out.println("=== GitStatus Tester ===");
+        MyRepo repository = new MyRepo("StatusRepo", false);
+        try {
+            write("StatusRepo/app/keep.txt", "unchanged");
+            write("StatusRepo/app/edit.txt", "before");
+            write("StatusRepo/app/touch.txt", "same content");
+            write("StatusRepo/app/lib/gone.txt", "deleted soon");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        new GitTreeBuilder(repository).addDirectory("app");
+        GitStatus status = new GitStatus(repository);
+        System.out.println("Clean after indexing: " + repository.status()); // []
+
+        try {
+            write("StatusRepo/app/edit.txt", "after!");
+            Files.setLastModifiedTime(new File("StatusRepo/app/touch.txt").toPath(),
+                    FileTime.fromMillis(System.currentTimeMillis() - 3600000));
+            write("StatusRepo/app/lib/new.txt", "new file");
+            write("StatusRepo/other.txt", "outside app");
+            Files.delete(new File("StatusRepo/app/lib/gone.txt").toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Only the content of touch.txt is compared, so a new mtime alone is not a change
+        System.out.println("Whole repository: " + repository.status()); // [M app/edit.txt, D app/lib/gone.txt, A app/lib/new.txt, A other.txt]
+
+        ArrayList<String> streamed = new ArrayList<>();
+        status.status("app/lib", change -> streamed.add(change.toString()));
+        streamed.sort(null);
+        System.out.println("Streamed for app/lib: " + streamed); // [A app/lib/new.txt, D app/lib/gone.txt]
+
+        // Status never changes the index
+        System.out.println("Index still has deleted file: " + (repository.getIndex().get("app/lib/gone.txt") != null)); // true
+
+        // Re-adding records the new and edited files; the builder never
+        // removes index entries, so the deleted file is still reported
+        new GitTreeBuilder(repository).addDirectory("app");
+        ArrayList<String> afterAdd = new ArrayList<>();
+        status.status("app", change -> afterAdd.add(change.toString()));
+        System.out.println("Changes in app after re-adding: " + afterAdd); // [D app/lib/gone.txt]
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    private static void write(String path, String content) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content);
+    }
+}
@@ -1,8 +1,7 @@
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
+import java.util.ArrayList;
 
 public class TestGitTreeBuilder {
 
@@ -68,40 +67,27 @@ public class TestGitTreeBuilder {
 
         //Display the contents of git/index
         System.out.println("\n--- git/index contents ---");
-        File indexFile = new File(repository.gitFolder, "index");
-        if (indexFile.exists()) {
-            try {
-                BufferedReader indexReader = new BufferedReader(new FileReader(indexFile));
-                String line = indexReader.readLine();
-                while (line != null) {
-                    System.out.println(line);
-                    line = indexReader.readLine();
-                }
-                indexReader.close();
-            } catch (Exception e) {
-                System.out.println("Error while reading index file:");
-                e.printStackTrace();
-            }
-        } else {
-            System.out.println("(Index file not found)");
+        ArrayList<GitIndex.Entry> firstEntries = repository.getIndex().entries();
+        for (GitIndex.Entry entry : firstEntries) {
+            System.out.println(entry);
         }
 
         //Check if all expected object files exist
         System.out.println("\nVerify created objects in git/objects");
         try {
-            // Builder reads each line and adds a newline at the end
-            String aText = "Apple\n";
-            String bText = "Banana\n";
-            String cText = "Cherry\n";
+            // Blob ids are the hash of the raw file bytes
+            String aText = "Apple";
+            String bText = "Banana";
+            String cText = "Cherry";
 
-            String aBlobHash = Sha1Generator.generateSha1(Compression.compress(aText));
-            String bBlobHash = Sha1Generator.generateSha1(Compression.compress(bText));
-            String cBlobHash = Sha1Generator.generateSha1(Compression.compress(cText));
+            String aBlobHash = Sha1Generator.generateSha1(aText);
+            String bBlobHash = Sha1Generator.generateSha1(bText);
+            String cBlobHash = Sha1Generator.generateSha1(cText);
 
-            File aBlobFile = new File(repository.gitFolder, "objects/" + aBlobHash);
-            File bBlobFile = new File(repository.gitFolder, "objects/" + bBlobHash);
-            File cBlobFile = new File(repository.gitFolder, "objects/" + cBlobHash);
-            File treeObjectFile = new File(repository.gitFolder, "objects/" + mainTreeHash);
+            File aBlobFile = repository.looseObjectFile(ObjectId.fromHex(aBlobHash));
+            File bBlobFile = repository.looseObjectFile(ObjectId.fromHex(bBlobHash));
+            File cBlobFile = repository.looseObjectFile(ObjectId.fromHex(cBlobHash));
+            File treeObjectFile = repository.looseObjectFile(ObjectId.fromHex(mainTreeHash));
 
             System.out.println("a.txt blob exists: " + aBlobFile.exists() + " (" + aBlobHash + ")");
             System.out.println("b.txt blob exists: " + bBlobFile.exists() + " (" + bBlobHash + ")");
@@ -112,6 +98,19 @@ public class TestGitTreeBuilder {
             e.printStackTrace();
         }
 
+        //Build the same directory again in parallel mode and compare
+        System.out.println("\nBuilding Git tree for 'main' with 4 threads");
+        String parallelTreeHash = treeBuilder.addDirectory("main", 4);
+        System.out.println("Parallel tree hash: " + parallelTreeHash);
+        System.out.println("Matches sequential hash: " + parallelTreeHash.equals(mainTreeHash)); // true
+        // Entries are replaced rather than appended, so the index should be unchanged
+        ArrayList<GitIndex.Entry> secondEntries = repository.getIndex().entries();
+        boolean sameEntries = firstEntries.size() == secondEntries.size();
+        for (int i = 0; sameEntries && i < firstEntries.size(); i++) {
+            sameEntries = firstEntries.get(i).toString().equals(secondEntries.get(i).toString());
+        }
+        System.out.println("Index unchanged by second build: " + sameEntries); // true
+
         //Cleanup (delete repo and files)
         System.out.println("\nCleaning up repository");
         boolean removedMainFolder = repository.removeDirectory("main");
@@ -63,7 +63,7 @@ public class TestGitTreeWorking {
         //Show index contents
         System.out.println();
         System.out.println("--- git/index after first stage ---");
-        printFile(new File(repository.gitFolder, "index"));
+        printIndex(repository);
 
         //Show working tree file for myProgram
         System.out.println();
@@ -94,7 +94,7 @@ public class TestGitTreeWorking {
         // Show updated index and working tree
         System.out.println();
         System.out.println("--- git/index after second stage ---");
-        printFile(new File(repository.gitFolder, "index"));
+        printIndex(repository);
 
         System.out.println();
         System.out.println("--- working tree file for myProgram after second stage ---");
@@ -112,6 +112,12 @@ public class TestGitTreeWorking {
         System.out.println("=== Test complete ===");
     }
 
+    private static void printIndex(MyRepo repository) {
+        for (GitIndex.Entry entry : repository.getIndex().entries()) {
+            System.out.println(entry);
+        }
+    }
+
     private static void printFile(File file) {
         if (!file.exists()) {
             System.out.println("File does not exist: " + file.getPath());
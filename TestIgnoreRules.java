@@ -0,0 +1,130 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestIgnoreRules {
+
+    public static void main(String[] args) {
+        System.out.println("=== IgnoreRules Tester ===");
+
+        IgnoreRules rules = IgnoreRules.parse("", Arrays.asList(
+                "# comment",
+                "",
+                "*.log",
+                "!keep.log",
+                "tmp*",
+                "out/",
+                "/secret.txt",
+                "docs/*.pdf",
+                "**/cache",
+                "a/**/z",
+                "file[0-9].txt"), IgnoreRules.defaults());
+        System.out.println("Suffix: " + rules.isIgnored("src/app.log", false)); // true
+        System.out.println("Negated: " + rules.isIgnored("src/keep.log", false)); // false
+        System.out.println("Prefix: " + rules.isIgnored("tmpfile", false)); // true
+        System.out.println("Folder only, folder: " + rules.isIgnored("src/out", true)); // true
+        System.out.println("Folder only, file: " + rules.isIgnored("src/out", false)); // false
+        System.out.println("Anchored at root: " + rules.isIgnored("secret.txt", false)); // true
+        System.out.println("Anchored, deeper: " + rules.isIgnored("src/secret.txt", false)); // false
+        System.out.println("Anchored glob: " + rules.isIgnored("docs/guide.pdf", false)); // true
+        System.out.println("Anchored glob, deeper: " + rules.isIgnored("docs/old/guide.pdf", false)); // false
+        System.out.println("Leading **: " + rules.isIgnored("x/y/cache", true)); // true
+        System.out.println("Inner **: " + rules.isIgnored("a/b/c/z", false)); // true
+        System.out.println("Character class: " + rules.isIgnored("file7.txt", false)); // true
+        System.out.println("Leading slash from a root build: " + rules.isIgnored("/app.log", false)); // true
+        System.out.println("Git folder: " + rules.isIgnored("git", true)); // true
+        System.out.println("Default build folder: " + rules.isIgnored("web/build", true)); // true
+        System.out.println("Default node_modules: " + rules.isIgnored("node_modules", true)); // true
+        System.out.println("Plain file: " + rules.isIgnored("src/Main.java", false)); // false
+
+        // A deeper .gitignore overrides its parent and only applies below itself
+        IgnoreRules deeper = IgnoreRules.parse("src", Arrays.asList("!*.log", "*.java"), rules);
+        System.out.println("Deeper negation: " + deeper.isIgnored("src/app.log", false)); // false
+        System.out.println("Deeper rule: " + deeper.isIgnored("src/Main.java", false)); // true
+        System.out.println("Outside its folder: " + deeper.isIgnored("lib/Main.java", false)); // false
+        System.out.println("Ids differ: " + !deeper.id().equals(rules.id())); // true
+
+        // Many rules still cost a few lookups per path
+        ArrayList<String> many = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            many.add("*.ext" + i);
+            many.add("name" + i);
+            many.add("/path/to/" + i);
+        }
+        IgnoreRules big = IgnoreRules.parse("", many, null);
+        long start = System.nanoTime();
+        int ignored = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (big.isIgnored("src/file" + i + ".ext" + (i % 30000), false)) {
+                ignored++;
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Matches among 60000 rules: " + ignored); // 70000
+        System.out.println("100000 checks in under 5 seconds: " + (millis < 5000)); // true
+
+        // The builders never list ignored folders and leave ignored files out
+        MyRepo repository = new MyRepo("IgnoreRepo", false);
+        try {
+            write("IgnoreRepo/.gitignore", "*.tmp\nlogs/\n");
+            write("IgnoreRepo/app/Main.java", "class Main {}");
+            write("IgnoreRepo/app/scratch.tmp", "scratch");
+            write("IgnoreRepo/app/logs/run.txt", "run");
+            write("IgnoreRepo/app/node_modules/lib/index.js", "js");
+            write("IgnoreRepo/app/build/Main.class", "class");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        GitTreeBuilder builder = new GitTreeBuilder(repository);
+        ObjectId tree = builder.addDirectoryId("app");
+        System.out.println("Builder paths: " + paths(repository, tree)); // [app/Main.java]
+        System.out.println("Parallel build agrees: " + builder.addDirectoryId("app", 4).equals(tree)); // true
+        GitTreeWorking working = new GitTreeWorking(repository);
+        System.out.println("Working tree paths: "
+                + paths(repository, working.buildTreeIdFromDirectory("app"))); // [Main.java]
+        System.out.println("Index entries: " + repository.getIndex().entries().size()); // 1
+
+        // Ignored files are not reported as added
+        ArrayList<GitStatus.Change> changes = new ArrayList<>();
+        new GitStatus(repository).status("app", changes::add);
+        System.out.println("Status of app: " + changes); // []
+
+        ObjectId rootTree = builder.addDirectoryId("");
+        System.out.println("Root build skips git: " + !paths(repository, rootTree).toString().contains("git/")); // true
+
+        // A .gitignore in a subfolder changes the tree even though the cache has it
+        try {
+            write("IgnoreRepo/app/.gitignore", "!logs/\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        List<String> after = paths(repository, builder.addDirectoryId("app"));
+        System.out.println("Put back by a deeper file: " + after.contains("app/logs/run.txt")); // true
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    // Every blob path under a tree, in tree order
+    private static List<String> paths(MyRepo repository, ObjectId tree) {
+        ArrayList<String> paths = new ArrayList<>();
+        for (ObjectReader.TreeEntry entry : repository.readTree(tree)) {
+            if (entry.isTree) {
+                paths.addAll(paths(repository, entry.id));
+            } else {
+                paths.add(entry.path);
+            }
+        }
+        return paths;
+    }
+
+    private static void write(String path, String content) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content);
+    }
+}
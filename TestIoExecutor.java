@@ -0,0 +1,95 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestIoExecutor {
+
+    public static void main(String[] args) {
+        System.out.println("=== IoExecutor Tester ===");
+        IoExecutor io = new IoExecutor(4);
+        System.out.println("Virtual threads where available: "
+                + (io.usesVirtualThreads() == (Runtime.version().feature() >= 21))); // true
+
+        // Slow tasks never run more than the limit at once
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger most = new AtomicInteger();
+        ArrayList<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            int n = i;
+            futures.add(io.submit(() -> {
+                most.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(10);
+                running.decrementAndGet();
+                return n;
+            }));
+        }
+        int sum = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            sum += IoExecutor.join(futures.get(i));
+        }
+        System.out.println("Results: " + sum); // 780
+        System.out.println("Most tasks at once: " + most.get()); // 4
+
+        // CPU work runs on the compute pool, not the I/O thread
+        try {
+            String thread = IoExecutor.join(io.submit(() -> io.compute(() -> Thread.currentThread().getName())));
+            System.out.println("Compute thread: " + thread.startsWith("repo-compute-")); // true
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+
+        // Failures come back to the caller
+        try {
+            IoExecutor.join(io.submit(() -> {
+                throw new IOException("disk gone");
+            }));
+            System.out.println("Failure lost"); // should not print
+        } catch (RuntimeException e) {
+            System.out.println("Failure reported: " + e.getCause().getMessage()); // Failure reported: disk gone
+        }
+        io.close();
+
+        // Both tree builders give the same trees with concurrent I/O on
+        MyRepo plain = new MyRepo("PlainIoRepo", false);
+        MyRepo concurrent = new MyRepo("ConcurrentIoRepo", false);
+        concurrent.setIoConcurrency(64);
+        try {
+            for (int i = 0; i < 300; i++) {
+                write("PlainIoRepo/src/pkg" + (i % 5) + "/File" + i + ".java", "class File" + i + " {}");
+                write("ConcurrentIoRepo/src/pkg" + (i % 5) + "/File" + i + ".java", "class File" + i + " {}");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        String expected = new GitTreeBuilder(plain).addDirectory("src");
+        System.out.println("Same tree from builder: " + expected.equals(new GitTreeBuilder(concurrent).addDirectory("src"))); // true
+        System.out.println("Same working tree: " + new GitTreeWorking(plain).buildTreeFromDirectory("src")
+                .equals(new GitTreeWorking(concurrent).buildTreeFromDirectory("src"))); // true
+        System.out.println("Index entries: " + concurrent.getIndex().size()); // 300
+
+        // The parallel builder stages its file batches through the same I/O
+        try {
+            for (int i = 0; i < 200; i++) {
+                write("PlainIoRepo/lib/pkg" + (i % 4) + "/Lib" + i + ".java", "class Lib" + i + " {}");
+                write("ConcurrentIoRepo/lib/pkg" + (i % 4) + "/Lib" + i + ".java", "class Lib" + i + " {}");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Same tree from parallel builder: " + new GitTreeBuilder(plain).addDirectory("lib")
+                .equals(new GitTreeBuilder(concurrent).addDirectory("lib", 4))); // true
+        System.out.println("Index entries after parallel build: " + concurrent.getIndex().size()); // 500
+
+        System.out.println("Repository cleanup complete: " + (plain.cleanup() && concurrent.cleanup())); // true
+        System.out.println("=== Test Finished ===");
+    }
+
+    private static void write(String path, String content) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content);
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TestObjectId {
+
+    public static void main(String[] args) {
+        System.out.println("=== ObjectId Tester ===");
+        testConversions();
+        testOrdering();
+        testRepositoryIds();
+        System.out.println("=== Test Finished ===");
+    }
+
+    public static void testConversions() {
+        String hex = "0a4d55a8d778e5022fab701977c5d840bbc486d0";
+        ObjectId id = ObjectId.fromHex(hex);
+        System.out.println("Hex round trip: " + id.toHex().equals(hex)); // true
+        System.out.println("Upper case parsed: " + ObjectId.fromHex(hex.toUpperCase()).equals(id)); // true
+        System.out.println("First byte: " + id.firstByte()); // 10
+
+        byte[] raw = Sha1Generator.fromHex(hex);
+        System.out.println("Raw bytes match: " + Arrays.equals(raw, id.toRaw())); // true
+        System.out.println("From raw equals from hex: " + ObjectId.fromRaw(raw).equals(id)); // true
+        System.out.println("Same hash code: " + (ObjectId.fromRaw(raw).hashCode() == id.hashCode())); // true
+
+        System.out.println("Valid hex accepted: " + ObjectId.isHex(hex)); // true
+        System.out.println("Short hex accepted: " + ObjectId.isHex("0a4d55")); // false
+        try {
+            ObjectId.fromHex("zz4d55a8d778e5022fab701977c5d840bbc486d0");
+            System.out.println("Bad hex rejected: false");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Bad hex rejected: true"); // true
+        }
+    }
+
+    public static void testOrdering() {
+        // Ids must sort the same way as their hex strings, including high bytes
+        ArrayList<String> hexes = new ArrayList<>();
+        ArrayList<ObjectId> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String hex = Sha1Generator.generateSha1(("id " + i).getBytes());
+            hexes.add(hex);
+            ids.add(ObjectId.fromHex(hex));
+        }
+        hexes.add("ffffffffffffffffffffffffffffffffffffffff");
+        ids.add(ObjectId.fromHex("ffffffffffffffffffffffffffffffffffffffff"));
+        hexes.add("0000000000000000000000000000000000000000");
+        ids.add(ObjectId.fromHex("0000000000000000000000000000000000000000"));
+        Collections.sort(hexes);
+        Collections.sort(ids);
+        boolean sameOrder = true;
+        for (int i = 0; i < ids.size(); i++) {
+            if (!ids.get(i).toHex().equals(hexes.get(i))) {
+                sameOrder = false;
+            }
+        }
+        System.out.println("Sorted like hex strings: " + sameOrder); // true
+    }
+
+    public static void testRepositoryIds() {
+        MyRepo repository = new MyRepo("ObjectIdRepo", true);
+        ObjectId id = repository.writeObjectId("typed id");
+        String hex = repository.writeObject("typed id");
+        System.out.println("String and id APIs agree: " + id.toHex().equals(hex)); // true
+        System.out.println("Found by id: " + repository.hasObject(id)); // true
+        System.out.println("Found by hex: " + repository.hasObject(hex)); // true
+        System.out.println("Read by id: " + (repository.readStoredObject(id) != null)); // true
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+    }
+}
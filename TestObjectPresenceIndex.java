@@ -0,0 +1,58 @@
+public class TestObjectPresenceIndex {
+
+    public static void main(String[] args) {
+        System.out.println("=== ObjectPresenceIndex Tester ===");
+        runFilterTest();
+        runRepositoryTest();
+    }
+
+    public static void runFilterTest() {
+        // Start small so the filter has to grow several times
+        ObjectPresenceIndex presence = new ObjectPresenceIndex(10);
+        try {
+            for (int i = 0; i < 5000; i++) {
+                presence.add(id("added " + i));
+            }
+            boolean allFound = true;
+            for (int i = 0; i < 5000; i++) {
+                if (!presence.contains(id("added " + i))) {
+                    allFound = false;
+                }
+            }
+            boolean noneFound = true;
+            for (int i = 0; i < 5000; i++) {
+                if (presence.contains(id("missing " + i))) {
+                    noneFound = false;
+                }
+            }
+            System.out.println("Ids in index: " + presence.size()); // 5000
+            System.out.println("All added ids found: " + allFound); // true
+            System.out.println("No missing ids found: " + noneFound); // true
+
+            ObjectId removed = id("added 42");
+            presence.remove(removed);
+            System.out.println("Removed id found: " + presence.contains(removed)); // false
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static ObjectId id(String content) {
+        return ObjectId.fromRaw(Sha1Generator.digest(content.getBytes()));
+    }
+
+    public static void runRepositoryTest() {
+        MyRepo repository = new MyRepo("PresenceRepo", true);
+        String hash = repository.writeObject("stored once");
+        System.out.println("Written object found: " + repository.hasObject(hash)); // true
+
+        // A second MyRepo on the same folder builds its index from disk
+        MyRepo reopened = new MyRepo("PresenceRepo", false);
+        System.out.println("Object found after reopening: " + reopened.hasObject(hash)); // true
+        System.out.println("Unknown object found: "
+                + reopened.hasObject("0000000000000000000000000000000000000000")); // false
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class TestObjectReader {
+
+    public static void main(String[] args) {
+        System.out.println("=== ObjectReader Tester ===");
+        MyRepo repository = new MyRepo("ReaderRepo", false);
+        byte[] big = new byte[3 * 1024 * 1024];
+        new Random(7).nextBytes(big);
+        for (int i = 0; i < big.length; i += 2) {
+            big[i] = 'a'; // half random, so it still deflates
+        }
+        try {
+            write("ReaderRepo/app/hello.txt", "Hello World".getBytes());
+            write("ReaderRepo/app/lib/big.bin", big);
+            write("ReaderRepo/app/lib/deep/note.txt", "deep".getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        ObjectId hello = repository.createBlobId(new File("ReaderRepo/app/hello.txt"));
+        System.out.println("Small blob: " + new String(repository.getObjectReader().readBytes(hello))); // Hello World
+
+        // Read a big blob a little at a time
+        ObjectId bigId = repository.createBlobId(new File("ReaderRepo/app/lib/big.bin"));
+        System.out.println("Big blob streams back: " + streamsBack(repository, bigId, big)); // true
+
+        // A chunked blob reads as the whole file, not as its manifest
+        repository.setChunkThreshold(1024 * 1024);
+        ObjectId chunked = repository.createBlobId(new File("ReaderRepo/app/lib/big.bin"));
+        System.out.println("Chunked blob is a new object: " + !chunked.equals(bigId)); // true
+        System.out.println("Chunked blob streams back: " + streamsBack(repository, chunked, big)); // true
+        repository.setChunkThreshold(0);
+        System.out.println("Chunked blob lists its chunks: " + !repository.getObjectReader().chunkIds(chunked).isEmpty()); // true
+
+        // A small file that looks like a manifest is still just a file
+        byte[] lookalike = (MyRepo.CHUNKED_BLOB_HEADER + "size 11\nchunk " + hello.toHex() + " 11\n").getBytes();
+        try {
+            write("ReaderRepo/lookalike.txt", lookalike);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        ObjectId lookalikeId = repository.createBlobId(new File("ReaderRepo/lookalike.txt"));
+        System.out.println("Lookalike reads back unchanged: "
+                + Arrays.equals(repository.getObjectReader().readBytes(lookalikeId), lookalike)); // true
+        System.out.println("Lookalike has no chunks: " + repository.getObjectReader().chunkIds(lookalikeId).isEmpty()); // true
+
+        ObjectId root = new GitTreeBuilder(repository).addDirectoryId("app");
+        ObjectReader reader = repository.getObjectReader();
+        List<ObjectReader.TreeEntry> entries = repository.readTree(root);
+        System.out.println("Root entries: " + names(entries)); // [hello.txt, lib]
+        System.out.println("lib is a tree: " + entries.get(1).isTree); // true
+        long decoded = reader.treesDecoded();
+        repository.readTree(root);
+        System.out.println("Second read is cached: " + (reader.treesDecoded() == decoded && reader.cacheHits() == 1)); // true
+        try {
+            entries.clear();
+            System.out.println("Cached entries read-only: false");
+        } catch (UnsupportedOperationException e) {
+            System.out.println("Cached entries read-only: true"); // true
+        }
+
+        // A cache with room for about two trees keeps only the most recently used
+        long budget = reader.cachedBytes() * 2;
+        ObjectReader small = new ObjectReader(repository, budget);
+        ObjectId lib = entries.get(1).id;
+        ObjectId deep = small.readTree(lib).get(small.readTree(lib).size() - 1).id;
+        small.readTree(root);
+        small.readTree(deep);
+        small.readTree(lib);
+        System.out.println("Evicted under pressure: " + (small.treesDecoded() > 3)); // true
+        System.out.println("Stays under its budget: " + (small.cachedBytes() <= budget)); // true
+
+        // Packed objects stream straight out of the pack
+        repository.repack();
+        System.out.println("Packed blob streams back: " + streamsBack(repository, bigId, big)); // true
+        System.out.println("Packed tree: " + names(new ObjectReader(repository, 0).readTree(root))); // [hello.txt, lib]
+
+        try {
+            repository.readObject(ObjectId.fromRaw(Sha1Generator.digest("missing".getBytes())));
+            System.out.println("Missing object rejected: false");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Missing object rejected: true"); // true
+        }
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    // Reads an object in small pieces and compares it with what was written
+    private static boolean streamsBack(MyRepo repository, ObjectId id, byte[] expected) {
+        byte[] actual = new byte[expected.length];
+        int total = 0;
+        try (InputStream in = repository.readObject(id)) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                if (total + n > actual.length) {
+                    return false;
+                }
+                System.arraycopy(buffer, 0, actual, total, n);
+                total += n;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return total == expected.length && Arrays.equals(actual, expected);
+    }
+
+    private static String names(List<ObjectReader.TreeEntry> entries) {
+        String[] names = new String[entries.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = entries.get(i).name;
+        }
+        return Arrays.toString(names);
+    }
+
+    private static void write(String path, byte[] content) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestObjectWriter {
+
+    public static void main(String[] args) {
+        System.out.println("=== ObjectWriter Tester ===");
+        File folder = new File("WriterFolder");
+        folder.mkdir();
+
+        // The writer on its own: bytes are readable until renamed, then on disk
+        ObjectWriter writer = new ObjectWriter(4, 8, 50);
+        byte[] data = "write-behind".getBytes(StandardCharsets.UTF_8);
+        ObjectId id = ObjectId.fromRaw(Sha1Generator.digest(data));
+        File target = new File(folder, id.toHex());
+        writer.submit(id, target, data);
+        System.out.println("Pending before flush: " + (writer.pending(id) != null)); // true
+        writer.flush();
+        System.out.println("File after flush: " + target.exists()); // true
+        System.out.println("Pending after flush: " + (writer.pending(id) != null)); // false
+        writer.close();
+        try {
+            writer.submit(id, target, data);
+            System.out.println("Submit after close accepted"); // should not print
+        } catch (IllegalStateException e) {
+            System.out.println("Submit after close rejected"); // Submit after close rejected
+        }
+        target.delete();
+        folder.delete();
+
+        // A batch that cannot be written: its objects are dropped and later
+        // calls fail instead of queueing work nobody will write
+        ArrayList<ObjectId> dropped = new ArrayList<>();
+        ObjectWriter failing = new ObjectWriter(1, 1, 0, dropped::add);
+        failing.submit(id, new File("MissingFolder/" + id.toHex()), data);
+        try {
+            failing.flush();
+            System.out.println("Failed flush returned"); // should not print
+        } catch (RuntimeException e) {
+            System.out.println("Failed flush throws: " + (e.getCause() instanceof IOException)); // true
+        }
+        System.out.println("Dropped ids reported: " + dropped.equals(List.of(id))); // true
+        System.out.println("Dropped object no longer pending: " + (failing.pending(id) == null)); // true
+        try {
+            failing.submit(id, target, data);
+            System.out.println("Submit after failure accepted"); // should not print
+        } catch (RuntimeException e) {
+            System.out.println("Submit after failure rejected"); // Submit after failure rejected
+        }
+        try {
+            failing.close();
+        } catch (RuntimeException e) {
+            System.out.println("Close reports the failure"); // Close reports the failure
+        }
+
+        // A repository with write-behind: more objects than the queue holds
+        MyRepo repository = new MyRepo("WriterRepo", true);
+        repository.setWriteBehind(64, 5);
+        String[] ids = new String[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = repository.writeObject("object number " + i);
+        }
+        String blob = repository.createBlobFromFile(new File("WriterRepo/README.md"));
+        System.out.println("Readable before flush: "
+                + "object number 1999".equals(read(repository, ids[1999]))); // true
+        System.out.println("Blob found before flush: " + repository.hasObject(blob)); // true
+
+        repository.flush();
+        int onDisk = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (repository.looseObjectFile(ObjectId.fromHex(ids[i])).exists()) {
+                onDisk++;
+            }
+        }
+        System.out.println("Objects on disk after flush: " + onDisk); // 2000
+        System.out.println("Blob on disk after flush: " + repository.looseObjectFile(ObjectId.fromHex(blob)).exists()); // true
+        System.out.println("Temp files left: " + countTempFiles(new File("WriterRepo/git/objects"))); // 0
+
+        // The setting is kept in git/config
+        MyRepo reopened = new MyRepo("WriterRepo", false);
+        String later = reopened.writeObject("written after reopening");
+        reopened.flush();
+        System.out.println("Reopened repo writes: " + "written after reopening".equals(read(reopened, later))); // true
+        reopened.setWriteBehind(0, 0);
+        System.out.println("Direct write after turning off: "
+                + reopened.looseObjectFile(ObjectId.fromHex(reopened.writeObject("direct"))).exists()); // true
+
+        // Turning write-behind on and off while other threads write loses nothing
+        Thread[] writers = new Thread[4];
+        String[][] written = new String[writers.length][500];
+        for (int t = 0; t < writers.length; t++) {
+            int thread = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < written[thread].length; i++) {
+                    written[thread][i] = reopened.writeObject("thread " + thread + " object " + i);
+                }
+            });
+            writers[t].start();
+        }
+        for (int i = 0; i < 20; i++) {
+            reopened.setWriteBehind(i % 2 == 0 ? 8 : 0, 1);
+        }
+        int missing = 0;
+        try {
+            for (int t = 0; t < writers.length; t++) {
+                writers[t].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        reopened.flush();
+        for (int t = 0; t < writers.length; t++) {
+            for (int i = 0; i < written[t].length; i++) {
+                if (!reopened.looseObjectFile(ObjectId.fromHex(written[t][i])).exists()) {
+                    missing++;
+                }
+            }
+        }
+        System.out.println("Objects lost while switching writers: " + missing); // 0
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    private static String read(MyRepo repository, String id) {
+        try {
+            return new String(Compression.decode(repository.readStoredObject(id)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading object " + id, e);
+        }
+    }
+
+    private static int countTempFiles(File dir) {
+        int count = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    count += countTempFiles(file);
+                } else if (file.getName().endsWith(".tmp")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class TestPackFile {
+
+    public static void main(String[] args) {
+        System.out.println("=== PackFile Tester ===");
+        runRepackTest();
+    }
+
+    public static void runRepackTest() {
+        MyRepo repository = new MyRepo("PackRepo", true);
+
+        // Write a handful of loose objects
+        ArrayList<String> hashes = new ArrayList<>();
+        ArrayList<byte[]> storedBytes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String hash = repository.writeObject("object number " + i);
+            hashes.add(hash);
+            storedBytes.add(repository.readStoredObject(hash));
+        }
+        File objectsFolder = new File(repository.gitFolder, "objects");
+        System.out.println("Loose objects before repack: " + countLoose(objectsFolder)); // 50
+
+        // Pack them
+        int packed = repository.repack();
+        System.out.println("Objects packed: " + packed); // 50
+        System.out.println("Loose objects after repack: " + countLoose(objectsFolder)); // 0
+
+        // Every object should still be found and read back unchanged
+        boolean allFound = true;
+        boolean allSame = true;
+        for (int i = 0; i < hashes.size(); i++) {
+            if (!repository.hasObject(hashes.get(i))) {
+                allFound = false;
+            }
+            if (!Arrays.equals(storedBytes.get(i), repository.readStoredObject(hashes.get(i)))) {
+                allSame = false;
+            }
+        }
+        System.out.println("All objects found in pack: " + allFound); // true
+        System.out.println("All objects read back unchanged: " + allSame); // true
+        System.out.println("Missing object found: "
+                + repository.hasObject("0000000000000000000000000000000000000000")); // false
+
+        // Writing an object that is already packed should not make a loose copy
+        repository.writeObject("object number 7");
+        System.out.println("Loose objects after rewriting a packed object: " + countLoose(objectsFolder)); // 0
+
+        // New objects are loose until the next repack, which merges everything
+        String newHash = repository.writeObject("a new object");
+        System.out.println("New object found (loose): " + repository.hasObject(newHash)); // true
+        System.out.println("Objects packed on second repack: " + repository.repack()); // 51
+        System.out.println("New object found (packed): " + repository.hasObject(newHash)); // true
+        File[] packFiles = new File(objectsFolder, "pack").listFiles();
+        System.out.println("Files in pack folder: " + packFiles.length); // 2 (.pack and .idx)
+
+        // A missing object fails the write cleanly instead of half-way through
+        File packFolder = new File(objectsFolder, "pack");
+        ArrayList<ObjectId> withMissing = new ArrayList<>();
+        withMissing.add(ObjectId.fromHex("0000000000000000000000000000000000000000"));
+        try {
+            PackFile.write(packFolder, withMissing, 0, id -> null);
+            System.out.println("Missing object packed: true"); // not printed
+        } catch (IOException e) {
+            System.out.println("Missing object rejected: " + e.getMessage().contains("0000000000")); // true
+        }
+        System.out.println("No temp files left: " + (packFolder.listFiles().length == 2)); // true
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    // Counts object files, including those in fan-out folders but not packs
+    private static int countLoose(File objectsFolder) {
+        int count = 0;
+        for (File file : objectsFolder.listFiles()) {
+            if (file.isFile()) {
+                count++;
+            } else if (!file.getName().equals("pack")) {
+                count += countLoose(file);
+            }
+        }
+        return count;
+    }
+}
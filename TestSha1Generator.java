@@ -1,3 +1,7 @@
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class TestSha1Generator {
     public static void main(String[] args) {
         String data = "Hello World";
@@ -11,6 +15,53 @@ public class TestSha1Generator {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        testOtherInputs();
+        testThreads();
+    }
+
+    // Byte array, direct buffer and stream inputs should all give the same hash
+    public static void testOtherInputs() {
+        String expected = "0a4d55a8d778e5022fab701977c5d840bbc486d0";
+        try {
+            byte[] bytes = "Hello World".getBytes("UTF-8");
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes).flip();
 
+            System.out.println("Byte array hash matches: " + expected.equals(Sha1Generator.generateSha1(bytes))); // true
+            System.out.println("Buffer hash matches: " + expected.equals(Sha1Generator.generateSha1(direct))); // true
+            System.out.println("Stream hash matches: "
+                    + expected.equals(Sha1Generator.generateSha1(new ByteArrayInputStream(bytes)))); // true
+
+            byte[] raw = Sha1Generator.digest(bytes);
+            System.out.println("Raw hash is 20 bytes: " + (raw.length == 20)); // true
+            System.out.println("Hex round trip: " + expected.equals(Sha1Generator.toHex(Sha1Generator.fromHex(expected)))); // true
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Threads share nothing, so hashing in parallel gives the same answers
+    public static void testThreads() {
+        AtomicBoolean allMatch = new AtomicBoolean(true);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    String hash = Sha1Generator.generateSha1(new byte[] { 'a', 'b', 'c' });
+                    if (!hash.equals("a9993e364706816aba3e25717850c26c9cd0d89d")) {
+                        allMatch.set(false);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Parallel hashes all match: " + allMatch.get()); // true
     }
 }
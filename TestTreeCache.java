@@ -0,0 +1,101 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+
+public class TestTreeCache {
+
+    public static void main(String[] args) {
+        System.out.println("=== TreeCache Tester ===");
+        MyRepo repository = new MyRepo("CacheRepo", true);
+        long old = System.currentTimeMillis() - 60000;
+        try {
+            write("CacheRepo/main/a.txt", "Apple", old);
+            write("CacheRepo/main/utils/b.txt", "Banana", old);
+            write("CacheRepo/main/utils/sub/c.txt", "Cherry", old);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        // Entries are found only under the same key and fingerprint
+        TreeCache cache = repository.getTreeCache();
+        ObjectId fp = ObjectId.fromRaw(Sha1Generator.digest("fingerprint".getBytes()));
+        ObjectId otherFp = ObjectId.fromRaw(Sha1Generator.digest("other".getBytes()));
+        ObjectId tree = ObjectId.fromRaw(Sha1Generator.digest("tree".getBytes()));
+        cache.put("test dir", fp, old * 1000000L, tree);
+        System.out.println("Same fingerprint: " + tree.equals(cache.get("test dir", fp))); // true
+        System.out.println("Changed fingerprint: " + cache.get("test dir", otherFp)); // null
+
+        // A directory changed just now could change again unnoticed, so it is not cached
+        cache.put("test recent", fp, System.currentTimeMillis() * 1000000L, tree);
+        System.out.println("Recent directory cached: " + (cache.get("test recent", fp) != null)); // false
+
+        GitTreeBuilder builder = new GitTreeBuilder(repository);
+        String first = builder.addDirectory("main");
+        System.out.println("Directories cached: " + cache.size()); // 4 (test dir plus main, utils, sub)
+        System.out.println("Second build same hash: " + first.equals(builder.addDirectory("main"))); // true
+
+        // The cache only looks at sizes, times and file keys, like the index: an edit
+        // in place that keeps them all is not seen
+        try {
+            write("CacheRepo/main/utils/b.txt", "Bonana", old);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Same size and time reuses cached tree: " + first.equals(builder.addDirectory("main"))); // true
+
+        // A cached directory still puts its files back in the index
+        repository.getIndex().remove("main/utils/sub/c.txt");
+        repository.getIndex().save();
+        builder.addDirectory("main", 2);
+        System.out.println("Index entry restored from cached tree: "
+                + (repository.getIndex().getEntry("main/utils/sub/c.txt") != null)); // true
+
+        // A file replaced by another one of the same size and time has a new file key
+        try {
+            write("CacheRepo/main/replacement.tmp", "Bunana", old);
+            Files.move(new File("CacheRepo/main/replacement.tmp").toPath(),
+                    new File("CacheRepo/main/utils/b.txt").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Replaced file changes hash: " + !first.equals(builder.addDirectory("main"))); // true
+
+        // Any other change moves the fingerprint of the file's folder and every folder above it
+        try {
+            write("CacheRepo/main/utils/sub/c.txt", "Cherries", old);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        String changed = builder.addDirectory("main");
+        System.out.println("Changed file changes hash: " + !changed.equals(first)); // true
+
+        // The cache is saved after each build and read back by a new repository object
+        TreeCache reopened = new TreeCache(new File("CacheRepo/git/treecache"));
+        System.out.println("Directories after reopen: " + reopened.size()); // 4
+
+        // The working tree builder keeps its own entries, since its trees differ
+        GitTreeWorking working = new GitTreeWorking(repository);
+        String workingFirst = working.buildTreeFromDirectory("main");
+        System.out.println("Directories with working trees: " + cache.size()); // 7
+        System.out.println("Working tree rebuilt from cache: " + workingFirst.equals(working.buildTreeFromDirectory("main"))); // true
+
+        // A missing git/trees file is written again rather than trusted to the cache
+        new File("CacheRepo/git/trees/main_utils.tree").delete();
+        working.buildTreeFromDirectory("main");
+        System.out.println("Working tree file restored: " + new File("CacheRepo/git/trees/main_utils.tree").exists()); // true
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    // Writes a file and backdates it past the racy window
+    private static void write(String path, String content, long mtimeMillis) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content);
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(mtimeMillis));
+    }
+}
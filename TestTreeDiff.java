@@ -0,0 +1,75 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestTreeDiff {
+
+    public static void main(String[] args) {
+        System.out.println("=== TreeDiff Tester ===");
+        MyRepo repository = new MyRepo("DiffRepo", false);
+        GitTreeBuilder builder = new GitTreeBuilder(repository);
+        ObjectId v1;
+        ObjectId v2;
+        try {
+            // 20 folders with 10 files each, snapshotted before and after a few edits
+            for (int d = 0; d < 20; d++) {
+                for (int f = 0; f < 10; f++) {
+                    write("DiffRepo/app/pkg" + d + "/File" + f + ".txt", "folder " + d + " file " + f);
+                }
+            }
+            write("DiffRepo/app/pkg3/deep/Old.txt", "old");
+            write("DiffRepo/app/swap", "a file");
+            v1 = builder.addDirectoryId("app");
+
+            write("DiffRepo/app/pkg3/deep/Old.txt", "old, edited");
+            write("DiffRepo/app/pkg7/Added.txt", "added");
+            write("DiffRepo/app/pkg7.txt", "sorts before pkg7/");
+            Files.delete(new File("DiffRepo/app/pkg9/File4.txt").toPath());
+            Files.delete(new File("DiffRepo/app/swap").toPath());
+            write("DiffRepo/app/swap/inner.txt", "now a folder");
+            write("DiffRepo/app/newpkg/One.txt", "one");
+            write("DiffRepo/app/newpkg/Two.txt", "two");
+            v2 = builder.addDirectoryId("app");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        TreeDiff diff = new TreeDiff(repository);
+        List<String> changes = diff.diff(v1, v2).map(TreeDiff.Change::toString).collect(Collectors.toList());
+        System.out.println("Changes: " + changes);
+        // [A newpkg/One.txt, A newpkg/Two.txt, M pkg3/deep/Old.txt, A pkg7.txt, A pkg7/Added.txt, D pkg9/File4.txt, D swap, A swap/inner.txt]
+        System.out.println("Paths in string order: "
+                + changes.equals(changes.stream().sorted((a, b) -> a.substring(2).compareTo(b.substring(2)))
+                        .collect(Collectors.toList()))); // true
+
+        // Only the roots and the trees on the way to a change are read:
+        // 2 roots, pkg3 and pkg3/deep on both sides, pkg7 and pkg9 on both sides, newpkg, swap
+        System.out.println("Trees read: " + diff.treesRead()); // 12
+
+        System.out.println("Same tree has no changes: " + (diff.diff(v1, v1).count() == 0)); // true
+        System.out.println("Reverse diff: " + diff.diff(v2, v1).filter(c -> c.path.startsWith("pkg"))
+                .map(TreeDiff.Change::toString).collect(Collectors.toList()));
+        // [M pkg3/deep/Old.txt, D pkg7.txt, D pkg7/Added.txt, A pkg9/File4.txt]
+
+        // The stream is lazy: taking the first change reads only the trees on its path
+        TreeDiff lazy = new TreeDiff(repository);
+        TreeDiff.Change first = lazy.diff(v1, v2).findFirst().get();
+        System.out.println("First change: " + first + ", trees read: " + lazy.treesRead()); // A newpkg/One.txt, trees read: 3
+
+        TreeDiff.Change modified = diff.diff(v1, v2).filter(c -> c.kind == TreeDiff.Kind.MODIFIED).findFirst().get();
+        System.out.println("Old and new ids kept: " + (modified.oldId != null && modified.newId != null
+                && repository.hasObject(modified.oldId) && repository.hasObject(modified.newId))); // true
+
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    private static void write(String path, String content) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content);
+    }
+}
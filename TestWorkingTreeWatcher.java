@@ -0,0 +1,97 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class TestWorkingTreeWatcher {
+
+    public static void main(String[] args) {
+        System.out.println("=== WorkingTreeWatcher Tester ===");
+        MyRepo repository = new MyRepo("WatchRepo", true);
+        try {
+            write("WatchRepo/app/README.md", "watched readme");
+            write("WatchRepo/app/src/Main.java", "class Main {}");
+            write("WatchRepo/app/src/util/Strings.java", "class Strings {}");
+            write("WatchRepo/app/docs/guide.txt", "guide");
+            // A link back up the tree must not be followed
+            Files.createSymbolicLink(new File("WatchRepo/app/loop").toPath(),
+                    new File("WatchRepo/app").getAbsoluteFile().toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        GitTreeWorking working = new GitTreeWorking(repository);
+        WorkingTreeWatcher watcher = working.watch("app");
+        String first = watcher.rootTreeHash();
+        System.out.println("Matches full build: " + first.equals(working.buildTreeFromDirectory("app"))); // true
+        System.out.println("Unchanged tree keeps its hash: " + first.equals(watcher.rootTreeHash())); // true
+
+        try {
+            write("WatchRepo/app/src/util/Strings.java", "class Strings { int length; }");
+            write("WatchRepo/app/src/net/Client.java", "class Client {}");
+            Files.delete(new File("WatchRepo/app/docs/guide.txt").toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        String second = waitForChange(watcher, first);
+        System.out.println("Hash changed after edits: " + !second.equals(first)); // true
+
+        // A full rebuild of the same files must agree with the incremental one
+        System.out.println("Matches full build after edits: " + second.equals(working.buildTreeFromDirectory("app"))); // true
+        System.out.println("Deleted file left the index: "
+                + (repository.getIndex().get("app/docs/guide.txt") == null)); // true
+        System.out.println("New file in new folder indexed: "
+                + (repository.getIndex().get("app/src/net/Client.java") != null)); // true
+
+        try {
+            deleteTree(new File("WatchRepo/app/src"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        String third = waitForChange(watcher, second);
+        System.out.println("Matches full build after removing a folder: "
+                + third.equals(working.buildTreeFromDirectory("app"))); // true
+        System.out.println("Files under removed folder left the index: "
+                + (repository.getIndex().get("app/src/Main.java") == null)); // true
+
+        watcher.close();
+        System.out.println("Repository cleanup complete: " + repository.cleanup());
+        System.out.println("=== Test Finished ===");
+    }
+
+    // Events arrive asynchronously, so poll until the tree hash moves on
+    private static String waitForChange(WorkingTreeWatcher watcher, String oldHash) {
+        String hash = watcher.rootTreeHash();
+        for (int i = 0; i < 100 && hash.equals(oldHash); i++) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            hash = watcher.rootTreeHash();
+        }
+        // Let any trailing events for the same edits settle
+        try {
+            Thread.sleep(300);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return watcher.rootTreeHash();
+    }
+
+    private static void write(String path, String content) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content);
+    }
+
+    private static void deleteTree(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteTree(file);
+            }
+        }
+        Files.delete(dir.toPath());
+    }
+}
@@ -0,0 +1,233 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the tree id built for each directory, keyed by a fingerprint of
+ * everything under it, and keeps the mapping in git/treecache between runs.
+ *
+ * A directory's fingerprint is a SHA-1 of its children in name order: the
+ * name, size, modification time and file key (device and inode on Unix) of
+ * every file, the name and fingerprint of every subdirectory, and the id of
+ * the ignore rules that decided which children count (see IgnoreRules).
+ * Working this out only needs the directory listings and file attributes,
+ * never the file contents. When the fingerprint matches the one stored for
+ * the directory, the tree builders reuse the stored tree id instead of
+ * staging the files, formatting the tree and writing it again, and take the
+ * files' index entries from the stored tree.
+ *
+ * File layout (one line per directory, text):
+ *   <fingerprint> <tree id> <key>
+ * where the key names the builder and the directory, since the same folder
+ * gives different trees in GitTreeBuilder and GitTreeWorking.
+ *
+ * A directory whose newest file was modified within RACY_WINDOW_NANOS of
+ * being cached is not cached, because a second change within the same
+ * timestamp tick would leave its fingerprint unchanged.
+ */
+public class TreeCache {
+
+    // Coarsest file timestamp resolution we allow for (FAT uses 2 seconds)
+    private static final long RACY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private File cacheFile;
+    private HashMap<String, ObjectId[]> entries = new HashMap<>();
+    private boolean changed;
+
+    /**
+     * Collects the children of one directory into its fingerprint. Children
+     * must be added in a fixed order: subdirectories by name, then files by
+     * name.
+     */
+    public static class Fingerprint {
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private DataOutputStream out = new DataOutputStream(bytes);
+        private long newestMtime;
+
+        /**
+         * Adds a file
+         *
+         * @param name  The file name
+         * @param attrs The file's attributes
+         */
+        public void addFile(String name, BasicFileAttributes attrs) {
+            long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            try {
+                out.writeByte('f');
+                out.writeUTF(name);
+                out.writeLong(attrs.size());
+                out.writeLong(mtime);
+                Object fileKey = attrs.fileKey();
+                out.writeUTF(fileKey == null ? "" : fileKey.toString());
+            } catch (IOException e) {
+                throw new RuntimeException("Error adding " + name + " to fingerprint", e);
+            }
+            newestMtime = Math.max(newestMtime, mtime);
+        }
+
+        /**
+         * Adds a subdirectory
+         *
+         * @param name        The directory name
+         * @param fingerprint The subdirectory's own fingerprint
+         * @param newestMtime The newest file modification time under it
+         */
+        public void addTree(String name, ObjectId fingerprint, long newestMtime) {
+            try {
+                out.writeByte('t');
+                out.writeUTF(name);
+                out.write(fingerprint.toRaw());
+            } catch (IOException e) {
+                throw new RuntimeException("Error adding " + name + " to fingerprint", e);
+            }
+            this.newestMtime = Math.max(this.newestMtime, newestMtime);
+        }
+
+        /**
+         * Adds the ignore rules the directory was listed with, so a changed
+         * .gitignore in a parent directory is noticed
+         *
+         * @param rulesId The rules' IgnoreRules.id()
+         */
+        public void addRules(ObjectId rulesId) {
+            try {
+                out.writeByte('r');
+                out.write(rulesId.toRaw());
+            } catch (IOException e) {
+                throw new RuntimeException("Error adding ignore rules to fingerprint", e);
+            }
+        }
+
+        /**
+         * @return The fingerprint of everything added
+         */
+        public ObjectId finish() {
+            return ObjectId.fromRaw(Sha1Generator.digest(bytes.toByteArray()));
+        }
+
+        /**
+         * @return The newest file modification time added, in nanoseconds
+         */
+        public long newestMtime() {
+            return newestMtime;
+        }
+    }
+
+    /**
+     * Opens the cache file; a missing or unreadable file gives an empty cache
+     *
+     * @param cacheFile The git/treecache file
+     */
+    public TreeCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+        if (cacheFile.exists()) {
+            try (BufferedReader br = new BufferedReader(new FileReader(cacheFile, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] parts = line.split(" ", 3);
+                    if (parts.length == 3 && ObjectId.isHex(parts[0]) && ObjectId.isHex(parts[1])) {
+                        entries.put(parts[2], new ObjectId[] { ObjectId.fromHex(parts[0]), ObjectId.fromHex(parts[1]) });
+                    }
+                }
+            } catch (IOException e) {
+                entries.clear(); // only a cache; it is rebuilt as trees are built
+            }
+        }
+    }
+
+    /**
+     * Looks up the tree id stored for a directory
+     *
+     * @param key         The builder and directory, e.g. "builder main/utils"
+     * @param fingerprint The directory's current fingerprint
+     * @return The stored tree id, or null if the directory has no entry or
+     *         its fingerprint has changed
+     */
+    public synchronized ObjectId get(String key, ObjectId fingerprint) {
+        ObjectId[] entry = entries.get(key);
+        return entry != null && entry[0].equals(fingerprint) ? entry[1] : null;
+    }
+
+    /**
+     * Stores the tree id built for a directory, unless its files changed too
+     * recently to be told apart from a later change
+     *
+     * @param key         The builder and directory
+     * @param fingerprint The fingerprint the tree was built from
+     * @param newestMtime Fingerprint.newestMtime() for the directory
+     * @param treeId      The tree id
+     */
+    public synchronized void put(String key, ObjectId fingerprint, long newestMtime, ObjectId treeId) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (newestMtime >= now - RACY_WINDOW_NANOS) {
+            if (entries.remove(key) != null) {
+                changed = true;
+            }
+            return;
+        }
+        ObjectId[] old = entries.put(key, new ObjectId[] { fingerprint, treeId });
+        if (old == null || !old[0].equals(fingerprint) || !old[1].equals(treeId)) {
+            changed = true;
+        }
+    }
+
+    /**
+     * @return The number of directories in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The tree id of every cached directory
+     */
+    public synchronized ArrayList<ObjectId> treeIds() {
+        ArrayList<ObjectId> ids = new ArrayList<>();
+        for (ObjectId[] entry : entries.values()) {
+            ids.add(entry[1]);
+        }
+        return ids;
+    }
+
+    /**
+     * Writes the cache file if anything changed since it was loaded or saved
+     */
+    public synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        try {
+            File tempFile = File.createTempFile("treecache", ".tmp", cacheFile.getParentFile());
+            try {
+                try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile, StandardCharsets.UTF_8))) {
+                    for (Map.Entry<String, ObjectId[]> entry : entries.entrySet()) {
+                        StringBuilder line = new StringBuilder();
+                        entry.getValue()[0].appendHex(line).append(' ');
+                        entry.getValue()[1].appendHex(line).append(' ').append(entry.getKey());
+                        writer.write(line.toString());
+                        writer.newLine();
+                    }
+                }
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tempFile.delete();
+            }
+            changed = false;
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing tree cache " + cacheFile.getPath(), e);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lists the files that differ between two trees, such as two results of
+ * GitTreeBuilder.addDirectory.
+ *
+ * Both trees are read from the object store and walked side by side, one
+ * directory level at a time, matching entries by name. A subtree whose id
+ * is the same on both sides holds the same files, so it is skipped without
+ * being read. Changes come out as a lazy stream in path order: trees are
+ * only read as the stream is consumed, and diffing two big snapshots that
+ * differ in a few files reads only the trees on the paths to those files.
+ *
+ * Path order is plain string order of the full paths. As in git, each level
+ * is sorted with a folder's name compared as if it ended in "/", so
+ * "a.txt" comes before "a/b.txt", and a file replaced by a folder of the
+ * same name (or the other way round) is a deleted and an added entry.
+ *
+ * Trees are read through MyRepo.readTree, so a tree that was decoded
+ * recently (by this diff or any other reader) comes from the cache.
+ *
+ * Entries are matched by name and paths are given relative to the roots.
+ * GitTreeBuilder's tree lines hold repo-relative paths, so subtrees only
+ * share ids between snapshots of the same folder; snapshots of two
+ * different folders can still be compared, but every subtree is read.
+ *
+ * Usage:
+ *   TreeDiff diff = new TreeDiff(repository);
+ *   diff.diff(oldTreeId, newTreeId).forEach(change -> System.out.println(change));
+ */
+public class TreeDiff {
+
+    /**
+     * How a path differs between the two trees
+     */
+    public enum Kind {
+        ADDED, DELETED, MODIFIED
+    }
+
+    /**
+     * One file that differs. oldId is null for an added file and newId is
+     * null for a deleted one.
+     */
+    public static class Change {
+        public final Kind kind;
+        public final String path;
+        public final ObjectId oldId;
+        public final ObjectId newId;
+
+        public Change(Kind kind, String path, ObjectId oldId, ObjectId newId) {
+            this.kind = kind;
+            this.path = path;
+            this.oldId = oldId;
+            this.newId = newId;
+        }
+
+        @Override
+        public String toString() {
+            return kind.name().charAt(0) + " " + path;
+        }
+    }
+
+    private MyRepo repository;
+    private AtomicLong treesRead = new AtomicLong();
+
+    public TreeDiff(MyRepo repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Compares two trees
+     *
+     * @param oldTree The tree to compare from, or null for an empty tree
+     * @param newTree The tree to compare to, or null for an empty tree
+     * @return The changed files in path order, read as the stream is consumed
+     */
+    public Stream<Change> diff(ObjectId oldTree, ObjectId newTree) {
+        Iterator<Change> changes = new DiffIterator(oldTree, newTree);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(changes,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Same as diff(ObjectId, ObjectId), with the ids in hex
+     *
+     * @param oldTree The tree to compare from
+     * @param newTree The tree to compare to
+     * @return The changed files in path order
+     */
+    public Stream<Change> diff(String oldTree, String newTree) {
+        return diff(ObjectId.fromHex(oldTree), ObjectId.fromHex(newTree));
+    }
+
+    /**
+     * @return The number of trees this TreeDiff has looked at so far, whether
+     *         or not they came from the cache
+     */
+    public long treesRead() {
+        return treesRead.get();
+    }
+
+    // Walks both trees depth first. Each frame is one directory level: the
+    // entries of both sides merged in path order, and how far the walk has got.
+    private class DiffIterator implements Iterator<Change> {
+        private ArrayDeque<Frame> stack = new ArrayDeque<>();
+        private Change next;
+
+        DiffIterator(ObjectId oldTree, ObjectId newTree) {
+            if (oldTree == null || !oldTree.equals(newTree)) {
+                stack.push(new Frame("", readTree(oldTree), readTree(newTree)));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !stack.isEmpty()) {
+                next = stack.peek().advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Change next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Change change = next;
+            next = null;
+            return change;
+        }
+
+        private class Frame {
+            private String prefix;
+            private ArrayList<ObjectReader.TreeEntry> oldEntries;
+            private ArrayList<ObjectReader.TreeEntry> newEntries;
+            private int oldPos;
+            private int newPos;
+
+            Frame(String prefix, ArrayList<ObjectReader.TreeEntry> oldEntries,
+                    ArrayList<ObjectReader.TreeEntry> newEntries) {
+                this.prefix = prefix;
+                this.oldEntries = oldEntries;
+                this.newEntries = newEntries;
+            }
+
+            // Returns the next change at this level, or null after pushing a
+            // subtree or finishing (in which case the frame is popped)
+            Change advance() {
+                ObjectReader.TreeEntry o = oldPos < oldEntries.size() ? oldEntries.get(oldPos) : null;
+                ObjectReader.TreeEntry n = newPos < newEntries.size() ? newEntries.get(newPos) : null;
+                if (o == null && n == null) {
+                    stack.pop();
+                    return null;
+                }
+                int cmp = o == null ? 1 : n == null ? -1 : compareEntries(o, n);
+                if (cmp < 0) {
+                    oldPos++;
+                    return removed(o);
+                }
+                if (cmp > 0) {
+                    newPos++;
+                    return added(n);
+                }
+                oldPos++;
+                newPos++;
+                if (o.id.equals(n.id)) {
+                    return null; // same file, or same subtree: nothing under it to read
+                }
+                String path = prefix + o.name;
+                if (o.isTree) {
+                    stack.push(new Frame(path + "/", readTree(o.id), readTree(n.id)));
+                    return null;
+                }
+                return new Change(Kind.MODIFIED, path, o.id, n.id);
+            }
+
+            // A deleted entry: the file itself, or everything in the subtree
+            private Change removed(ObjectReader.TreeEntry entry) {
+                if (!entry.isTree) {
+                    return new Change(Kind.DELETED, prefix + entry.name, entry.id, null);
+                }
+                stack.push(new Frame(prefix + entry.name + "/", readTree(entry.id), new ArrayList<>()));
+                return null;
+            }
+
+            // An added entry: the file itself, or everything in the subtree
+            private Change added(ObjectReader.TreeEntry entry) {
+                if (!entry.isTree) {
+                    return new Change(Kind.ADDED, prefix + entry.name, null, entry.id);
+                }
+                stack.push(new Frame(prefix + entry.name + "/", new ArrayList<>(), readTree(entry.id)));
+                return null;
+            }
+        }
+    }
+
+    // Reads a tree's entries in path order (tree text lists files before
+    // folders), through the repository's decoded tree cache. A null id is an
+    // empty tree.
+    private ArrayList<ObjectReader.TreeEntry> readTree(ObjectId id) {
+        ArrayList<ObjectReader.TreeEntry> entries = new ArrayList<>();
+        if (id == null) {
+            return entries;
+        }
+        treesRead.incrementAndGet();
+        entries.addAll(repository.readTree(id));
+        entries.sort(TreeDiff::compareEntries);
+        return entries;
+    }
+
+    // Orders two entries of one tree the way their paths sort: a folder's
+    // name compares as if it ended in "/". Equal only for the same name and
+    // type.
+    private static int compareEntries(ObjectReader.TreeEntry a, ObjectReader.TreeEntry b) {
+        int len = Math.min(a.name.length(), b.name.length());
+        for (int i = 0; i < len; i++) {
+            char ca = a.name.charAt(i);
+            char cb = b.name.charAt(i);
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        int ca = a.name.length() > len ? a.name.charAt(len) : a.isTree ? '/' : -1;
+        int cb = b.name.length() > len ? b.name.charAt(len) : b.isTree ? '/' : -1;
+        return ca - cb;
+    }
+}
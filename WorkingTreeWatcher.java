@@ -0,0 +1,341 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps the working tree of one directory up to date while its files change,
+ * using a WatchService instead of rebuilding the whole tree each time.
+ *
+ * Every directory under the base is registered with the WatchService and
+ * remembers its file entries, its subdirectories and its last tree id. A
+ * background thread records the names that change in each directory and
+ * marks that directory and all its ancestors dirty. rootTreeId() then
+ * restages only the changed names and rewrites only the dirty trees;
+ * every other subtree reuses its cached id. The work done is proportional
+ * to the size of the change, not the size of the directory.
+ *
+ * Trees, git/trees files and index entries are exactly what
+ * GitTreeWorking.buildTreeFromDirectory would make for the same files.
+ * Files removed from the directory are also removed from the index, and
+ * so are files that become ignored (see IgnoreRules); ignored folders are
+ * not watched. A changed .gitignore rescans everything. If the
+ * WatchService drops events (OVERFLOW), the next rootTreeId() rescans the
+ * whole directory; unchanged files are still not re-read, thanks to the
+ * index stat data.
+ *
+ * Usage:
+ *   WorkingTreeWatcher watcher = new GitTreeWorking(repository).watch("myProgram");
+ *   ... files change ...
+ *   String treeHash = watcher.rootTreeHash();
+ *   watcher.close();
+ */
+public class WorkingTreeWatcher implements Closeable {
+
+    private MyRepo repository;
+    private GitTreeWorking working;
+    private String baseRelPath;
+    private WatchService watchService;
+    private Thread eventThread;
+
+    // Everything below is guarded by this
+    private HashMap<String, DirNode> nodes = new HashMap<>();
+    private HashMap<WatchKey, String> keyDirs = new HashMap<>();
+    // Directory -> child names that changed since its tree was built
+    private HashMap<String, TreeSet<String>> changedNames = new HashMap<>();
+    // Directories whose tree must be rebuilt, including ancestors of changes
+    private HashSet<String> dirty = new HashSet<>();
+    private boolean rescanAll;
+
+    // What is known about one watched directory
+    private static class DirNode {
+        TreeMap<String, GitIndex.Entry> files = new TreeMap<>();
+        TreeSet<String> subdirs = new TreeSet<>();
+        // The rules for this directory's children
+        IgnoreRules rules;
+        ObjectId treeId;
+        WatchKey key;
+    }
+
+    /**
+     * Builds the tree once and starts watching. Most callers use
+     * GitTreeWorking.watch() instead.
+     *
+     * @param repository         The repository the directory is in
+     * @param working            The tree builder whose output this matches
+     * @param startingDirRelPath The directory to watch, relative to the repo root
+     */
+    public WorkingTreeWatcher(MyRepo repository, GitTreeWorking working, String startingDirRelPath) {
+        this.repository = repository;
+        this.working = working;
+        this.baseRelPath = startingDirRelPath;
+        File startDir = new File(repository.repoFolder, startingDirRelPath);
+        if (!startDir.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + startingDirRelPath);
+        }
+        try {
+            watchService = startDir.toPath().getFileSystem().newWatchService();
+        } catch (IOException e) {
+            throw new RuntimeException("Error starting watch service", e);
+        }
+        synchronized (this) {
+            rebuildAll();
+        }
+        eventThread = new Thread(this::drainEvents, "tree-watcher-" + startingDirRelPath);
+        eventThread.setDaemon(true);
+        eventThread.start();
+    }
+
+    /**
+     * Returns the tree id of the watched directory, first rebuilding any
+     * subtrees changed by the events received so far
+     *
+     * @return The current tree id
+     */
+    public synchronized ObjectId rootTreeId() {
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            processKey(key);
+        }
+        if (rescanAll) {
+            rebuildAll();
+        } else if (dirty.contains(baseRelPath)) {
+            IndexChanges changes = new IndexChanges();
+            rebuild(baseRelPath, changes);
+            changes.apply();
+        }
+        return nodes.get(baseRelPath).treeId;
+    }
+
+    /**
+     * Same as rootTreeId(), as hex
+     *
+     * @return The current tree hash
+     */
+    public String rootTreeHash() {
+        return rootTreeId().toHex();
+    }
+
+    /**
+     * Stops watching. The last tree and index entries stay written.
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing watch service", e);
+        }
+        eventThread.interrupt();
+    }
+
+    // Background loop: records changes as soon as they are reported, so the
+    // WatchService queue does not overflow between rootTreeId() calls
+    private void drainEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                synchronized (this) {
+                    processKey(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    // Records the child names a key reports and marks their directory dirty
+    private void processKey(WatchKey key) {
+        String dirRel = keyDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescanAll = true;
+            } else if (dirRel != null) {
+                String name = ((Path) event.context()).getFileName().toString();
+                if (name.equals(IgnoreRules.FILE_NAME)) {
+                    rescanAll = true; // may change what is ignored anywhere below
+                }
+                changedNames.computeIfAbsent(dirRel, d -> new TreeSet<>()).add(name);
+                markDirty(dirRel);
+            }
+        }
+        if (!key.reset()) {
+            keyDirs.remove(key); // directory is gone; its parent reports that
+        }
+    }
+
+    // Marks a directory and every ancestor up to the base as needing a rebuild
+    private void markDirty(String dirRel) {
+        String current = dirRel;
+        while (dirty.add(current) && !current.equals(baseRelPath)) {
+            current = current.substring(0, current.lastIndexOf('/'));
+        }
+    }
+
+    // Forgets every cached tree and builds the whole directory again. Files
+    // that were cached but are gone now are removed from the index.
+    private void rebuildAll() {
+        HashSet<String> previous = new HashSet<>();
+        for (Map.Entry<String, DirNode> node : nodes.entrySet()) {
+            for (String fileName : node.getValue().files.keySet()) {
+                previous.add(node.getKey() + "/" + fileName);
+            }
+        }
+        for (WatchKey key : keyDirs.keySet()) {
+            key.cancel();
+        }
+        keyDirs.clear();
+        nodes.clear();
+        changedNames.clear();
+        dirty.clear();
+        rescanAll = false;
+        IndexChanges changes = new IndexChanges();
+        scan(baseRelPath, repository.ignoreRules(baseRelPath), changes);
+        for (int i = 0; i < changes.staged.size(); i++) {
+            previous.remove(changes.staged.get(i).path);
+        }
+        changes.removed.addAll(previous);
+        changes.apply();
+    }
+
+    // Starts watching a directory that has no node yet and builds its tree,
+    // treating every child as changed. Rules are those of the parent.
+    private void scan(String dirRel, IgnoreRules rules, IndexChanges changes) {
+        DirNode node = new DirNode();
+        File dir = new File(repository.repoFolder, dirRel);
+        try {
+            node.key = dir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new RuntimeException("Error watching " + dir.getPath(), e);
+        }
+        keyDirs.put(node.key, dirRel);
+        nodes.put(dirRel, node);
+
+        // Listed the same way as GitTreeWorking, so links to folders are
+        // not followed and an unreadable folder counts as empty
+        ArrayList<DirectoryWalker.Entry> children = DirectoryWalker.list(dir);
+        node.rules = rules.enter(dirRel, children);
+        TreeSet<String> names = new TreeSet<>();
+        for (int i = 0; i < children.size(); i++) {
+            names.add(children.get(i).name);
+        }
+        changedNames.computeIfAbsent(dirRel, d -> new TreeSet<>()).addAll(names);
+        rebuild(dirRel, changes);
+    }
+
+    // Restages the changed names of a dirty directory, rebuilds its dirty
+    // subdirectories, then writes its tree from the cached entries
+    private void rebuild(String dirRel, IndexChanges changes) {
+        DirNode node = nodes.get(dirRel);
+        TreeSet<String> names = changedNames.remove(dirRel);
+        if (names != null) {
+            for (String name : names) {
+                String childRel = dirRel + "/" + name;
+                // Null for anything the listing would leave out, which is
+                // treated like a deleted child
+                DirectoryWalker.Entry child = DirectoryWalker.read(new File(repository.repoFolder, childRel));
+                if (child != null && node.rules.isIgnored(childRel, child.isDirectory())) {
+                    child = null;
+                }
+                if (child != null && child.isFile()) {
+                    dropSubdir(dirRel, node, name, changes);
+                    GitIndex.Entry entry = repository.stageFile(child.toFile(), childRel, child.attrs);
+                    node.files.put(name, entry);
+                    changes.staged.add(entry);
+                } else if (child != null) {
+                    if (node.files.remove(name) != null) {
+                        changes.removed.add(childRel);
+                    }
+                    if (node.subdirs.add(name)) {
+                        scan(childRel, node.rules, changes);
+                    }
+                } else {
+                    if (node.files.remove(name) != null) {
+                        changes.removed.add(childRel);
+                    }
+                    dropSubdir(dirRel, node, name, changes);
+                }
+            }
+        }
+        for (String name : node.subdirs) {
+            String childRel = dirRel + "/" + name;
+            if (dirty.contains(childRel)) {
+                rebuild(childRel, changes);
+            }
+        }
+
+        StringBuilder treeText = new StringBuilder();
+        for (Map.Entry<String, GitIndex.Entry> file : node.files.entrySet()) {
+            String relFromBase = working.pathRelativeToBase(baseRelPath, dirRel + "/" + file.getKey());
+            file.getValue().id.appendHex(treeText.append("blob ")).append(' ').append(relFromBase).append('\n');
+        }
+        for (String name : node.subdirs) {
+            String childRel = dirRel + "/" + name;
+            String relFromBase = working.pathRelativeToBase(baseRelPath, childRel);
+            nodes.get(childRel).treeId.appendHex(treeText.append("tree ")).append(' ').append(relFromBase).append('\n');
+        }
+        String text = treeText.toString();
+        working.writeWorkingTreeFile(dirRel, text);
+        node.treeId = repository.writeObjectId(text);
+        dirty.remove(dirRel);
+    }
+
+    // Forgets a subdirectory that was deleted or replaced by a file, along
+    // with everything cached under it
+    private void dropSubdir(String parentRel, DirNode parent, String name, IndexChanges changes) {
+        if (!parent.subdirs.remove(name)) {
+            return;
+        }
+        String subRel = parentRel + "/" + name;
+        List<String> gone = new ArrayList<>();
+        for (String dirRel : nodes.keySet()) {
+            if (dirRel.equals(subRel) || dirRel.startsWith(subRel + "/")) {
+                gone.add(dirRel);
+            }
+        }
+        for (int i = 0; i < gone.size(); i++) {
+            DirNode node = nodes.remove(gone.get(i));
+            node.key.cancel();
+            keyDirs.remove(node.key);
+            changedNames.remove(gone.get(i));
+            dirty.remove(gone.get(i));
+            for (String fileName : node.files.keySet()) {
+                changes.removed.add(gone.get(i) + "/" + fileName);
+            }
+        }
+    }
+
+    // Index entries to put and paths to remove, saved together once a
+    // rebuild is finished
+    private class IndexChanges {
+        ArrayList<GitIndex.Entry> staged = new ArrayList<>();
+        ArrayList<String> removed = new ArrayList<>();
+
+        void apply() {
+            if (staged.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+            GitIndex index = repository.getIndex();
+            for (int i = 0; i < removed.size(); i++) {
+                index.remove(removed.get(i));
+            }
+            for (int i = 0; i < staged.size(); i++) {
+                index.put(staged.get(i));
+            }
+            index.save();
+        }
+    }
+}
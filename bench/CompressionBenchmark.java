@@ -0,0 +1,65 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compression.compress/decompress (the old Base64 GZIP text form) next to
+ * encode/decode (the byte codec objects are stored with).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    @Param({ "64", "4096", "1048576" })
+    public int size;
+
+    private String text;
+    private String compressed;
+    private byte[] bytes;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws Throwable {
+        text = Inputs.text(size, 1);
+        compressed = Subjects.compress(text);
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+        encoded = Subjects.encode(bytes);
+    }
+
+    @Benchmark
+    public String compress() throws Throwable {
+        return Subjects.compress(text);
+    }
+
+    @Benchmark
+    public String decompress() throws Throwable {
+        return Subjects.decompress(compressed);
+    }
+
+    @Benchmark
+    public byte[] encode() throws Throwable {
+        return Subjects.encode(bytes);
+    }
+
+    @Benchmark
+    public byte[] decode() throws Throwable {
+        return Subjects.decode(encoded);
+    }
+}
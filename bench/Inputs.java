@@ -0,0 +1,93 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Reproducible benchmark inputs. Every generator takes a seed so each run,
+ * and each release, measures exactly the same content.
+ */
+public final class Inputs {
+
+    private static final String[] WORDS = { "tree", "blob", "index", "commit", "object", "hash", "the", "of",
+            "repository", "file", "directory", "stage", "a", "and", "write", "read" };
+
+    private Inputs() {
+    }
+
+    /**
+     * Source-like text that deflates about as well as real files do
+     *
+     * @param size The length in characters
+     * @param seed The random seed
+     * @return The text
+     */
+    public static String text(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(size + 16);
+        while (sb.length() < size) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+
+    /**
+     * Writes a text file of a given size
+     *
+     * @param file The file to write
+     * @param size The length in bytes
+     * @param seed The random seed
+     */
+    public static void writeFile(File file, int size, long seed) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), text(size, seed));
+    }
+
+    /**
+     * Lays out a directory tree of a given shape under root
+     *
+     * @param root  The folder to fill; it is created if needed
+     * @param shape deep, wide, small or huge (see TreeBenchmark)
+     */
+    public static void writeTree(File root, String shape) throws IOException {
+        long seed = 0;
+        switch (shape) {
+            case "deep":
+                // 32 nested folders, 4 files of 2 KiB in each
+                File dir = root;
+                for (int level = 0; level < 32; level++) {
+                    dir = new File(dir, "level" + level);
+                    for (int i = 0; i < 4; i++) {
+                        writeFile(new File(dir, "file" + i + ".txt"), 2048, seed++);
+                    }
+                }
+                break;
+            case "wide":
+                // One folder with 2000 files of 1 KiB
+                for (int i = 0; i < 2000; i++) {
+                    writeFile(new File(root, "file" + i + ".txt"), 1024, seed++);
+                }
+                break;
+            case "small":
+                // 20 folders of 250 files of 256 bytes
+                for (int d = 0; d < 20; d++) {
+                    for (int i = 0; i < 250; i++) {
+                        writeFile(new File(root, "dir" + d + "/file" + i + ".txt"), 256, seed++);
+                    }
+                }
+                break;
+            case "huge":
+                // 4 files of 16 MiB
+                for (int i = 0; i < 4; i++) {
+                    writeFile(new File(root, "big" + i + ".bin"), 16 * 1024 * 1024, seed++);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tree shape: " + shape);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package bench;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MyRepo.writeObject and createBlobFromFile. Every call stores new content
+ * (a counter is written into it first), so the numbers include hashing,
+ * compression and the file write, not just the "already stored" check.
+ * writeBehindBatch 0 writes each object directly; otherwise objects go
+ * through the write-behind writer. The queue is flushed after each
+ * iteration, so once it is full the score shows the writer's throughput
+ * rather than just the cost of queueing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ObjectWriteBenchmark {
+
+    @Param({ "1024", "1048576", "16777216" })
+    public int size;
+
+    @Param({ "0", "256" })
+    public int writeBehindBatch;
+
+    private File folder;
+    private Object repo;
+    private String text;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        folder = Files.createTempDirectory("bench-objects").toFile();
+        repo = Subjects.openRepo(new File(folder, "repo"));
+        text = Inputs.text(size, 1);
+        Subjects.setWriteBehind(repo, writeBehindBatch, 10);
+    }
+
+    @TearDown(Level.Iteration)
+    public void flush() throws Throwable {
+        Subjects.flush(repo);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        Subjects.setWriteBehind(repo, 0, 0);
+        Subjects.deleteRecursively(folder.toPath());
+    }
+
+    /**
+     * A file in the repository whose first bytes change before every call,
+     * kept in its own state so the per-call setup only runs for the file
+     * benchmark
+     */
+    @State(Scope.Thread)
+    public static class ChangingFile {
+        private File file;
+        private RandomAccessFile head;
+        private long counter;
+
+        @Setup(Level.Trial)
+        public void setup(ObjectWriteBenchmark benchmark) throws Throwable {
+            file = new File(benchmark.folder, "repo/input.txt");
+            Inputs.writeFile(file, benchmark.size, 2);
+            head = new RandomAccessFile(file, "rw");
+        }
+
+        @Setup(Level.Invocation)
+        public void change() throws Throwable {
+            head.seek(0);
+            head.writeLong(++counter);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Throwable {
+            head.close();
+        }
+    }
+
+    @Benchmark
+    public String writeObject() throws Throwable {
+        return Subjects.writeObject(repo, (++counter) + text);
+    }
+
+    @Benchmark
+    public String createBlobFromFile(ChangingFile input) throws Throwable {
+        return Subjects.createBlobFromFile(repo, input.file);
+    }
+
+    @Benchmark
+    public String writeObjectAlreadyStored() throws Throwable {
+        return Subjects.writeObject(repo, text);
+    }
+}
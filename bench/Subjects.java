@@ -0,0 +1,200 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Gives the benchmarks access to the repository classes.
+ *
+ * JMH will not generate code for benchmarks in the default package, and a
+ * named package cannot import classes from the default package, so each
+ * method under test is bound once to a static final MethodHandle. The JIT
+ * treats those handles as constants and inlines the call, so invokeExact
+ * costs the same as a direct call. Repository objects are passed around as
+ * Object.
+ */
+public final class Subjects {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final MethodHandle GENERATE_SHA1 = findStatic("Sha1Generator", "generateSha1",
+            MethodType.methodType(String.class, String.class));
+    private static final MethodHandle GENERATE_SHA1_BYTES = findStatic("Sha1Generator", "generateSha1",
+            MethodType.methodType(String.class, byte[].class));
+    private static final MethodHandle COMPRESS = findStatic("Compression", "compress",
+            MethodType.methodType(String.class, String.class));
+    private static final MethodHandle DECOMPRESS = findStatic("Compression", "decompress",
+            MethodType.methodType(String.class, String.class));
+    private static final MethodHandle ENCODE = findStatic("Compression", "encode",
+            MethodType.methodType(byte[].class, byte[].class));
+    private static final MethodHandle DECODE = findStatic("Compression", "decode",
+            MethodType.methodType(byte[].class, byte[].class));
+    private static final MethodHandle NEW_REPO = findConstructor("MyRepo",
+            MethodType.methodType(void.class, String.class, boolean.class));
+    private static final MethodHandle WRITE_OBJECT = findVirtual("MyRepo", "writeObject",
+            MethodType.methodType(String.class, String.class));
+    private static final MethodHandle CREATE_BLOB = findVirtual("MyRepo", "createBlobFromFile",
+            MethodType.methodType(String.class, File.class));
+    private static final MethodHandle SET_WRITE_BEHIND = findVirtual("MyRepo", "setWriteBehind",
+            MethodType.methodType(void.class, int.class, long.class));
+    private static final MethodHandle FLUSH = findVirtual("MyRepo", "flush",
+            MethodType.methodType(void.class));
+    private static final MethodHandle NEW_TREE_BUILDER = findConstructor("GitTreeBuilder",
+            MethodType.methodType(void.class, type("MyRepo")));
+    private static final MethodHandle ADD_DIRECTORY = findVirtual("GitTreeBuilder", "addDirectory",
+            MethodType.methodType(String.class, String.class));
+    private static final MethodHandle NEW_TREE_WORKING = findConstructor("GitTreeWorking",
+            MethodType.methodType(void.class, type("MyRepo")));
+    private static final MethodHandle BUILD_TREE = findVirtual("GitTreeWorking", "buildTreeFromDirectory",
+            MethodType.methodType(String.class, String.class));
+
+    private Subjects() {
+    }
+
+    public static String generateSha1(String input) throws Throwable {
+        return (String) GENERATE_SHA1.invokeExact(input);
+    }
+
+    public static String generateSha1(byte[] input) throws Throwable {
+        return (String) GENERATE_SHA1_BYTES.invokeExact(input);
+    }
+
+    public static String compress(String input) throws Throwable {
+        return (String) COMPRESS.invokeExact(input);
+    }
+
+    public static String decompress(String input) throws Throwable {
+        return (String) DECOMPRESS.invokeExact(input);
+    }
+
+    public static byte[] encode(byte[] input) throws Throwable {
+        return (byte[]) ENCODE.invokeExact(input);
+    }
+
+    public static byte[] decode(byte[] input) throws Throwable {
+        return (byte[]) DECODE.invokeExact(input);
+    }
+
+    /**
+     * Opens the repository in a folder, creating its git folder if needed
+     *
+     * @param folder The repository folder
+     * @return The MyRepo
+     */
+    public static Object openRepo(File folder) throws Throwable {
+        return (Object) NEW_REPO.invokeExact(folder.getPath(), false);
+    }
+
+    /**
+     * Deletes a repository's git folder so the next openRepo() starts empty,
+     * leaving the working files in place
+     *
+     * @param folder The repository folder
+     * @return The new, empty MyRepo
+     */
+    public static Object freshRepo(File folder) throws Throwable {
+        deleteRecursively(new File(folder, "git").toPath());
+        return openRepo(folder);
+    }
+
+    public static String writeObject(Object repo, String content) throws Throwable {
+        return (String) WRITE_OBJECT.invokeExact(repo, content);
+    }
+
+    public static String createBlobFromFile(Object repo, File file) throws Throwable {
+        return (String) CREATE_BLOB.invokeExact(repo, file);
+    }
+
+    public static void setWriteBehind(Object repo, int batchSize, long windowMillis) throws Throwable {
+        SET_WRITE_BEHIND.invokeExact(repo, batchSize, windowMillis);
+    }
+
+    public static void flush(Object repo) throws Throwable {
+        FLUSH.invokeExact(repo);
+    }
+
+    public static Object treeBuilder(Object repo) throws Throwable {
+        return (Object) NEW_TREE_BUILDER.invokeExact(repo);
+    }
+
+    public static String addDirectory(Object builder, String path) throws Throwable {
+        return (String) ADD_DIRECTORY.invokeExact(builder, path);
+    }
+
+    public static Object treeWorking(Object repo) throws Throwable {
+        return (Object) NEW_TREE_WORKING.invokeExact(repo);
+    }
+
+    public static String buildTreeFromDirectory(Object working, String path) throws Throwable {
+        return (String) BUILD_TREE.invokeExact(working, path);
+    }
+
+    /**
+     * Deletes a file or folder and everything under it
+     *
+     * @param path What to delete; missing paths are ignored
+     */
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            Path[] paths = walk.sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+            for (int i = 0; i < paths.length; i++) {
+                Files.delete(paths[i]);
+            }
+        }
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Repository class not on the classpath: " + name, e);
+        }
+    }
+
+    private static MethodHandle findStatic(String owner, String name, MethodType type) {
+        try {
+            return LOOKUP.findStatic(type(owner), name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + owner + "." + name, e);
+        }
+    }
+
+    // Binds an instance method, taking the receiver as Object
+    private static MethodHandle findVirtual(String owner, String name, MethodType type) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(type(owner), name, type);
+            return handle.asType(handle.type().changeParameterType(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + owner + "." + name, e);
+        }
+    }
+
+    // Binds a constructor, with repository types erased to Object
+    private static MethodHandle findConstructor(String owner, MethodType type) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(type(owner), type);
+            return handle.asType(MethodType.methodType(Object.class, erase(handle.type().parameterArray())));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + owner + " constructor", e);
+        }
+    }
+
+    // Repository classes become Object; JDK types are kept
+    private static Class<?>[] erase(Class<?>[] types) {
+        Class<?>[] erased = new Class<?>[types.length];
+        for (int i = 0; i < types.length; i++) {
+            erased[i] = types[i].getPackageName().isEmpty() && !types[i].isPrimitive() ? Object.class : types[i];
+        }
+        return erased;
+    }
+}
@@ -0,0 +1,108 @@
+package bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GitTreeBuilder.addDirectory and GitTreeWorking.buildTreeFromDirectory over
+ * several tree shapes:
+ *   deep   32 nested folders with 4 small files each
+ *   wide   one folder with 2000 files
+ *   small  20 folders of 250 tiny files
+ *   huge   4 files of 16 MiB
+ *
+ * The cold benchmarks start from an empty git folder every call, so every
+ * blob is hashed, compressed and written. The warm ones rebuild a tree that
+ * is already staged, which is what a second "add" of an unchanged folder
+ * costs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TreeBenchmark {
+
+    private static final String TREE = "work";
+
+    @Param({ "deep", "wide", "small", "huge" })
+    public String shape;
+
+    private File folder;
+    private File repoFolder;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        folder = Files.createTempDirectory("bench-trees").toFile();
+        repoFolder = new File(folder, "repo");
+        Inputs.writeTree(new File(repoFolder, TREE), shape);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        Subjects.deleteRecursively(folder.toPath());
+    }
+
+    /**
+     * An empty repository over the same working files before every call
+     */
+    @State(Scope.Thread)
+    public static class EmptyRepo {
+        private Object repo;
+
+        @Setup(Level.Invocation)
+        public void reset(TreeBenchmark benchmark) throws Throwable {
+            repo = Subjects.freshRepo(benchmark.repoFolder);
+        }
+    }
+
+    /**
+     * A repository where the working files are already staged
+     */
+    @State(Scope.Thread)
+    public static class StagedRepo {
+        private Object repo;
+
+        @Setup(Level.Trial)
+        public void stage(TreeBenchmark benchmark) throws Throwable {
+            repo = Subjects.freshRepo(benchmark.repoFolder);
+            Subjects.addDirectory(Subjects.treeBuilder(repo), TREE);
+        }
+    }
+
+    @Benchmark
+    public String addDirectoryCold(EmptyRepo state) throws Throwable {
+        return Subjects.addDirectory(Subjects.treeBuilder(state.repo), TREE);
+    }
+
+    @Benchmark
+    public String buildTreeFromDirectoryCold(EmptyRepo state) throws Throwable {
+        return Subjects.buildTreeFromDirectory(Subjects.treeWorking(state.repo), TREE);
+    }
+
+    @Benchmark
+    public String addDirectoryWarm(StagedRepo state) throws Throwable {
+        return Subjects.addDirectory(Subjects.treeBuilder(state.repo), TREE);
+    }
+
+    @Benchmark
+    public String buildTreeFromDirectoryWarm(StagedRepo state) throws Throwable {
+        return Subjects.buildTreeFromDirectory(Subjects.treeWorking(state.repo), TREE);
+    }
+}